@@ -0,0 +1,81 @@
+package info.bahaa.softengine3d.benchmark;
+
+import info.bahaa.softengine3d.engine.Camera;
+import info.bahaa.softengine3d.engine.Device;
+import info.bahaa.softengine3d.engine.InstancedMesh;
+import info.bahaa.softengine3d.engine.Mesh;
+import info.bahaa.softengine3d.math.Mat4;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frames of a square grid of copies of one scene mesh, drawn either as separately loaded meshes or
+ * as instances sharing one mesh. The camera sees about the middle tenth of the grid.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class InstancedRenderBenchmark {
+
+    @Param({"monkey", "teapot"})
+    public String scene;
+
+    @Param({"100", "1000"})
+    public int count;
+
+    @Param({"false", "true"})
+    public boolean instanced;
+
+    private Device device;
+    private Camera camera;
+    private Mat4[] worldMatrices;
+    private List<Mesh> meshes;
+    private List<InstancedMesh> instancedMeshes;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.device = new Device(800, 600);
+        this.camera = new Camera();
+        this.camera.setPosition(0, 0, -40);
+
+        int side = (int) Math.ceil(Math.sqrt(this.count));
+        this.worldMatrices = new Mat4[this.count];
+        this.meshes = new ArrayList<>(this.count);
+        for (int i = 0; i < this.count; i++) {
+            this.worldMatrices[i] = new Mat4().setToTranslation((i % side - side / 2.f) * 3, (i / side - side / 2.f) * 3, 10);
+            if (!this.instanced || i == 0) {
+                Mesh mesh = this.load();
+                this.worldMatrices[i].get(mesh.getWorldMatrix());
+                this.meshes.add(mesh);
+            }
+        }
+        this.instancedMeshes = Collections.singletonList(new InstancedMesh(this.meshes.get(0), this.worldMatrices));
+    }
+
+    private Mesh load() throws IOException {
+        return Mesh.loadFromJson(InstancedRenderBenchmark.class.getResourceAsStream(String.format("/%s.babylon", this.scene))).get(0);
+    }
+
+    @Benchmark
+    public int[] renderFrame() {
+        this.device.clear();
+        if (this.instanced) {
+            this.device.render(this.camera, Collections.emptyList(), this.instancedMeshes);
+        } else {
+            this.device.render(this.camera, this.meshes);
+        }
+        return this.device.getBuffer();
+    }
+}
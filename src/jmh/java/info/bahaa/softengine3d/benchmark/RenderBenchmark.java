@@ -0,0 +1,92 @@
+package info.bahaa.softengine3d.benchmark;
+
+import info.bahaa.softengine3d.engine.Camera;
+import info.bahaa.softengine3d.engine.DepthFormat;
+import info.bahaa.softengine3d.engine.Device;
+import info.bahaa.softengine3d.engine.Mesh;
+import info.bahaa.softengine3d.engine.RasterizerMode;
+import info.bahaa.softengine3d.engine.ShadingMode;
+import info.bahaa.softengine3d.engine.TextureFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.vecmath.Vector3d;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full frames (clear and render) of the bundled scenes, the same work the application does per
+ * animation tick minus the upload to JavaFX. The shading mode, texture filter and depth format
+ * only run their default, compare the others by running the benchmark jar with for example
+ * {@code -p depth=FLOAT32,INT24,INT16}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RenderBenchmark {
+
+    @Param({"monkey", "teapot", "torus"})
+    public String scene;
+
+    @Param({"320x240", "800x600", "1920x1080"})
+    public String resolution;
+
+    @Param({"SCANLINE", "EDGE_FUNCTION"})
+    public RasterizerMode rasterizer;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"FORWARD"})
+    public ShadingMode shading;
+
+    @Param({"NEAREST"})
+    public TextureFilter filter;
+
+    @Param({"FLOAT32"})
+    public DepthFormat depth;
+
+    // Device.setVectorized fails the setup of the true runs, leaving them out, unless the forks run
+    // on JDK 16 or later with --add-modules jdk.incubator.vector, which the build adds when it can
+    @Param({"false", "true"})
+    public boolean vectorized;
+
+    private Device device;
+    private List<Mesh> meshes;
+    private Camera camera;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] size = this.resolution.split("x");
+        this.device = new Device(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+        this.device.setRasterizerMode(this.rasterizer);
+        this.device.setThreadCount(this.threads);
+        this.device.setShadingMode(this.shading);
+        this.device.setTextureFilter(this.filter);
+        this.device.setDepthFormat(this.depth);
+        this.device.setVectorized(this.vectorized);
+
+        this.meshes = Mesh.loadFromJson(RenderBenchmark.class.getResourceAsStream(String.format("/%s.babylon", this.scene)));
+
+        this.camera = new Camera();
+        this.camera.setPosition(new Vector3d(0, 0, 10));
+    }
+
+    @Benchmark
+    public int[] renderFrame() {
+        for (Mesh mesh : this.meshes) {
+            mesh.rotateYawPitchRoll(0.01, 0, 0);
+        }
+
+        this.device.clear();
+        this.device.render(this.camera, this.meshes);
+        return this.device.getBuffer();
+    }
+}
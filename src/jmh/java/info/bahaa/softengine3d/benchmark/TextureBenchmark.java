@@ -0,0 +1,61 @@
+package info.bahaa.softengine3d.benchmark;
+
+import info.bahaa.softengine3d.engine.Texture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.vecmath.Color4f;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples a 64x64 grid of texture coordinates spread over the whole texture per invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TextureBenchmark {
+
+    private static final int SAMPLES = 64;
+
+    private Texture texture;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.texture = new Texture("suzanne.jpg", TextureBenchmark.class.getResourceAsStream("/suzanne.jpg"));
+    }
+
+    @Benchmark
+    public void map(Blackhole blackhole) {
+        for (int v = 0; v < SAMPLES; v++) {
+            for (int u = 0; u < SAMPLES; u++) {
+                Color4f color = this.texture.map(u / (double) SAMPLES, v / (double) SAMPLES);
+                blackhole.consume(color);
+            }
+        }
+    }
+
+    @Benchmark
+    public void sample(Blackhole blackhole) {
+        for (int v = 0; v < SAMPLES; v++) {
+            for (int u = 0; u < SAMPLES; u++) {
+                blackhole.consume(this.texture.sample(u / (double) SAMPLES, v / (double) SAMPLES));
+            }
+        }
+    }
+
+    @Benchmark
+    public void sampleBilinear(Blackhole blackhole) {
+        for (int v = 0; v < SAMPLES; v++) {
+            for (int u = 0; u < SAMPLES; u++) {
+                blackhole.consume(this.texture.sampleBilinear(0, u / (double) SAMPLES, v / (double) SAMPLES));
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package info.bahaa.softengine3d.benchmark;
+
+import info.bahaa.softengine3d.math.Mat4;
+import info.bahaa.softengine3d.math.Vec3;
+import info.bahaa.softengine3d.math.VecMathUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Vector3d;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VecMathBenchmark {
+
+    private final Vector3d vector = new Vector3d(0.25, -0.5, 0.75);
+    private final Vector3d result = new Vector3d();
+    private Matrix4d transform;
+
+    private final Vec3 floatVector = new Vec3(0.25f, -0.5f, 0.75f);
+    private final Vec3 floatResult = new Vec3();
+    private final Mat4 floatTransform = new Mat4();
+    private final Mat4 floatRotation = new Mat4();
+
+    @Setup
+    public void setUp() {
+        Matrix4d view = VecMathUtils.lookAt(new Vector3d(0, 0, 10), new Vector3d(), new Vector3d(0, 1, 0));
+        Matrix4d projection = VecMathUtils.perspectiveFov(0.78, 800.0 / 600.0, 0.01, 1.0);
+
+        this.transform = VecMathUtils.rotationYawPitchRoll(0.3, 0.2, 0.1);
+        this.transform.mul(view);
+        this.transform.mul(projection);
+        this.floatTransform.set(this.transform);
+    }
+
+    @Benchmark
+    public Vector3d transformCoordinates() {
+        return VecMathUtils.transformCoordinates(this.vector, this.transform);
+    }
+
+    @Benchmark
+    public Vector3d transformCoordinatesInPlace() {
+        return VecMathUtils.transformCoordinates(this.vector, this.transform, this.result);
+    }
+
+    @Benchmark
+    public Vector3d transformNormal() {
+        return VecMathUtils.transformNormal(this.vector, this.transform);
+    }
+
+    @Benchmark
+    public Matrix4d rotationYawPitchRoll() {
+        return VecMathUtils.rotationYawPitchRoll(0.3, 0.2, 0.1);
+    }
+
+    @Benchmark
+    public Vec3 transformPointFloat() {
+        return this.floatTransform.transformPoint(this.floatVector, this.floatResult);
+    }
+
+    @Benchmark
+    public Vec3 transformNormalFloat() {
+        return this.floatTransform.transformNormal(this.floatVector, this.floatResult);
+    }
+
+    @Benchmark
+    public Mat4 rotationYawPitchRollFloat() {
+        return this.floatRotation.setToRotationYawPitchRoll(0.3f, 0.2f, 0.1f);
+    }
+
+    @Benchmark
+    public Mat4 mulFloat() {
+        return this.floatRotation.mul(this.floatTransform, this.floatTransform);
+    }
+}
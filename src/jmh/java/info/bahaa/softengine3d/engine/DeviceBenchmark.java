@@ -0,0 +1,76 @@
+package info.bahaa.softengine3d.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.vecmath.Color4f;
+import javax.vecmath.Vector2d;
+import javax.vecmath.Vector3d;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Device building blocks in isolation. Lives in the engine package to reach the protected
+ * triangle entry point.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DeviceBenchmark {
+
+    @Param({"800x600"})
+    public String resolution;
+
+    // Length of the triangle legs in pixels
+    @Param({"8", "64", "256"})
+    public int triangleSize;
+
+    @Param({"SCANLINE", "EDGE_FUNCTION"})
+    public RasterizerMode rasterizer;
+
+    private Device device;
+    private Texture texture;
+    private final Color4f color = new Color4f(1.f, 1.f, 1.f, 1.f);
+    private Vertex a;
+    private Vertex b;
+    private Vertex c;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] size = this.resolution.split("x");
+        this.device = new Device(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+        this.device.setRasterizerMode(this.rasterizer);
+        this.device.clear();
+        this.texture = new Texture("suzanne.jpg", DeviceBenchmark.class.getResourceAsStream("/suzanne.jpg"));
+
+        double x = this.device.getWidth() / 2.0;
+        double y = this.device.getHeight() / 2.0;
+        this.a = this.vertex(x, y, 0.0, 0.0);
+        this.b = this.vertex(x + this.triangleSize, y + this.triangleSize / 2.0, 1.0, 0.5);
+        this.c = this.vertex(x + this.triangleSize / 3.0, y + this.triangleSize, 0.3, 1.0);
+    }
+
+    @Benchmark
+    public int[] clear() {
+        this.device.clear();
+        return this.device.getBuffer();
+    }
+
+    @Benchmark
+    public int[] drawTriangle() {
+        // The depth buffer is not cleared between invocations, so every pixel passes the depth
+        // test against an equal depth and gets shaded each time
+        this.device.drawTriangle(this.a, this.b, this.c, this.color, this.texture);
+        return this.device.getBuffer();
+    }
+
+    private Vertex vertex(double x, double y, double u, double v) {
+        return new Vertex(new Vector3d(x, y, 0.5), new Vector3d(0, 0, 1), new Vector3d(0, 0, 0), new Vector2d(u, v));
+    }
+}
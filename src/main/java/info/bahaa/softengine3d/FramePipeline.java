@@ -0,0 +1,249 @@
+package info.bahaa.softengine3d;
+
+import info.bahaa.softengine3d.engine.Device;
+import info.bahaa.softengine3d.engine.FrameProfiler;
+import info.bahaa.softengine3d.engine.FrameStatistics;
+import info.bahaa.softengine3d.engine.Region;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Renders frames on a dedicated thread while the JavaFX application thread presents them. The
+ * device draws straight into one of a fixed set of frame buffers, each of them shared with a
+ * {@link WritableImage} through a {@link PixelBuffer}, so presenting a frame never copies pixels
+ * and only the region that changed since the buffer was last presented is uploaded.
+ * <p>
+ * Finished frames wait in a bounded queue until the next pulse picks up the newest one. A buffer
+ * is only handed back to the render thread one pulse after it stopped being displayed, giving
+ * JavaFX the time to upload it. Three buffers let rendering and presentation fully overlap, with
+ * two the render thread waits for every other pulse.
+ * <p>
+ * The statistics of every presented frame, presentation time included, go to a
+ * {@link FrameProfiler}. JavaFX only uploads the changed pixels in the render pass that follows the
+ * pulse, so the presentation time runs from the swap in one pulse to the start of the next one. It
+ * covers layout, the scene graph sync and the render pass with the upload, and also the wait for the
+ * next pulse, vertical sync included when it is on. A frame is recorded once that interval closes.
+ */
+public class FramePipeline implements AutoCloseable {
+
+    public enum DropPolicy {
+        // The render thread never waits for presentation, the oldest queued frame is discarded
+        DROP_OLDEST,
+        // The render thread waits for the queue to make room, every frame is presented
+        WAIT
+    }
+
+    private static class Frame {
+        final int[] pixels;
+        final PixelBuffer<IntBuffer> pixelBuffer;
+        final WritableImage image;
+        // Pixels changed since the frame was last presented, the whole image before the first time
+        final Region changedRegion = new Region();
+        final FrameStatistics statistics = new FrameStatistics();
+
+        Frame(int width, int height) {
+            this.pixels = new int[width * height];
+            this.pixelBuffer = new PixelBuffer<>(width, height, IntBuffer.wrap(this.pixels),
+                    PixelFormat.getIntArgbPreInstance());
+            this.image = new WritableImage(this.pixelBuffer);
+            this.changedRegion.set(0, 0, width, height);
+        }
+    }
+
+    private final Device device;
+    private final Consumer<Device> renderer;
+    private final DropPolicy dropPolicy;
+
+    private final BlockingQueue<Frame> freeFrames;
+    private final LinkedBlockingDeque<Frame> readyFrames;
+    private final Thread renderThread;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicLong droppedFrameCount = new AtomicLong();
+    private final FrameProfiler profiler = new FrameProfiler();
+
+    private final Object pauseLock = new Object();
+    private boolean paused;
+    private volatile boolean running = true;
+
+    // Only touched on the JavaFX application thread
+    private final ArrayDeque<Frame> presentable = new ArrayDeque<>();
+    private Frame displayedFrame;
+    private Frame retiredFrame;
+    // The frame swapped in by the last pulse, whose presentation time closes with this one
+    private Frame timedFrame;
+    private long presentationStart;
+
+    /**
+     * @param renderer called on the render thread with a cleared device for every frame, it
+     *                 animates the scene and calls {@link Device#render}
+     */
+    public FramePipeline(Device device, int buffers, int queueCapacity, DropPolicy dropPolicy, Consumer<Device> renderer) {
+        if (buffers < 2) {
+            throw new IllegalArgumentException("buffers must be at least 2");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1");
+        }
+        this.device = device;
+        this.renderer = renderer;
+        this.dropPolicy = dropPolicy;
+
+        this.freeFrames = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            this.freeFrames.add(new Frame(device.getWidth(), device.getHeight()));
+        }
+        this.readyFrames = new LinkedBlockingDeque<>(queueCapacity);
+
+        this.renderThread = new Thread(this::renderLoop, "frame-renderer");
+        this.renderThread.setDaemon(true);
+    }
+
+    public void start() {
+        this.renderThread.start();
+    }
+
+    /**
+     * Stops rendering after the current frame, the scene is not animated while paused.
+     */
+    public void setPaused(boolean paused) {
+        synchronized (this.pauseLock) {
+            this.paused = paused;
+            this.pauseLock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        synchronized (this.pauseLock) {
+            return this.paused;
+        }
+    }
+
+    /**
+     * Frames rendered but never presented, either discarded by {@link DropPolicy#DROP_OLDEST} or
+     * overtaken by a newer frame before the next pulse.
+     */
+    public long getDroppedFrameCount() {
+        return this.droppedFrameCount.get();
+    }
+
+    public FrameProfiler getProfiler() {
+        return this.profiler;
+    }
+
+    /**
+     * Swaps in the newest rendered frame. Must be called on the JavaFX application thread, once
+     * per pulse.
+     *
+     * @return the image holding the new frame, or null if no frame finished since the last call
+     */
+    public Image present() {
+        Throwable throwable = this.failure.get();
+        if (throwable != null) {
+            throw new IllegalStateException("Rendering failed", throwable);
+        }
+
+        // The last swapped frame has been through a whole render pass by now, its buffer is still
+        // displayed so its statistics are untouched
+        long pulseStart = System.nanoTime();
+        if (this.timedFrame != null) {
+            this.timedFrame.statistics.setPresentationNanos(pulseStart - this.presentationStart);
+            this.profiler.record(this.timedFrame.statistics);
+            this.timedFrame = null;
+        }
+
+        if (this.retiredFrame != null) {
+            this.freeFrames.add(this.retiredFrame);
+            this.retiredFrame = null;
+        }
+
+        this.readyFrames.drainTo(this.presentable);
+        Frame frame = this.presentable.pollLast();
+        if (frame == null) {
+            return null;
+        }
+        while (!this.presentable.isEmpty()) {
+            this.freeFrames.add(this.presentable.pollFirst());
+            this.droppedFrameCount.incrementAndGet();
+        }
+
+        // The pixels changed behind the image's back, only the changed rectangle is uploaded again
+        Region region = frame.changedRegion;
+        if (!region.isEmpty()) {
+            Rectangle2D dirty = new Rectangle2D(region.minX, region.minY, region.getWidth(), region.getHeight());
+            frame.pixelBuffer.updateBuffer(buffer -> dirty);
+            region.setEmpty();
+        }
+        this.retiredFrame = this.displayedFrame;
+        this.displayedFrame = frame;
+
+        this.timedFrame = frame;
+        this.presentationStart = System.nanoTime();
+        return frame.image;
+    }
+
+    /**
+     * Stops the render thread and waits for it to finish its frame. An interrupt stops the wait and
+     * keeps the calling thread's interrupt flag set.
+     */
+    @Override
+    public void close() {
+        this.running = false;
+        this.renderThread.interrupt();
+        try {
+            this.renderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void renderLoop() {
+        try {
+            while (this.running) {
+                synchronized (this.pauseLock) {
+                    while (this.paused) {
+                        this.pauseLock.wait();
+                    }
+                }
+
+                Frame frame = this.freeFrames.take();
+                this.device.setBuffer(frame.pixels);
+                this.device.clear();
+                this.renderer.accept(this.device);
+                List<Region> dirtyRegions = this.device.getDirtyRegions();
+                for (int i = 0; i < dirtyRegions.size(); i++) {
+                    frame.changedRegion.union(dirtyRegions.get(i));
+                }
+                frame.statistics.set(this.device.getStatistics());
+
+                if (this.dropPolicy == DropPolicy.WAIT) {
+                    this.readyFrames.putLast(frame);
+                } else {
+                    while (!this.readyFrames.offerLast(frame)) {
+                        Frame dropped = this.readyFrames.pollFirst();
+                        if (dropped != null) {
+                            this.freeFrames.add(dropped);
+                            this.droppedFrameCount.incrementAndGet();
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed while waiting for a buffer or for room in the queue
+        } catch (Throwable t) {
+            this.failure.compareAndSet(null, t);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package info.bahaa.softengine3d;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes rendered frames to disk on a pool of encoder threads. Frames are copied into one of a
+ * fixed set of buffers, so the caller can render the next frame right away and only blocks when
+ * every buffer is still waiting to be encoded.
+ */
+public class FrameWriter implements AutoCloseable {
+
+    public enum Format {
+        PNG("png"),
+        // Big-endian 32 bit ARGB pixels, row after row, without any header
+        RAW("argb");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    private final Path directory;
+    private final Format format;
+    private final int width;
+    private final int height;
+
+    private final BlockingQueue<int[]> freeBuffers;
+    private final ExecutorService encoders;
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    public FrameWriter(Path directory, Format format, int width, int height, int encoderThreads, int buffers) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.format = format;
+        this.width = width;
+        this.height = height;
+
+        this.freeBuffers = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            this.freeBuffers.add(new int[width * height]);
+        }
+
+        this.encoders = Executors.newFixedThreadPool(encoderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "frame-encoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void submit(int frame, int[] pixels) throws IOException, InterruptedException {
+        this.rethrowFailure();
+
+        int[] buffer = this.freeBuffers.take();
+        System.arraycopy(pixels, 0, buffer, 0, buffer.length);
+
+        this.encoders.execute(() -> {
+            try {
+                this.write(frame, buffer);
+            } catch (Exception e) {
+                this.failure.compareAndSet(null, e);
+            } finally {
+                this.freeBuffers.add(buffer);
+            }
+        });
+    }
+
+    /**
+     * Waits for all the submitted frames to be written. An interrupt stops the wait, keeps the
+     * thread's interrupt flag set and is reported as an {@link InterruptedIOException}, as frames
+     * may be missing then.
+     */
+    @Override
+    public void close() throws IOException {
+        this.encoders.shutdown();
+        try {
+            this.encoders.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for frames to be written");
+        }
+        this.rethrowFailure();
+    }
+
+    private void write(int frame, int[] pixels) throws IOException {
+        Path file = this.directory.resolve(String.format("frame-%05d.%s", frame, this.format.extension));
+
+        if (this.format == Format.PNG) {
+            // Wrapping the pixels instead of copying them into a new image, alpha is always opaque
+            DataBufferInt dataBuffer = new DataBufferInt(pixels, pixels.length);
+            WritableRaster raster = Raster.createPackedRaster(dataBuffer, this.width, this.height, this.width,
+                    new int[]{0xFF0000, 0xFF00, 0xFF}, null);
+            BufferedImage image = new BufferedImage(new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF), raster, false, null);
+
+            if (!ImageIO.write(image, "png", file.toFile())) {
+                throw new IOException("No PNG encoder available");
+            }
+        } else {
+            ByteBuffer bytes = ByteBuffer.allocate(pixels.length * 4);
+            bytes.asIntBuffer().put(pixels);
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            }
+        }
+    }
+
+    private void rethrowFailure() throws IOException {
+        Exception exception = this.failure.get();
+        if (exception != null) {
+            throw new IOException("Writing frames failed", exception);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package info.bahaa.softengine3d;
+
+import info.bahaa.softengine3d.engine.BabylonLoader;
+import info.bahaa.softengine3d.engine.Camera;
+import info.bahaa.softengine3d.engine.DepthFormat;
+import info.bahaa.softengine3d.engine.Device;
+import info.bahaa.softengine3d.engine.FrameProfiler;
+import info.bahaa.softengine3d.engine.FrameStatistics;
+import info.bahaa.softengine3d.engine.Mesh;
+import info.bahaa.softengine3d.engine.MeshCache;
+import info.bahaa.softengine3d.engine.MeshOptimizer;
+import info.bahaa.softengine3d.engine.RasterizerMode;
+import info.bahaa.softengine3d.engine.ShadingMode;
+import info.bahaa.softengine3d.engine.TextureFilter;
+import info.bahaa.softengine3d.engine.TextureManager;
+
+import javax.vecmath.Vector3d;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Renders a scene to image files without JavaFX, for batch rendering on headless machines.
+ * Every frame rotates the meshes and orbits the camera around its target by fixed steps, then
+ * hands the frame to a {@link FrameWriter} while the next one is rendered.
+ */
+public class HeadlessRenderer {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: HeadlessRenderer [options]",
+            "  --scene <file|resource>   .babylon scene, a file or a classpath resource (default /monkey.babylon)",
+            "  --frames <n>              number of frames to render (default 120)",
+            "  --size <w>x<h>            frame size (default 800x600)",
+            "  --output <dir>            output directory (default frames)",
+            "  --format <png|raw>        frame format (default png)",
+            "  --camera <x,y,z>          camera position (default 0,0,10)",
+            "  --target <x,y,z>          camera target (default 0,0,0)",
+            "  --rotate <yaw,pitch,roll> mesh rotation per frame in radians (default 0.01,0,0)",
+            "  --orbit <radians>         camera rotation around the target's y axis per frame (default 0)",
+            "  --threads <n>             rasterizer threads (default: available processors)",
+            "  --encoders <n>            encoder threads (default 2)",
+            "  --rasterizer <mode>       SCANLINE or EDGE_FUNCTION (default SCANLINE)",
+            "  --shading <mode>          FORWARD or DEFERRED shading (default FORWARD)",
+            "  --filter <filter>         NEAREST or BILINEAR texture filtering (default NEAREST)",
+            "  --mipmaps <true|false>    sample textures from mip levels (default true)",
+            "  --depth <format>          FLOAT32, INT24 or INT16 depth buffer (default FLOAT32)",
+            "  --reversed-depth <true|false> store reversed depth (default false)",
+            "  --vector <true|false>     Java Vector API kernels (default: when started with --add-modules jdk.incubator.vector)",
+            "  --lod <n>                 simplified levels of detail to build for every mesh (default 0)",
+            "  --lod-size <pixels>       screen size below which meshes drop to their first simplified level (default 256)",
+            "  --cache <dir>             binary mesh cache directory, speeds up later loads of the same scene");
+
+    private String scene = "/monkey.babylon";
+    private int frames = 120;
+    private int width = 800;
+    private int height = 600;
+    private Path output = Paths.get("frames");
+    private FrameWriter.Format format = FrameWriter.Format.PNG;
+    private double[] cameraPosition = {0, 0, 10};
+    private double[] cameraTarget = {0, 0, 0};
+    private double[] rotation = {0.01, 0, 0};
+    private double orbit = 0;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int encoders = 2;
+    private RasterizerMode rasterizerMode = RasterizerMode.SCANLINE;
+    private ShadingMode shadingMode = ShadingMode.FORWARD;
+    private TextureFilter textureFilter = TextureFilter.NEAREST;
+    private boolean mipmapping = true;
+    private DepthFormat depthFormat = DepthFormat.FLOAT32;
+    private boolean reversedDepth;
+    private boolean vectorized = Device.isVectorSupported();
+    private int levelsOfDetail;
+    private double levelOfDetailSize = 256;
+    private Path cache;
+
+    public static void main(String[] args) throws Exception {
+        HeadlessRenderer renderer = new HeadlessRenderer();
+        try {
+            if (!renderer.parse(args)) {
+                System.out.println(USAGE);
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        renderer.run();
+    }
+
+    /**
+     * Returns false when only the usage was asked for.
+     */
+    private boolean parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--help")) {
+                return false;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+
+            switch (option) {
+                case "--scene":
+                    this.scene = value;
+                    break;
+                case "--frames":
+                    this.frames = Integer.parseInt(value);
+                    break;
+                case "--size":
+                    String[] size = value.split("x");
+                    if (size.length != 2) {
+                        throw new IllegalArgumentException("Invalid size: " + value);
+                    }
+                    this.width = Integer.parseInt(size[0]);
+                    this.height = Integer.parseInt(size[1]);
+                    break;
+                case "--output":
+                    this.output = Paths.get(value);
+                    break;
+                case "--format":
+                    this.format = FrameWriter.Format.valueOf(value.toUpperCase());
+                    break;
+                case "--camera":
+                    this.cameraPosition = parseTriple(value);
+                    break;
+                case "--target":
+                    this.cameraTarget = parseTriple(value);
+                    break;
+                case "--rotate":
+                    this.rotation = parseTriple(value);
+                    break;
+                case "--orbit":
+                    this.orbit = Double.parseDouble(value);
+                    break;
+                case "--threads":
+                    this.threads = Integer.parseInt(value);
+                    break;
+                case "--encoders":
+                    this.encoders = Integer.parseInt(value);
+                    break;
+                case "--rasterizer":
+                    this.rasterizerMode = RasterizerMode.valueOf(value.toUpperCase());
+                    break;
+                case "--shading":
+                    this.shadingMode = ShadingMode.valueOf(value.toUpperCase());
+                    break;
+                case "--filter":
+                    this.textureFilter = TextureFilter.valueOf(value.toUpperCase());
+                    break;
+                case "--mipmaps":
+                    this.mipmapping = Boolean.parseBoolean(value);
+                    break;
+                case "--depth":
+                    this.depthFormat = DepthFormat.valueOf(value.toUpperCase());
+                    break;
+                case "--reversed-depth":
+                    this.reversedDepth = Boolean.parseBoolean(value);
+                    break;
+                case "--vector":
+                    this.vectorized = Boolean.parseBoolean(value);
+                    if (this.vectorized && !Device.isVectorSupported()) {
+                        throw new IllegalArgumentException("The Java Vector API is not available");
+                    }
+                    break;
+                case "--lod":
+                    this.levelsOfDetail = Integer.parseInt(value);
+                    break;
+                case "--lod-size":
+                    this.levelOfDetailSize = Double.parseDouble(value);
+                    break;
+                case "--cache":
+                    this.cache = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        return true;
+    }
+
+    private static double[] parseTriple(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Expected x,y,z but got " + value);
+        }
+        return new double[]{Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), Double.parseDouble(parts[2])};
+    }
+
+    private void run() throws IOException, InterruptedException {
+        long loadStart = System.nanoTime();
+        List<Mesh> meshes = this.loadScene();
+        System.out.printf("Loaded %s in %.1f ms%n", this.scene, (System.nanoTime() - loadStart) / 1e6);
+        if (this.levelsOfDetail > 0) {
+            long simplificationStart = System.nanoTime();
+            for (Mesh mesh : meshes) {
+                mesh.buildLevelsOfDetail(this.levelsOfDetail);
+            }
+            System.out.printf("Built levels of detail in %.1f ms%n", (System.nanoTime() - simplificationStart) / 1e6);
+        }
+
+        Device device = new Device(this.width, this.height);
+        device.setThreadCount(this.threads);
+        device.setRasterizerMode(this.rasterizerMode);
+        device.setShadingMode(this.shadingMode);
+        device.setTextureFilter(this.textureFilter);
+        device.setMipmapping(this.mipmapping);
+        device.setDepthFormat(this.depthFormat);
+        device.setReversedDepth(this.reversedDepth);
+        device.setVectorized(this.vectorized);
+        device.setLevelOfDetailSize(this.levelOfDetailSize);
+
+        Vector3d target = new Vector3d(this.cameraTarget[0], this.cameraTarget[1], this.cameraTarget[2]);
+        Vector3d position = new Vector3d();
+        Camera camera = new Camera();
+        camera.setTarget(target);
+
+        // Orbiting keeps the camera at its initial distance and height from the target
+        double offsetX = this.cameraPosition[0] - target.x;
+        double offsetZ = this.cameraPosition[2] - target.z;
+
+        long renderNanos = 0;
+        FrameProfiler profiler = new FrameProfiler();
+        long start = System.nanoTime();
+
+        // Two frames in flight per encoder keep the encoders busy while the next frames render
+        try (FrameWriter writer = new FrameWriter(this.output, this.format, this.width, this.height, this.encoders, this.encoders * 2)) {
+            for (int frame = 0; frame < this.frames; frame++) {
+                long frameStart = System.nanoTime();
+
+                double angle = this.orbit * frame;
+                double cos = Math.cos(angle);
+                double sin = Math.sin(angle);
+                position.set(target.x + offsetX * cos - offsetZ * sin, this.cameraPosition[1], target.z + offsetX * sin + offsetZ * cos);
+                camera.setPosition(position);
+
+                for (Mesh mesh : meshes) {
+                    mesh.rotateYawPitchRoll(this.rotation[0], this.rotation[1], this.rotation[2]);
+                }
+
+                device.clear();
+                device.render(camera, meshes);
+                renderNanos += System.nanoTime() - frameStart;
+
+                // Handing the frame to the writer is this renderer's presentation
+                long presentationStart = System.nanoTime();
+                writer.submit(frame, device.getBuffer());
+                FrameStatistics statistics = device.getStatistics();
+                statistics.setPresentationNanos(System.nanoTime() - presentationStart);
+                profiler.record(statistics);
+            }
+        }
+
+        double totalSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Rendered %d frames of %dx%d to %s in %.2f s: %.2f fps overall, %.2f fps rendering only%n",
+                this.frames, this.width, this.height, this.output, totalSeconds,
+                this.frames / totalSeconds, this.frames / (renderNanos / 1e9));
+        System.out.printf("Frame time over the last %d frames: p50 %.2f ms, p99 %.2f ms%n",
+                Math.min(this.frames, FrameProfiler.DEFAULT_WINDOW), profiler.getMedianNanos() / 1e6,
+                profiler.get99thPercentileNanos() / 1e6);
+    }
+
+    private List<Mesh> loadScene() throws IOException {
+        Path path = Paths.get(this.scene);
+        boolean file = Files.isRegularFile(path);
+
+        if (this.cache != null) {
+            MeshCache meshCache = new MeshCache(this.cache);
+            return file ? meshCache.load(path) : meshCache.loadResource(this.scene);
+        }
+
+        InputStream inputStream = file ? Files.newInputStream(path) : HeadlessRenderer.class.getResourceAsStream(this.scene);
+        if (inputStream == null) {
+            throw new IOException("Scene not found: " + this.scene);
+        }
+        List<Mesh> meshes;
+        try {
+            meshes = BabylonLoader.load(inputStream, TextureManager.getShared(), false);
+        } finally {
+            inputStream.close();
+        }
+
+        // Optimized here rather than by the loader to report what it did, cached scenes are
+        // stored optimized already
+        int originalVertexCount = 0, vertexCount = 0, originalFaceCount = 0, faceCount = 0;
+        double originalMisses = 0, misses = 0;
+        for (Mesh mesh : meshes) {
+            MeshOptimizer optimizer = mesh.optimize();
+            originalVertexCount += optimizer.getOriginalVertexCount();
+            vertexCount += optimizer.getVertexCount();
+            originalFaceCount += optimizer.getOriginalFaceCount();
+            faceCount += optimizer.getFaceCount();
+            originalMisses += optimizer.getOriginalAcmr() * optimizer.getOriginalFaceCount();
+            misses += optimizer.getAcmr() * optimizer.getFaceCount();
+        }
+        System.out.printf("Optimized meshes: %d -> %d vertices, ACMR %.3f -> %.3f%n", originalVertexCount, vertexCount,
+                originalMisses / Math.max(1, originalFaceCount), misses / Math.max(1, faceCount));
+        return meshes;
+    }
+}
@@ -2,25 +2,21 @@ package info.bahaa.softengine3d;
 
 import info.bahaa.softengine3d.engine.Camera;
 import info.bahaa.softengine3d.engine.Device;
+import info.bahaa.softengine3d.engine.FrameProfiler;
 import info.bahaa.softengine3d.engine.Mesh;
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.geometry.Insets;
 import javafx.scene.Group;
 import javafx.scene.Scene;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Label;
-import javafx.scene.image.PixelFormat;
-import javafx.scene.image.PixelWriter;
-import javafx.scene.image.WritableImage;
-import javafx.scene.image.WritablePixelFormat;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
 import javax.vecmath.Vector3d;
 import java.io.IOException;
-import java.nio.IntBuffer;
 import java.util.List;
 
 /**
@@ -31,12 +27,14 @@ public class SoftEngineApplication extends Application {
     private static final int WIDTH = 800;
     private static final int HEIGHT = 600;
 
-    private WritableImage writableImage;
+    // Triple buffering: one frame displayed, one waiting for JavaFX to let go of it, one rendering
+    private static final int FRAME_BUFFERS = 3;
+
     private AnimationTimer animationTimer;
     private boolean animationStarted;
-    private GraphicsContext gc;
 
     private Device device;
+    private FramePipeline framePipeline;
 
     private long previousFrameTimestamp = 0;
     private float[] frameRates = new float[128];
@@ -55,12 +53,13 @@ public class SoftEngineApplication extends Application {
         Group root = new Group();
 
         this.device = new Device(WIDTH, HEIGHT);
-        this.writableImage = new WritableImage(WIDTH, HEIGHT);
+        this.device.setThreadCount(Runtime.getRuntime().availableProcessors());
         this.initEngine();
+        this.framePipeline = new FramePipeline(this.device, FRAME_BUFFERS, 1, FramePipeline.DropPolicy.DROP_OLDEST,
+                this::renderFrame);
 
-        Canvas canvas = new Canvas(WIDTH, HEIGHT);
-        this.gc = canvas.getGraphicsContext2D();
-        root.getChildren().add(canvas);
+        ImageView imageView = new ImageView();
+        root.getChildren().add(imageView);
 
         final Label frameRateLabel = new Label("Frame Rate: 00 fps");
         frameRateLabel.setTextFill(Color.GRAY);
@@ -70,24 +69,26 @@ public class SoftEngineApplication extends Application {
         this.animationTimer = new AnimationTimer() {
             @Override
             public void handle(long now) {
-                animate(now);
-                updateFrameRate(now);
-                frameRateLabel.setText(String.format("Frame Rate: ~ %.2f fps", averageFrameRate()));
+                Image frame = framePipeline.present();
+                if (frame != null) {
+                    imageView.setImage(frame);
+                    updateFrameRate(now);
+                    FrameProfiler profiler = framePipeline.getProfiler();
+                    frameRateLabel.setText(String.format("Frame Rate: ~ %.2f fps, frame time p50 %.2f ms, p99 %.2f ms",
+                            averageFrameRate(), profiler.getMedianNanos() / 1e6, profiler.get99thPercentileNanos() / 1e6));
+                }
             }
         };
+        this.framePipeline.start();
         this.animationTimer.start();
         this.animationStarted = true;
 
         root.setOnMouseClicked(event -> {
             this.animationStarted = !this.animationStarted;
-            if (this.animationStarted) {
-                this.animationTimer.start();
-            } else {
-                this.animationTimer.stop();
-            }
+            this.framePipeline.setPaused(!this.animationStarted);
         });
 
-        primaryStage.setScene(new Scene(root));
+        primaryStage.setScene(new Scene(root, WIDTH, HEIGHT));
         primaryStage.show();
     }
 
@@ -96,23 +97,28 @@ public class SoftEngineApplication extends Application {
         camera.setPosition(new Vector3d(0, 0, 10));
     }
 
-    private void animate(long now) {
-        PixelWriter pixelWriter = this.writableImage.getPixelWriter();
+    @Override
+    public void stop() throws Exception {
+        this.animationTimer.stop();
+        this.framePipeline.close();
+    }
 
+    // Runs on the render thread, the meshes and the camera are never touched by the JavaFX thread
+    private void renderFrame(Device device) {
         for (Mesh mesh : this.meshes) {
             mesh.rotateYawPitchRoll(0.01, 0, 0);
         }
 
-        device.clear();
         device.render(camera, this.meshes);
-
-        WritablePixelFormat<IntBuffer> pixelFormat = PixelFormat.getIntArgbPreInstance();
-        pixelWriter.setPixels(0, 0, WIDTH, HEIGHT, pixelFormat, device.getBuffer(), 0, device.getWidth());
-
-        gc.drawImage(this.writableImage, 0.0, 0.0);
     }
 
     private float updateFrameRate(long now) {
+        // The first frame has nothing to measure against
+        if (this.previousFrameTimestamp == 0) {
+            this.previousFrameTimestamp = now;
+            return 0;
+        }
+
         float currentFps = 1000_000_000.f / (now - this.previousFrameTimestamp);
         this.previousFrameTimestamp = now;
 
@@ -123,10 +129,16 @@ public class SoftEngineApplication extends Application {
     }
 
     private float averageFrameRate() {
+        // Until the ring fills up only the slots written so far hold frame rates
+        int count = Math.min(this.nextFrameRateIndex, this.frameRates.length);
+        if (count == 0) {
+            return 0;
+        }
+
         float sum = 0;
-        for (float fps : this.frameRates) {
-            sum += fps;
+        for (int i = 0; i < count; i++) {
+            sum += this.frameRates[i];
         }
-        return sum / this.frameRates.length;
+        return sum / count;
     }
 }
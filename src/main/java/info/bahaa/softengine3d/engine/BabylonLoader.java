@@ -0,0 +1,228 @@
+package info.bahaa.softengine3d.engine;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming reader for .babylon scenes. Vertex and index arrays are decoded token by token
+ * straight into primitive arrays, and anything the engine does not use is skipped. Diffuse
+ * textures are requested from a {@link TextureManager} as soon as the materials are read, so
+ * they decode while the geometry is parsed.
+ */
+public final class BabylonLoader {
+
+    private BabylonLoader() {
+    }
+
+    public static List<Mesh> load(InputStream inputStream) throws IOException {
+        return load(inputStream, TextureManager.getShared());
+    }
+
+    public static List<Mesh> load(InputStream inputStream, TextureManager textureManager) throws IOException {
+        return load(inputStream, textureManager, true);
+    }
+
+    /**
+     * With {@code optimize} every mesh is passed through {@link Mesh#optimize()}, as exporters
+     * leave duplicate vertices in place and faces in no useful order.
+     */
+    public static List<Mesh> load(InputStream inputStream, TextureManager textureManager, boolean optimize) throws IOException {
+        JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)));
+
+        Map<String, Material> materials = new HashMap<>();
+        List<MeshRecord> records = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "materials":
+                    readMaterials(reader, materials, textureManager);
+                    break;
+                case "meshes":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        records.add(readMesh(reader));
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // Materials may come after the meshes, so meshes are only built once the scene is read
+        List<Mesh> meshes = new ArrayList<>(records.size());
+        for (MeshRecord record : records) {
+            Mesh mesh = record.toMesh(materials, textureManager);
+            if (optimize) {
+                mesh.optimize();
+            }
+            meshes.add(mesh);
+        }
+        return meshes;
+    }
+
+    private static void readMaterials(JsonReader reader, Map<String, Material> materials, TextureManager textureManager) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Material material = new Material();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name":
+                        material.name = reader.nextString();
+                        break;
+                    case "id":
+                        material.id = reader.nextString();
+                        break;
+                    case "diffuseTexture":
+                        material.diffuseTextureName = readTextureName(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (material.diffuseTextureName != null) {
+                textureManager.request(material.diffuseTextureName);
+            }
+            materials.put(material.id, material);
+        }
+        reader.endArray();
+    }
+
+    private static String readTextureName(JsonReader reader) throws IOException {
+        String name = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("name")) {
+                name = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return name;
+    }
+
+    private static MeshRecord readMesh(JsonReader reader) throws IOException {
+        MeshRecord record = new MeshRecord();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name":
+                    record.name = reader.nextString();
+                    break;
+                case "materialId":
+                    record.materialId = reader.nextString();
+                    break;
+                case "uvCount":
+                    record.uvCount = reader.nextInt();
+                    break;
+                case "vertices":
+                    record.vertices = readDoubles(reader);
+                    break;
+                case "indices":
+                    record.indices = readInts(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return record;
+    }
+
+    private static double[] readDoubles(JsonReader reader) throws IOException {
+        double[] values = new double[1024];
+        int count = 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[count++] = reader.nextDouble();
+        }
+        reader.endArray();
+        return Arrays.copyOf(values, count);
+    }
+
+    private static int[] readInts(JsonReader reader) throws IOException {
+        int[] values = new int[1024];
+        int count = 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[count++] = reader.nextInt();
+        }
+        reader.endArray();
+        return Arrays.copyOf(values, count);
+    }
+
+    private static class MeshRecord {
+        String name;
+        String materialId;
+        int uvCount;
+        double[] vertices = new double[0];
+        int[] indices = new int[0];
+
+        Mesh toMesh(Map<String, Material> materials, TextureManager textureManager) throws IOException {
+            // Depending of the number of texture's coordinates per vertex
+            // we're jumping in the vertices array  by 6, 8 & 10 windows frame
+            int verticesStep = 6 + this.uvCount * 2;
+
+            // the number of interesting vertices information for us
+            int verticesCount = this.vertices.length / verticesStep;
+
+            double[] positions = new double[verticesCount * 3];
+            double[] normals = new double[verticesCount * 3];
+            double[] textureCoordinates = new double[verticesCount * 2];
+
+            for (int index = 0; index < verticesCount; index++) {
+                int offset = index * verticesStep;
+                System.arraycopy(this.vertices, offset, positions, index * 3, 3);
+                System.arraycopy(this.vertices, offset + 3, normals, index * 3, 3);
+                if (this.uvCount > 0) {
+                    System.arraycopy(this.vertices, offset + 6, textureCoordinates, index * 2, 2);
+                }
+            }
+
+            // number of faces is logically the size of the array divided by 3 (A, B, C)
+            int[] indices = this.indices.length % 3 == 0 ? this.indices : Arrays.copyOf(this.indices, this.indices.length / 3 * 3);
+
+            MeshGeometry geometry = new MeshGeometry(positions, normals, textureCoordinates, this.uvCount > 0,
+                    indices, new double[indices.length]);
+            Mesh mesh = new Mesh(this.name, geometry);
+
+            // Loading texure
+            if (this.uvCount > 0) {
+                Material material = materials.get(this.materialId);
+                if (material != null && material.diffuseTextureName != null) {
+                    mesh.setTexture(textureManager.get(material.diffuseTextureName));
+                }
+            }
+
+            mesh.calculateFaceNormals();
+            return mesh;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package info.bahaa.softengine3d.engine;
+
+/**
+ * Axis aligned box and bounding sphere of a mesh, in the mesh's model space. The sphere is
+ * centered on the box.
+ */
+public class Bounds {
+
+    public double minX, minY, minZ;
+    public double maxX, maxY, maxZ;
+    public double centerX, centerY, centerZ;
+    public double radius;
+
+    public void set(double minX, double minY, double minZ, double maxX, double maxY, double maxZ, double radius) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+        this.centerX = (minX + maxX) * 0.5;
+        this.centerY = (minY + maxY) * 0.5;
+        this.centerZ = (minZ + maxZ) * 0.5;
+        this.radius = radius;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Bounds{min=(%f, %f, %f), max=(%f, %f, %f), radius=%f}", minX, minY, minZ, maxX, maxY, maxZ, radius);
+    }
+}
@@ -22,6 +22,10 @@ public class Camera {
         this.position = position;
     }
 
+    public void setPosition(double x, double y, double z) {
+        this.position.set(x, y, z);
+    }
+
     public Vector3d getTarget() {
         return target;
     }
@@ -29,4 +33,8 @@ public class Camera {
     public void setTarget(Vector3d target) {
         this.target = target;
     }
+
+    public void setTarget(double x, double y, double z) {
+        this.target.set(x, y, z);
+    }
 }
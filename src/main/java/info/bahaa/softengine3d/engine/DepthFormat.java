@@ -0,0 +1,21 @@
+package info.bahaa.softengine3d.engine;
+
+/**
+ * Storage formats of the {@link Device} depth buffer.
+ */
+public enum DepthFormat {
+    /**
+     * 32 bit float per pixel. Combined with reversed depth it keeps nearly constant relative
+     * precision over the whole view distance.
+     */
+    FLOAT32,
+    /**
+     * 24 bit unsigned normalized integer, held in a 32 bit int per pixel.
+     */
+    INT24,
+    /**
+     * 16 bit unsigned normalized integer, half the memory traffic of the other formats at the cost
+     * of precision.
+     */
+    INT16
+}
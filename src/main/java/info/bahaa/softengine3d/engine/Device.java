@@ -1,75 +1,1053 @@
 package info.bahaa.softengine3d.engine;
 
-import info.bahaa.softengine3d.math.VecMathUtils;
+import info.bahaa.softengine3d.math.Mat4;
+import info.bahaa.softengine3d.math.Vec3;
 
 import javax.vecmath.Color4f;
-import javax.vecmath.Matrix4d;
+import javax.vecmath.Vector2d;
 import javax.vecmath.Vector3d;
+import javax.vecmath.Vector4d;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Created by bahaazaid on 3/15/2016.
  */
 public class Device {
 
+    protected static final int TILE_SIZE = 64;
+
+    // Edge function rasterizer: 4 bits of sub-pixel precision and 8x8 pixel blocks
+    protected static final int SUB_PIXEL_BITS = 4;
+    protected static final int SUB_PIXEL_SCALE = 1 << SUB_PIXEL_BITS;
+    protected static final int BLOCK_SIZE = 8;
+    // Hierarchical depth: the farthest depth of every 8x8 pixel tile, aligned with the edge
+    // function blocks
+    protected static final int DEPTH_TILE_SIZE = BLOCK_SIZE;
+    // Depth keys: every format stores a value that sorts like an unsigned integer, nearer first.
+    // Floats are stored as their bits, reversed floats as their bits subtracted from infinity's.
+    private static final int FLOAT_INFINITY_BITS = 0x7F800000;
+    private static final int INT24_MAX_KEY = (1 << 24) - 2;
+    private static final int INT16_MAX_KEY = 0xFFFE;
+    // Integer formats step through depth in fixed point with this many fraction bits
+    private static final int DEPTH_FRACTION_BITS = 16;
+    // Deferred shading stores two barycentric weights per pixel as 16 bit fractions
+    private static final int BARYCENTRIC_SCALE = 0xFFFF;
+    // Per triangle deferred shading constants: 1/w, then n.l, u and v pre-divided by w, for each
+    // vertex, then the screen space gradients of the second and third vertex weights
+    private static final int SHADING_CONSTANTS = 16;
+    // Vertices further than this from the origin, in pixels, are rasterized with scanlines
+    private static final double EDGE_FUNCTION_RANGE = 1 << 20;
+
+    // Depth precision is mostly decided by the near plane. Geometry past the far plane is still
+    // drawn, the integer formats just clamp it to their farthest value.
+    protected static final double NEAR_PLANE = 0.1;
+    protected static final double FAR_PLANE = 1000.0;
+    // Triangles reaching further than this past the viewport, in pixels, are clipped. Smaller
+    // overshoots are cheaper to leave to the rasterizers, which never step outside the viewport.
+    protected static final double GUARD_BAND = 1024;
+
+    // Clip space outcodes, the near plane and the viewport and guard band sides
+    private static final int OUTSIDE_NEAR = 1;
+    private static final int OUTSIDE_VIEWPORT = 2 | 4 | 8 | 16;
+    private static final int OUTSIDE_GUARD_BAND = 32 | 64 | 128 | 256;
+    // Attributes carried through clipping: clip x, y, z, w, world x, y, z, normal x, y, z, u, v
+    private static final int CLIP_ATTRIBUTES = 12;
+    private static final int LIGHT_STRIDE = 6;
+    // A triangle clipped by the near plane and the four guard band sides has at most 8 corners
+    private static final int CLIP_MAX_VERTICES = 8;
+    // A mesh only switches its level of detail once its screen size is past the boundary between
+    // two levels by this fraction of a level, about 19% of the size, so it does not pop back and
+    // forth when its size hovers around the boundary
+    private static final double LEVEL_OF_DETAIL_HYSTERESIS = 0.25;
+    // Copies of an instanced mesh whose vertices are transformed in one pass over its geometry, as
+    // many as fit in the vertex count, so the streams of a batch stay in the cache
+    private static final int INSTANCE_BATCH = 8;
+    private static final int INSTANCE_BATCH_VERTICES = 8192;
+
+    private static final SimdKernel SIMD_KERNEL = SimdKernel.load();
+
     private final int width;
     private final int height;
 
     private int[] buffer;
-    private double[] depthBuffer;
-
-    private Vector3d lightPosition = new Vector3d(0, 0, 10);
+    // One of the two is allocated, depending on the depth format
+    private int[] depthBuffer;
+    private char[] shortDepthBuffer;
+    private DepthFormat depthFormat = DepthFormat.FLOAT32;
+    private boolean reversedDepth;
+    private int clearDepthKey;
+    // Per pixel depth keys may drift this far from the ones computed for rejection tests
+    private int depthKeySlack;
+    private final int depthTilesX;
+    private final int[] depthTileMax;
+    private final boolean[] depthTileDirty;
+    // Pixels of every depth tile still at the cleared depth, the tile maximum is only worth
+    // computing once this drops to zero
+    private final int[] depthTileUncovered;
+    private final int[] depthTileArea;
+
+    private final List<Light> lights = new ArrayList<>(Collections.singletonList(Light.point(0.f, 0.f, 10.f)));
+    // The lights reaching the mesh being drawn, LIGHT_STRIDE values each: 0 for a point light or 1
+    // for a directional one, its position or normalized direction towards it, its intensity and
+    // the inverse of its range, zero for a light that does not fade
+    private double[] meshLights = new double[LIGHT_STRIDE];
+    private int meshLightCount;
+
+    private final VertexBuffer vertexBuffer = new VertexBuffer();
+    // Homogeneous x, y, z, w per vertex, filled by the vectorized vertex transform: the world
+    // coordinates of every copy in the batch, followed by their clip coordinates, and the normals
+    private double[] positionStream = new double[0];
+    private double[] normalStream = new double[0];
+    // The world matrices of the batch, followed by their transform matrices, 16 values each
+    private final double[] matrixStream = new double[INSTANCE_BATCH * 2 * 16];
+    private final double[] normalMatrixStream = new double[INSTANCE_BATCH * 16];
+    private final int[] batchBases = new int[INSTANCE_BATCH];
+    private final Mat4[] batchTransforms = new Mat4[INSTANCE_BATCH];
+    private final Mat4[] batchWorlds = new Mat4[INSTANCE_BATCH];
+    // Per copy of the instanced mesh being drawn: its frustum visibility, level of detail and
+    // vertex buffer base
+    private int[] instanceVisibility = new int[0];
+    private int[] instanceLevels = new int[0];
+    private int[] instanceBases = new int[0];
+    private SimdKernel simdKernel = SIMD_KERNEL;
+
+    private final Color4f defaultColor = new Color4f(1.f, 1.f, 1.f, 1.f);
+    private final Vec3 up = new Vec3(0.f, 1.f, 0.f);
+    private final Mat4 viewMatrix = new Mat4();
+    private final Mat4 projectionMatrix = new Mat4();
+    private final Mat4 worldViewMatrix = new Mat4();
+    private final Mat4 transformMatrix = new Mat4();
+    private final Frustum frustum = new Frustum();
+    private final Frustum sceneFrustum = new Frustum();
+    private final List<Mesh> visibleMeshes = new ArrayList<>();
+    private final double guardBandX;
+    private final double guardBandY;
+    private double[] clipPolygon = new double[CLIP_MAX_VERTICES * CLIP_ATTRIBUTES];
+    private double[] clipOutput = new double[CLIP_MAX_VERTICES * CLIP_ATTRIBUTES];
+
+    private final FrameStatistics statistics = new FrameStatistics();
+
+    // Dirty regions: what was drawn since the last clear, for every buffer rendered into and for the
+    // depth buffer, so the next clear only has to touch those pixels
+    private final Map<int[], Region> bufferRegions = new WeakHashMap<>();
+    private Region bufferRegion;
+    private final Region depthRegion = new Region();
+    private final Region meshRegion = new Region();
+    private Region[] regions = new Region[0];
+    private final List<Region> dirtyRegions = new ArrayList<>();
+    private final List<Region> unmodifiableDirtyRegions = Collections.unmodifiableList(this.dirtyRegions);
+
+    private Triangle[] triangles = new Triangle[0];
+    private int triangleCount;
+    private final Triangle triangle = new Triangle();
+    private final ScanLineData scanLineData = new ScanLineData();
+
+    private final int tilesX;
+    private final int tilesY;
+    private final List<List<Triangle>> tileBins;
+    private final ScanLineData[] tileScanLineData;
+
+    private int threadCount = 1;
+    private ForkJoinPool pool;
+
+    private RasterizerMode rasterizerMode = RasterizerMode.SCANLINE;
+    private ShadingMode shadingMode = ShadingMode.FORWARD;
+    // Deferred shading: the index of the nearest triangle plus one, zero where nothing was drawn,
+    // and its screen space weights of the triangle's second and third vertices
+    private int[] visibilityBuffer;
+    private int[] barycentricBuffer;
+    private double[] shadingConstants = new double[0];
+    private TextureFilter textureFilter = TextureFilter.NEAREST;
+    private boolean mipmapping = true;
+    private boolean hierarchicalDepth = true;
+    private boolean depthPrePass;
+    private double levelOfDetailSize = 256;
+    private final List<InstancedMesh> instancedMeshList = new ArrayList<>(1);
+    // Set while the pre-pass submits occluders, their triangles only write depth
+    private boolean depthOnly;
 
     public Device(int width, int height) {
         this.width = width;
         this.height = height;
 
-        this.buffer = new int[width * height];
-        this.depthBuffer = new double[width * height];
+        this.setBuffer(new int[width * height]);
+        this.allocateDepthBuffer();
+        this.depthTilesX = (width + DEPTH_TILE_SIZE - 1) / DEPTH_TILE_SIZE;
+        this.depthTileMax = new int[this.depthTilesX * ((height + DEPTH_TILE_SIZE - 1) / DEPTH_TILE_SIZE)];
+        this.depthTileDirty = new boolean[this.depthTileMax.length];
+        this.depthTileUncovered = new int[this.depthTileMax.length];
+        this.depthTileArea = new int[this.depthTileMax.length];
+        for (int tile = 0; tile < this.depthTileArea.length; tile++) {
+            int tileWidth = Math.min(DEPTH_TILE_SIZE, width - (tile % this.depthTilesX) * DEPTH_TILE_SIZE);
+            int tileHeight = Math.min(DEPTH_TILE_SIZE, height - (tile / this.depthTilesX) * DEPTH_TILE_SIZE);
+            this.depthTileArea[tile] = tileWidth * tileHeight;
+        }
+
+        // Guard band sides as a multiple of clip space w, the viewport itself spans -0.5 to 0.5
+        this.guardBandX = 0.5 + GUARD_BAND / width;
+        this.guardBandY = 0.5 + GUARD_BAND / height;
+
+        this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.tileBins = new ArrayList<>(this.tilesX * this.tilesY);
+        this.tileScanLineData = new ScanLineData[this.tilesX * this.tilesY];
+        for (int i = 0; i < this.tilesX * this.tilesY; i++) {
+            this.tileBins.add(new ArrayList<>());
+            this.tileScanLineData[i] = new ScanLineData();
+        }
+        for (int i = 0; i < INSTANCE_BATCH; i++) {
+            this.batchTransforms[i] = new Mat4();
+        }
     }
 
+    /**
+     * Resets the pixels drawn since the buffer was last cleared, the rest of it is still clear.
+     */
     public void clear() {
-        Arrays.fill(this.buffer, 0xFF000000);
-        Arrays.fill(this.depthBuffer, Double.MAX_VALUE);
+        long start = System.nanoTime();
+        this.statistics.reset();
+
+        Region bufferRegion = this.bufferRegion;
+        for (int y = bufferRegion.minY; y < bufferRegion.maxY; y++) {
+            Arrays.fill(this.buffer, y * this.width + bufferRegion.minX, y * this.width + bufferRegion.maxX, 0xFF000000);
+        }
+        Region depthRegion = this.depthRegion;
+        for (int y = depthRegion.minY; y < depthRegion.maxY; y++) {
+            if (this.shortDepthBuffer != null) {
+                Arrays.fill(this.shortDepthBuffer, y * this.width + depthRegion.minX, y * this.width + depthRegion.maxX, (char) this.clearDepthKey);
+            } else {
+                Arrays.fill(this.depthBuffer, y * this.width + depthRegion.minX, y * this.width + depthRegion.maxX, this.clearDepthKey);
+            }
+            if (this.visibilityBuffer != null) {
+                Arrays.fill(this.visibilityBuffer, y * this.width + depthRegion.minX, y * this.width + depthRegion.maxX, 0);
+            }
+        }
+        Arrays.fill(this.depthTileMax, this.clearDepthKey);
+        Arrays.fill(this.depthTileDirty, false);
+        System.arraycopy(this.depthTileArea, 0, this.depthTileUncovered, 0, this.depthTileArea.length);
+
+        this.dirtyRegions.clear();
+        if (!bufferRegion.isEmpty()) {
+            this.addDirtyRegion(bufferRegion);
+        }
+        bufferRegion.setEmpty();
+        depthRegion.setEmpty();
+
+        this.statistics.clearNanos = System.nanoTime() - start;
     }
 
     public void render(Camera camera, List<Mesh> meshes) {
-        Matrix4d viewMatrix = VecMathUtils.lookAt(camera.getPosition(), camera.getTarget(), new Vector3d(0.0, 1.0, 0.0));
-        Matrix4d projectionMatrix = VecMathUtils.perspectiveFov(0.78, (double) this.width / this.height, 0.01, 1.0);
+        this.render(camera, meshes, Collections.emptyList());
+    }
+
+    /**
+     * Renders a frame of the meshes followed by the copies of the instanced meshes, each copy tested
+     * against the view frustum on its own.
+     */
+    public void render(Camera camera, List<Mesh> meshes, List<InstancedMesh> instancedMeshes) {
+        this.beginFrame(camera);
+        this.renderMeshes(meshes, instancedMeshes);
+        this.rasterizeFrame();
+    }
+
+    /**
+     * Renders a frame of the meshes of the scene that its hierarchy finds in the view frustum,
+     * nearer ones first, which also helps the depth tests reject the farther ones early. Meshes the
+     * hierarchy rejects count as culled, their faces do not count as culled faces as they are never
+     * looked at.
+     */
+    public void render(Camera camera, Scene scene) {
+        this.render(camera, scene, Collections.emptyList());
+    }
+
+    /**
+     * Same as {@link #render(Camera, Scene)}, followed by the copies of the instanced meshes, which
+     * are not part of the hierarchy and are tested against the view frustum one by one.
+     */
+    public void render(Camera camera, Scene scene, List<InstancedMesh> instancedMeshes) {
+        this.beginFrame(camera);
+
+        long cullingStart = System.nanoTime();
+        this.sceneFrustum.set(this.transformMatrix.mul(this.viewMatrix, this.projectionMatrix));
+        List<Mesh> visibleMeshes = this.visibleMeshes;
+        visibleMeshes.clear();
+        scene.query(this.sceneFrustum, visibleMeshes);
+        this.statistics.culledMeshCount += scene.size() - visibleMeshes.size();
+        this.statistics.cullingNanos += System.nanoTime() - cullingStart;
+
+        this.renderMeshes(visibleMeshes, instancedMeshes);
+        visibleMeshes.clear();
+        this.rasterizeFrame();
+    }
+
+    private void renderMeshes(List<Mesh> meshes, List<InstancedMesh> instancedMeshes) {
+        Mat4 viewMatrix = this.viewMatrix;
+        Mat4 projectionMatrix = this.projectionMatrix;
+
+        // Occluders first lay down depth only, so that everything hidden behind them, themselves
+        // included, is rejected before shading in the main pass
+        if (this.depthPrePass) {
+            this.depthOnly = true;
+            for (int m = 0; m < meshes.size(); m++) {
+                if (meshes.get(m).isOccluder()) {
+                    this.renderMesh(meshes.get(m), viewMatrix, projectionMatrix);
+                }
+            }
+            for (int m = 0; m < instancedMeshes.size(); m++) {
+                if (instancedMeshes.get(m).getMesh().isOccluder()) {
+                    this.renderInstancedMesh(instancedMeshes.get(m), viewMatrix, projectionMatrix);
+                }
+            }
+            this.depthOnly = false;
+        }
+
+        for (int m = 0; m < meshes.size(); m++) {
+            this.renderMesh(meshes.get(m), viewMatrix, projectionMatrix);
+        }
+        for (int m = 0; m < instancedMeshes.size(); m++) {
+            this.renderInstancedMesh(instancedMeshes.get(m), viewMatrix, projectionMatrix);
+        }
+    }
+
+    public void renderInstanced(Camera camera, Mesh mesh, Mat4[] worldMatrices) {
+        this.renderInstanced(camera, mesh, worldMatrices, worldMatrices.length);
+    }
+
+    /**
+     * Renders a frame of nothing but {@code count} copies of one mesh, see {@link InstancedMesh}.
+     * Use {@link #render(Camera, List, List)} to draw them along with other meshes.
+     */
+    public void renderInstanced(Camera camera, Mesh mesh, Mat4[] worldMatrices, int count) {
+        // Kept on the mesh for the levels of detail of its copies, and dropped along with it
+        InstancedMesh instancedMesh = mesh.instancedMesh;
+        if (instancedMesh == null) {
+            instancedMesh = new InstancedMesh(mesh, worldMatrices, count);
+            mesh.instancedMesh = instancedMesh;
+        } else {
+            instancedMesh.setWorldMatrices(worldMatrices, count);
+        }
+
+        List<InstancedMesh> instancedMeshList = this.instancedMeshList;
+        instancedMeshList.add(instancedMesh);
+        this.render(camera, Collections.emptyList(), instancedMeshList);
+        instancedMeshList.clear();
+    }
 
-        for (Mesh mesh : meshes) {
-            Matrix4d worldMatrix = mesh.getWorldMatrix();
+    private void beginFrame(Camera camera) {
+        Vector3d position = camera.getPosition();
+        Vector3d target = camera.getTarget();
+        this.viewMatrix.setToLookAt((float) position.x, (float) position.y, (float) position.z,
+                (float) target.x, (float) target.y, (float) target.z, this.up.x, this.up.y, this.up.z);
+        this.projectionMatrix.setToPerspectiveFov(0.78f, (float) this.width / this.height, (float) NEAR_PLANE, (float) FAR_PLANE);
+
+        this.vertexBuffer.reset();
+        this.triangleCount = 0;
+
+        // Pixels drawn by an earlier frame since the last clear are shaded already, and the indices
+        // they hold would point at the triangles of this frame
+        if (this.visibilityBuffer != null) {
+            Region depthRegion = this.depthRegion;
+            for (int y = depthRegion.minY; y < depthRegion.maxY; y++) {
+                Arrays.fill(this.visibilityBuffer, y * this.width + depthRegion.minX, y * this.width + depthRegion.maxX, 0);
+            }
+        }
+    }
 
-            Matrix4d worldViewMatrix = new Matrix4d();
-            worldViewMatrix.mul(worldMatrix, viewMatrix);
+    private void rasterizeFrame() {
+        // Triangles are only set up while walking the meshes, rasterizing all of them afterwards
+        // keeps the stages apart and the submission order intact
+        long rasterizationStart = System.nanoTime();
+        if (this.pool != null) {
+            this.pool.invoke(new TileRasterTask(0, this.tileBins.size()));
+        } else {
+            for (int i = 0; i < this.triangleCount; i++) {
+                this.rasterize(this.triangles[i], this.scanLineData, 0, 0, this.width, this.height);
+            }
+        }
+        this.statistics.rasterizationNanos += System.nanoTime() - rasterizationStart;
 
-            Matrix4d transformMatrix = new Matrix4d();
+        if (this.visibilityBuffer != null) {
+            long shadingStart = System.nanoTime();
+            if (this.pool != null) {
+                this.pool.invoke(new TileRasterTask(0, this.tileBins.size(), true));
+            } else {
+                this.shadeRegion(this.scanLineData, 0, 0, this.width, this.height);
+            }
+            this.statistics.shadingNanos += System.nanoTime() - shadingStart;
+        }
+
+        this.collectRasterizerStatistics(this.scanLineData);
+        for (ScanLineData data : this.tileScanLineData) {
+            this.collectRasterizerStatistics(data);
+        }
+        long coveredPixelCount = 0;
+        for (int tile = 0; tile < this.depthTileArea.length; tile++) {
+            coveredPixelCount += this.depthTileArea[tile] - this.depthTileUncovered[tile];
+        }
+        this.statistics.coveredPixelCount = coveredPixelCount;
+    }
+
+    private void collectRasterizerStatistics(ScanLineData data) {
+        this.statistics.rasterizedTriangleCount += data.rasterizedTriangleCount;
+        this.statistics.shadedPixelCount += data.shadedPixelCount;
+        this.statistics.depthTestFailureCount += data.depthTestFailureCount;
+        data.rasterizedTriangleCount = 0;
+        data.shadedPixelCount = 0;
+        data.depthTestFailureCount = 0;
+    }
+
+    protected void renderMesh(Mesh mesh, Mat4 viewMatrix, Mat4 projectionMatrix) {
+        mesh.setLevelOfDetail(this.renderMesh(mesh, mesh.getWorldTransform(), mesh.getLevelOfDetail(), viewMatrix, projectionMatrix));
+    }
+
+    /**
+     * Renders the mesh with the given world matrix, starting from the level of detail it was last
+     * drawn at. Returns the level it was drawn at now, or the given one when it was culled.
+     */
+    protected int renderMesh(Mesh mesh, Mat4 worldMatrix, int levelOfDetail, Mat4 viewMatrix, Mat4 projectionMatrix) {
+        Mat4 worldViewMatrix = this.worldViewMatrix;
+        Mat4 transformMatrix = this.transformMatrix;
+
+        worldViewMatrix.mul(worldMatrix, viewMatrix);
+        transformMatrix.mul(worldViewMatrix, projectionMatrix);
+
+        // Meshes entirely outside the frustum are dropped before any vertex work, and only the
+        // ones crossing it need their faces tested and clipped one by one
+        // The pre-pass repeats the main pass geometry work, only the latter is counted
+        FrameStatistics statistics = this.depthOnly ? null : this.statistics;
+        long cullingStart = System.nanoTime();
+
+        int visibility = this.frustum.set(transformMatrix).classify(mesh.getBounds());
+        if (visibility == Frustum.OUTSIDE) {
+            if (statistics != null) {
+                statistics.culledMeshCount++;
+                statistics.culledFaceCount += mesh.getGeometry(Math.min(levelOfDetail, mesh.getLevelOfDetailCount() - 1)).getFaceCount();
+            }
+            if (statistics != null) {
+                statistics.cullingNanos += System.nanoTime() - cullingStart;
+            }
+            return levelOfDetail;
+        }
+        levelOfDetail = this.selectLevelOfDetail(mesh, levelOfDetail, worldViewMatrix, projectionMatrix);
+        MeshGeometry geometry = mesh.getGeometry(levelOfDetail);
+
+        // Vertex processing: every vertex is transformed once, however many faces share it
+        long transformStart = System.nanoTime();
+        int base = this.vertexBuffer.allocate(geometry.getVertexCount());
+        if (this.simdKernel != null) {
+            this.batchBases[0] = base;
+            this.batchTransforms[0].set(transformMatrix);
+            this.batchWorlds[0] = worldMatrix;
+            this.projectAll(geometry, mesh.getBounds(), this.batchBases, this.batchTransforms, this.batchWorlds, 1);
+        } else {
+            if (!this.depthOnly) {
+                this.selectLights(mesh.getBounds(), worldMatrix);
+            }
+            for (int i = 0; i < geometry.getVertexCount(); i++) {
+                this.project(geometry, i, transformMatrix, worldMatrix, this.vertexBuffer.get(base + i));
+            }
+        }
+        long transformEnd = System.nanoTime();
+        if (statistics != null) {
+            statistics.transformNanos += transformEnd - transformStart;
+            statistics.cullingNanos += transformStart - cullingStart;
+        }
+
+        this.submitFaces(mesh, geometry, base, worldViewMatrix, visibility == Frustum.INTERSECTING);
+        if (statistics != null) {
+            statistics.cullingNanos += System.nanoTime() - transformEnd;
+        }
+        return levelOfDetail;
+    }
+
+    /**
+     * Renders the copies of an instanced mesh. Copies outside the frustum are dropped first, then
+     * the vertices of the copies drawn at the same level of detail are transformed in batches that
+     * share one pass over the geometry, and finally the faces of every
+     * copy are submitted in the order of the copies.
+     */
+    protected void renderInstancedMesh(InstancedMesh instancedMesh, Mat4 viewMatrix, Mat4 projectionMatrix) {
+        Mesh mesh = instancedMesh.getMesh();
+        Mat4[] worldMatrices = instancedMesh.getWorldMatrices();
+        int count = instancedMesh.getCount();
+        int[] levelsOfDetail = instancedMesh.getLevelsOfDetail();
+        Mat4 worldViewMatrix = this.worldViewMatrix;
+        Mat4 transformMatrix = this.transformMatrix;
+        FrameStatistics statistics = this.depthOnly ? null : this.statistics;
+        if (this.instanceVisibility.length < count) {
+            this.instanceVisibility = new int[count];
+            this.instanceLevels = new int[count];
+            this.instanceBases = new int[count];
+        }
+        int[] visibility = this.instanceVisibility;
+        int[] levels = this.instanceLevels;
+        int[] bases = this.instanceBases;
+
+        long cullingStart = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            worldViewMatrix.mul(worldMatrices[i], viewMatrix);
             transformMatrix.mul(worldViewMatrix, projectionMatrix);
+            visibility[i] = this.frustum.set(transformMatrix).classify(mesh.getBounds());
+            if (visibility[i] == Frustum.OUTSIDE) {
+                if (statistics != null) {
+                    statistics.culledMeshCount++;
+                    statistics.culledFaceCount += mesh.getGeometry(Math.min(levelsOfDetail[i], mesh.getLevelOfDetailCount() - 1)).getFaceCount();
+                }
+                continue;
+            }
+            levels[i] = this.selectLevelOfDetail(mesh, levelsOfDetail[i], worldViewMatrix, projectionMatrix);
+            // The pre-pass picks the same levels as the main pass, which records them
+            if (!this.depthOnly) {
+                levelsOfDetail[i] = levels[i];
+            }
+        }
+
+        long transformStart = System.nanoTime();
+        for (int level = 0; level < mesh.getLevelOfDetailCount(); level++) {
+            MeshGeometry geometry = mesh.getGeometry(level);
+            int maxBatchSize = Math.max(1, Math.min(INSTANCE_BATCH, INSTANCE_BATCH_VERTICES / Math.max(1, geometry.getVertexCount())));
+            int batchSize = 0;
+            for (int i = 0; i < count; i++) {
+                if (visibility[i] == Frustum.OUTSIDE || levels[i] != level) {
+                    continue;
+                }
+                bases[i] = this.vertexBuffer.allocate(geometry.getVertexCount());
+                worldViewMatrix.mul(worldMatrices[i], viewMatrix);
+                transformMatrix.mul(worldViewMatrix, projectionMatrix);
+                if (this.simdKernel == null) {
+                    if (!this.depthOnly) {
+                        this.selectLights(mesh.getBounds(), worldMatrices[i]);
+                    }
+                    for (int v = 0; v < geometry.getVertexCount(); v++) {
+                        this.project(geometry, v, transformMatrix, worldMatrices[i], this.vertexBuffer.get(bases[i] + v));
+                    }
+                    continue;
+                }
 
-            for (Face face : mesh.getFaces()) {
-                Vector3d transformedNormal = VecMathUtils.transformNormal(face.normal, worldViewMatrix);
-                if (transformedNormal.z >= 0.0) {
+                this.batchBases[batchSize] = bases[i];
+                this.batchTransforms[batchSize].set(transformMatrix);
+                this.batchWorlds[batchSize] = worldMatrices[i];
+                if (++batchSize == maxBatchSize) {
+                    this.projectAll(geometry, mesh.getBounds(), this.batchBases, this.batchTransforms, this.batchWorlds, batchSize);
+                    batchSize = 0;
+                }
+            }
+            if (batchSize > 0) {
+                this.projectAll(geometry, mesh.getBounds(), this.batchBases, this.batchTransforms, this.batchWorlds, batchSize);
+            }
+        }
+        long transformEnd = System.nanoTime();
+        if (statistics != null) {
+            statistics.transformNanos += transformEnd - transformStart;
+            statistics.cullingNanos += transformStart - cullingStart;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (visibility[i] != Frustum.OUTSIDE) {
+                worldViewMatrix.mul(worldMatrices[i], viewMatrix);
+                this.submitFaces(mesh, mesh.getGeometry(levels[i]), bases[i], worldViewMatrix, visibility[i] == Frustum.INTERSECTING);
+            }
+        }
+        if (statistics != null) {
+            statistics.cullingNanos += System.nanoTime() - transformEnd;
+        }
+    }
+
+    /**
+     * Sets up the faces of the geometry whose vertices were transformed into the vertex buffer from
+     * {@code base} on, dropping the ones facing away and, when the mesh crosses the frustum, the
+     * ones outside it.
+     */
+    private void submitFaces(Mesh mesh, MeshGeometry geometry, int base, Mat4 worldViewMatrix, boolean cullFaces) {
+        FrameStatistics statistics = this.depthOnly ? null : this.statistics;
+        this.meshRegion.setEmpty();
+
+        int[] indices = geometry.getIndices();
+        double[] faceNormals = geometry.getFaceNormals();
+        for (int face = 0; face < geometry.getFaceCount(); face++) {
+            // Only the view space z of the face normal decides whether the face points away
+            double normalZ = faceNormals[face * 3] * worldViewMatrix.m02 + faceNormals[face * 3 + 1] * worldViewMatrix.m12
+                    + faceNormals[face * 3 + 2] * worldViewMatrix.m22;
+            if (normalZ >= 0.0) {
+                if (statistics != null) {
+                    statistics.backFaceCount++;
+                }
+                continue;
+            }
+
+            Vertex pointA = this.vertexBuffer.get(base + indices[face * 3]);
+            Vertex pointB = this.vertexBuffer.get(base + indices[face * 3 + 1]);
+            Vertex pointC = this.vertexBuffer.get(base + indices[face * 3 + 2]);
+
+            if (cullFaces) {
+                int outcodeA = this.outcode(pointA);
+                int outcodeB = this.outcode(pointB);
+                int outcodeC = this.outcode(pointC);
+                if ((outcodeA & outcodeB & outcodeC) != 0) {
+                    if (statistics != null) {
+                        statistics.culledFaceCount++;
+                    }
+                    continue;
+                }
+                if (((outcodeA | outcodeB | outcodeC) & (OUTSIDE_NEAR | OUTSIDE_GUARD_BAND)) != 0) {
+                    this.clipTriangle(pointA, pointB, pointC, outcodeA | outcodeB | outcodeC, mesh.getTexture());
                     continue;
                 }
+            }
+
+            this.submitTriangle(pointA, pointB, pointC, mesh.getTexture());
+        }
+
+        // The pre-pass submits the same triangles again in the main pass, which records them
+        this.depthRegion.union(this.meshRegion);
+        if (!this.depthOnly && !this.meshRegion.isEmpty()) {
+            this.bufferRegion.union(this.meshRegion);
+            this.addDirtyRegion(this.meshRegion);
+        }
+    }
+
+    /**
+     * Picks the level of detail from the projected diameter of the mesh's bounding sphere: the full
+     * geometry down to {@link #levelOfDetailSize} pixels, then one level further for every halving
+     * of the size.
+     */
+    private int selectLevelOfDetail(Mesh mesh, int current, Mat4 worldViewMatrix, Mat4 projectionMatrix) {
+        int levelCount = mesh.getLevelOfDetailCount();
+        if (levelCount == 1 || this.levelOfDetailSize <= 0) {
+            return 0;
+        }
+
+        Bounds bounds = mesh.getBounds();
+        Mat4 m = worldViewMatrix;
+        double z = bounds.centerX * m.m02 + bounds.centerY * m.m12 + bounds.centerZ * m.m22 + m.m32;
+        // The view matrix does not scale, any scale comes from the world matrix
+        double scale = Math.sqrt(Math.max(m.m00 * m.m00 + m.m01 * m.m01 + m.m02 * m.m02,
+                Math.max(m.m10 * m.m10 + m.m11 * m.m11 + m.m12 * m.m12, m.m20 * m.m20 + m.m21 * m.m21 + m.m22 * m.m22)));
+        double radius = bounds.radius * scale;
+
+        int level = 0;
+        // With the camera inside the sphere the mesh may cover the whole screen
+        if (z > radius) {
+            double size = 2 * radius * projectionMatrix.m11 * this.height / z;
+            double idealLevel = Math.log(this.levelOfDetailSize / size) / Math.log(2);
+            level = (int) Math.min(Math.max(current, Math.floor(idealLevel - LEVEL_OF_DETAIL_HYSTERESIS)),
+                    Math.floor(idealLevel + LEVEL_OF_DETAIL_HYSTERESIS));
+            level = Math.max(0, Math.min(level, levelCount - 1));
+        }
+        return level;
+    }
+
+    /**
+     * Timings and counters of the frame being rendered, reset by every {@link #clear()}. The
+     * returned object is reused from frame to frame, copy it to keep a frame's values.
+     */
+    public FrameStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * Regions of the buffer that changed since it was last rendered into: first what the last
+     * {@link #clear()} erased, if anything, then the area drawn by every visible mesh. Pixels
+     * outside all of them still hold the clear color. Valid until the next clear.
+     */
+    public List<Region> getDirtyRegions() {
+        return this.unmodifiableDirtyRegions;
+    }
+
+    private void addDirtyRegion(Region region) {
+        if (this.dirtyRegions.size() == this.regions.length) {
+            Region[] grown = Arrays.copyOf(this.regions, Math.max(16, this.regions.length * 2));
+            for (int i = this.regions.length; i < grown.length; i++) {
+                grown[i] = new Region();
+            }
+            this.regions = grown;
+        }
+        Region copy = this.regions[this.dirtyRegions.size()];
+        copy.set(region);
+        this.dirtyRegions.add(copy);
+    }
+
+    /**
+     * Number of meshes skipped by the last {@link #render(Camera, List)} or
+     * {@link #render(Camera, Scene)} because their bounds were outside the view frustum.
+     */
+    public int getCulledMeshCount() {
+        return this.statistics.culledMeshCount;
+    }
+
+    /**
+     * Number of faces skipped by the last {@link #render(Camera, List)} for being outside the view
+     * frustum, including the faces of culled meshes. Back faces are not counted.
+     */
+    public int getCulledFaceCount() {
+        return this.statistics.culledFaceCount;
+    }
 
-                Vertex vertexA = mesh.getVertices().get(face.a);
-                Vertex vertexB = mesh.getVertices().get(face.b);
-                Vertex vertexC = mesh.getVertices().get(face.c);
+    protected void submitTriangle(Vertex v1, Vertex v2, Vertex v3, Texture texture) {
+        // Both rasterizers stay within the pixels under the triangle's bounding box
+        Vector3d p1 = v1.coordinates;
+        Vector3d p2 = v2.coordinates;
+        Vector3d p3 = v3.coordinates;
+        this.meshRegion.union(
+                Math.max(0, (int) Math.floor(Math.min(p1.x, Math.min(p2.x, p3.x)))),
+                Math.max(0, (int) Math.floor(Math.min(p1.y, Math.min(p2.y, p3.y)))),
+                Math.min(this.width, (int) Math.floor(Math.max(p1.x, Math.max(p2.x, p3.x))) + 1),
+                Math.min(this.height, (int) Math.floor(Math.max(p1.y, Math.max(p2.y, p3.y))) + 1));
+
+        if (!this.depthOnly) {
+            this.statistics.submittedTriangleCount++;
+        }
+
+        Triangle triangle = this.setupTriangle(v1, v2, v3, this.defaultColor, texture, this.nextTriangle());
+        if (this.visibilityBuffer != null && !this.depthOnly) {
+            this.setupShading(triangle);
+        }
+        if (this.pool != null) {
+            this.binTriangle(triangle);
+        }
+    }
+
+    /**
+     * Flags the planes a projected vertex is outside of. Faces whose vertices share a viewport or
+     * near flag are invisible, faces with any near or guard band flag need clipping.
+     */
+    protected int outcode(Vertex vertex) {
+        Vector4d clip = vertex.clipCoordinates;
+        int outcode = clip.z < 0 ? OUTSIDE_NEAR : 0;
+
+        double viewportX = clip.w * 0.5;
+        double viewportY = clip.w * 0.5;
+        double guardBandX = clip.w * this.guardBandX;
+        double guardBandY = clip.w * this.guardBandY;
+
+        outcode |= clip.x < -viewportX ? 2 : 0;
+        outcode |= clip.x > viewportX ? 4 : 0;
+        outcode |= clip.y < -viewportY ? 8 : 0;
+        outcode |= clip.y > viewportY ? 16 : 0;
+        outcode |= clip.x < -guardBandX ? 32 : 0;
+        outcode |= clip.x > guardBandX ? 64 : 0;
+        outcode |= clip.y < -guardBandY ? 128 : 0;
+        outcode |= clip.y > guardBandY ? 256 : 0;
+        return outcode;
+    }
 
-                Vertex pointA = this.project(vertexA, transformMatrix, worldMatrix);
-                Vertex pointB = this.project(vertexB, transformMatrix, worldMatrix);
-                Vertex pointC = this.project(vertexC, transformMatrix, worldMatrix);
+    /**
+     * Clips a triangle in homogeneous clip space against the near plane and the guard band sides
+     * flagged in {@code outcodes}, then draws the resulting polygon as a fan. The new corners are
+     * taken from the frame's vertex buffer.
+     */
+    protected void clipTriangle(Vertex v1, Vertex v2, Vertex v3, int outcodes, Texture texture) {
+        double[] polygon = this.clipPolygon;
+        loadClipVertex(v1, polygon, 0);
+        loadClipVertex(v2, polygon, CLIP_ATTRIBUTES);
+        loadClipVertex(v3, polygon, CLIP_ATTRIBUTES * 2);
+        int count = 3;
+
+        // Planes as (x, y, z, w) factors of the clip coordinates, inside when non negative
+        if ((outcodes & OUTSIDE_NEAR) != 0) {
+            count = this.clipPolygon(count, 0, 0, 1, 0);
+        }
+        if ((outcodes & 32) != 0 && count > 0) {
+            count = this.clipPolygon(count, 1, 0, 0, this.guardBandX);
+        }
+        if ((outcodes & 64) != 0 && count > 0) {
+            count = this.clipPolygon(count, -1, 0, 0, this.guardBandX);
+        }
+        if ((outcodes & 128) != 0 && count > 0) {
+            count = this.clipPolygon(count, 0, 1, 0, this.guardBandY);
+        }
+        if ((outcodes & 256) != 0 && count > 0) {
+            count = this.clipPolygon(count, 0, -1, 0, this.guardBandY);
+        }
+        if (count < 3) {
+            if (!this.depthOnly) {
+                this.statistics.culledFaceCount++;
+            }
+            return;
+        }
 
-                drawTriangle(pointA, pointB, pointC, new Color4f(1.f, 1.f, 1.f, 1.f), mesh.getTexture());
+        polygon = this.clipPolygon;
+        int base = this.vertexBuffer.allocate(count);
+        for (int i = 0; i < count; i++) {
+            Vertex vertex = this.vertexBuffer.get(base + i);
+            int offset = i * CLIP_ATTRIBUTES;
+            vertex.clipCoordinates.set(polygon[offset], polygon[offset + 1], polygon[offset + 2], polygon[offset + 3]);
+            vertex.worldCoordinates.set(polygon[offset + 4], polygon[offset + 5], polygon[offset + 6]);
+            vertex.normal.set(polygon[offset + 7], polygon[offset + 8], polygon[offset + 9]);
+            vertex.normal.normalize();
+            if (!this.depthOnly) {
+                vertex.intensity = (float) this.computeLighting(vertex.worldCoordinates, vertex.normal);
             }
+            vertex.textureCoordinates.set(polygon[offset + 10], polygon[offset + 11]);
+            this.toScreen(vertex);
+        }
+
+        for (int i = 1; i + 1 < count; i++) {
+            this.submitTriangle(this.vertexBuffer.get(base), this.vertexBuffer.get(base + i), this.vertexBuffer.get(base + i + 1), texture);
+        }
+    }
+
+    private static void loadClipVertex(Vertex vertex, double[] polygon, int offset) {
+        polygon[offset] = vertex.clipCoordinates.x;
+        polygon[offset + 1] = vertex.clipCoordinates.y;
+        polygon[offset + 2] = vertex.clipCoordinates.z;
+        polygon[offset + 3] = vertex.clipCoordinates.w;
+        polygon[offset + 4] = vertex.worldCoordinates.x;
+        polygon[offset + 5] = vertex.worldCoordinates.y;
+        polygon[offset + 6] = vertex.worldCoordinates.z;
+        polygon[offset + 7] = vertex.normal.x;
+        polygon[offset + 8] = vertex.normal.y;
+        polygon[offset + 9] = vertex.normal.z;
+        polygon[offset + 10] = vertex.textureCoordinates.x;
+        polygon[offset + 11] = vertex.textureCoordinates.y;
+    }
+
+    /**
+     * One Sutherland-Hodgman pass of {@link #clipPolygon} against a plane, the output becomes the
+     * new {@link #clipPolygon}. Returns the new corner count.
+     */
+    private int clipPolygon(int count, double a, double b, double c, double d) {
+        double[] input = this.clipPolygon;
+        double[] output = this.clipOutput;
+        int result = 0;
+
+        for (int i = 0; i < count; i++) {
+            int current = i * CLIP_ATTRIBUTES;
+            int next = ((i + 1) % count) * CLIP_ATTRIBUTES;
+            double currentDistance = a * input[current] + b * input[current + 1] + c * input[current + 2] + d * input[current + 3];
+            double nextDistance = a * input[next] + b * input[next + 1] + c * input[next + 2] + d * input[next + 3];
+
+            if (currentDistance >= 0) {
+                System.arraycopy(input, current, output, result++ * CLIP_ATTRIBUTES, CLIP_ATTRIBUTES);
+            }
+            if ((currentDistance >= 0) != (nextDistance >= 0)) {
+                double t = currentDistance / (currentDistance - nextDistance);
+                int offset = result++ * CLIP_ATTRIBUTES;
+                for (int k = 0; k < CLIP_ATTRIBUTES; k++) {
+                    output[offset + k] = input[current + k] + (input[next + k] - input[current + k]) * t;
+                }
+            }
+        }
+
+        this.clipOutput = input;
+        this.clipPolygon = output;
+        return result;
+    }
+
+    /**
+     * Sets the number of threads used to rasterize the frame. With more than one thread the
+     * framebuffer is split into {@link #TILE_SIZE} square tiles, triangles are binned per tile and
+     * every tile is rasterized independently, so no two threads ever write the same pixel.
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1");
+        }
+        if (this.pool != null) {
+            this.pool.shutdown();
+            this.pool = null;
+        }
+        this.threadCount = threadCount;
+        if (threadCount > 1) {
+            this.pool = new ForkJoinPool(threadCount);
+        }
+    }
+
+    public int getThreadCount() {
+        return this.threadCount;
+    }
+
+    public void setRasterizerMode(RasterizerMode rasterizerMode) {
+        this.rasterizerMode = rasterizerMode;
+    }
+
+    public RasterizerMode getRasterizerMode() {
+        return this.rasterizerMode;
+    }
+
+    /**
+     * Deferred shading allocates a visibility buffer of two ints per pixel. It pays off when
+     * triangles overlap a lot and shading is expensive.
+     */
+    public void setShadingMode(ShadingMode shadingMode) {
+        this.shadingMode = shadingMode;
+        if (shadingMode == ShadingMode.DEFERRED) {
+            this.visibilityBuffer = new int[this.width * this.height];
+            this.barycentricBuffer = new int[this.width * this.height];
+        } else {
+            this.visibilityBuffer = null;
+            this.barycentricBuffer = null;
+        }
+    }
+
+    public ShadingMode getShadingMode() {
+        return this.shadingMode;
+    }
+
+    /**
+     * Whether the Java Vector API kernels can be used, which requires starting the JVM with
+     * {@code --add-modules jdk.incubator.vector} on hardware with at least 256 bit vectors.
+     */
+    public static boolean isVectorSupported() {
+        return SIMD_KERNEL != null;
+    }
+
+    /**
+     * Switches between the Java Vector API kernels and the scalar code, both render the same
+     * pixels. Enabled by default whenever {@link #isVectorSupported()}.
+     */
+    public void setVectorized(boolean vectorized) {
+        if (vectorized && SIMD_KERNEL == null) {
+            throw new IllegalStateException("The Java Vector API is not available, see isVectorSupported()");
+        }
+        this.simdKernel = vectorized ? SIMD_KERNEL : null;
+    }
+
+    public boolean isVectorized() {
+        return this.simdKernel != null;
+    }
+
+    public void setTextureFilter(TextureFilter textureFilter) {
+        this.textureFilter = textureFilter;
+    }
+
+    public TextureFilter getTextureFilter() {
+        return this.textureFilter;
+    }
+
+    /**
+     * When disabled every texture is sampled from its full resolution level.
+     */
+    public void setMipmapping(boolean mipmapping) {
+        this.mipmapping = mipmapping;
+    }
+
+    public boolean isMipmapping() {
+        return this.mipmapping;
+    }
+
+    /**
+     * Selects how depth is stored and interpolated. The depth buffer is reallocated, so the next
+     * frame must start with {@link #clear()}.
+     */
+    public void setDepthFormat(DepthFormat depthFormat) {
+        this.depthFormat = depthFormat;
+        this.allocateDepthBuffer();
+    }
+
+    public DepthFormat getDepthFormat() {
+        return this.depthFormat;
+    }
+
+    /**
+     * Stores near / w instead of the projected z, so depth goes from one at the near plane to zero
+     * at infinity. With {@link DepthFormat#FLOAT32} this spreads the float precision evenly over
+     * the view distance, the integer formats keep the same precision either way.
+     */
+    public void setReversedDepth(boolean reversedDepth) {
+        this.reversedDepth = reversedDepth;
+        this.allocateDepthBuffer();
+    }
+
+    public boolean isReversedDepth() {
+        return this.reversedDepth;
+    }
+
+    private void allocateDepthBuffer() {
+        if (this.depthFormat == DepthFormat.INT16) {
+            this.depthBuffer = null;
+            this.shortDepthBuffer = new char[this.width * this.height];
+            this.clearDepthKey = INT16_MAX_KEY + 1;
+            this.depthKeySlack = 2;
+        } else {
+            this.shortDepthBuffer = null;
+            this.depthBuffer = new int[this.width * this.height];
+            this.clearDepthKey = Integer.MAX_VALUE;
+            this.depthKeySlack = this.depthFormat == DepthFormat.FLOAT32 ? 16 : 2;
+        }
+        this.depthRegion.set(0, 0, this.width, this.height);
+        if (this.depthTileMax != null) {
+            this.clear();
         }
     }
 
+    /**
+     * Enables rejecting triangles, spans and blocks against the farthest depth of every
+     * {@link #DEPTH_TILE_SIZE} pixel tile before any of their pixels are shaded.
+     */
+    public void setHierarchicalDepth(boolean hierarchicalDepth) {
+        this.hierarchicalDepth = hierarchicalDepth;
+    }
+
+    public boolean isHierarchicalDepth() {
+        return this.hierarchicalDepth;
+    }
+
+    /**
+     * Renders the meshes marked with {@link Mesh#setOccluder(boolean)} into the depth buffer
+     * before the frame, so hidden surfaces behind them are never shaded. Pays off when the
+     * occluders are cheap and cover a lot of the screen.
+     */
+    public void setDepthPrePass(boolean depthPrePass) {
+        this.depthPrePass = depthPrePass;
+    }
+
+    public boolean isDepthPrePass() {
+        return this.depthPrePass;
+    }
+
+    /**
+     * Screen size, in pixels across, below which meshes with levels of detail built by
+     * {@link Mesh#buildLevelsOfDetail(int)} are drawn with their first simplified level. Every
+     * halving of the size below it drops another level. Zero always draws the full geometry.
+     */
+    public void setLevelOfDetailSize(double levelOfDetailSize) {
+        this.levelOfDetailSize = levelOfDetailSize;
+    }
+
+    public double getLevelOfDetailSize() {
+        return this.levelOfDetailSize;
+    }
+
+    /**
+     * The lights themselves, changes to the list or to the lights take effect from the next frame.
+     * Holds a single point light at (0, 0, 10) to begin with.
+     */
+    public List<Light> getLights() {
+        return this.lights;
+    }
+
     public int[] getBuffer() {
         return this.buffer;
     }
 
+    /**
+     * Renders into the given pixels from the next {@link #clear()} on, so frames can go straight
+     * into buffers owned by the presentation side instead of being copied out of the device. The
+     * device remembers what it drew into every buffer, the first clear of a new one resets all of
+     * it and later clears only the pixels drawn since. Pixels must not be changed elsewhere.
+     */
+    public void setBuffer(int[] buffer) {
+        if (buffer.length != this.width * this.height) {
+            throw new IllegalArgumentException("buffer must hold " + this.width * this.height + " pixels");
+        }
+        Region region = this.bufferRegions.get(buffer);
+        if (region == null) {
+            region = new Region();
+            region.set(0, 0, this.width, this.height);
+            this.bufferRegions.put(buffer, region);
+        }
+        this.buffer = buffer;
+        this.bufferRegion = region;
+    }
+
     public int getWidth() {
         return this.width;
     }
@@ -80,18 +1058,116 @@ public class Device {
 
 
 
-    protected Vertex project(Vertex vertex, Matrix4d transform, Matrix4d world) {
-        Vector3d point = VecMathUtils.transformCoordinates(vertex.coordinates, transform);
-        Vector3d pointWorld = VecMathUtils.transformCoordinates(vertex.coordinates, world);
-        Vector3d normalWorld = VecMathUtils.transformCoordinates(vertex.normal, world);
+    protected Vertex project(MeshGeometry geometry, int index, Mat4 transform, Mat4 world, Vertex result) {
+        double[] positions = geometry.getPositions();
+        double[] normals = geometry.getNormals();
+        double[] textureCoordinates = geometry.getTextureCoordinates();
+
+        double x = positions[index * 3];
+        double y = positions[index * 3 + 1];
+        double z = positions[index * 3 + 2];
+
+        result.clipCoordinates.set(
+                (x * transform.m00) + (y * transform.m10) + (z * transform.m20) + transform.m30,
+                (x * transform.m01) + (y * transform.m11) + (z * transform.m21) + transform.m31,
+                (x * transform.m02) + (y * transform.m12) + (z * transform.m22) + transform.m32,
+                (x * transform.m03) + (y * transform.m13) + (z * transform.m23) + transform.m33);
+        this.toScreen(result);
+        world.transformPoint(x, y, z, result.worldCoordinates);
+        world.transformNormal(normals[index * 3], normals[index * 3 + 1], normals[index * 3 + 2], result.normal);
+
+        // Normalized and lit once here, as the vertex is shared by all the faces around it
+        result.normal.normalize();
+        if (!this.depthOnly) {
+            result.intensity = (float) this.computeLighting(result.worldCoordinates, result.normal);
+        }
+        result.textureCoordinates.set(textureCoordinates[index * 2], textureCoordinates[index * 2 + 1]);
+
+        return result;
+    }
+
+    /**
+     * Same as calling {@link #project} for every vertex of the geometry, once for each of the
+     * {@code instanceCount} copies placed by {@code worlds} into the vertex buffer from their
+     * {@code bases} on. The vector kernel does the matrix products of all the copies in one pass
+     * over the geometry. The lights are selected for every copy from the model space bounds.
+     */
+    protected void projectAll(MeshGeometry geometry, Bounds bounds, int[] bases, Mat4[] transforms, Mat4[] worlds,
+                              int instanceCount) {
+        int count = geometry.getVertexCount();
+        int block = count * 4;
+        if (this.normalStream.length < block * instanceCount) {
+            this.positionStream = new double[block * instanceCount * 2];
+            this.normalStream = new double[block * instanceCount];
+        }
+        double[] positions = this.positionStream;
+        double[] normals = this.normalStream;
+        double[] textureCoordinates = geometry.getTextureCoordinates();
+
+        double[] matrices = this.matrixStream;
+        for (int k = 0; k < instanceCount; k++) {
+            worlds[k].get(matrices, k * 16);
+            transforms[k].get(matrices, (instanceCount + k) * 16);
+        }
+        // The world matrices without their translation, and with w left at 1, for the normals
+        double[] normalMatrices = this.normalMatrixStream;
+        System.arraycopy(matrices, 0, normalMatrices, 0, instanceCount * 16);
+        for (int k = 0; k < instanceCount * 16; k += 16) {
+            normalMatrices[k + 3] = 0;
+            normalMatrices[k + 7] = 0;
+            normalMatrices[k + 11] = 0;
+            normalMatrices[k + 12] = 0;
+            normalMatrices[k + 13] = 0;
+            normalMatrices[k + 14] = 0;
+            normalMatrices[k + 15] = 1;
+        }
+        this.simdKernel.transformPoints(geometry.getPositions(), count, matrices, instanceCount * 2, positions);
+        this.simdKernel.transformPoints(geometry.getNormals(), count, normalMatrices, instanceCount, normals);
+
+        for (int k = 0; k < instanceCount; k++) {
+            if (!this.depthOnly) {
+                this.selectLights(bounds, worlds[k]);
+            }
+            int base = bases[k];
+            int worldOffset = k * block;
+            int clipOffset = (instanceCount + k) * block;
+            for (int i = 0; i < count; i++, worldOffset += 4, clipOffset += 4) {
+                Vertex result = this.vertexBuffer.get(base + i);
+                result.clipCoordinates.set(positions[clipOffset], positions[clipOffset + 1], positions[clipOffset + 2],
+                        positions[clipOffset + 3]);
+                this.toScreen(result);
+
+                double w = positions[worldOffset + 3];
+                result.worldCoordinates.set(positions[worldOffset] / w, positions[worldOffset + 1] / w,
+                        positions[worldOffset + 2] / w);
+                result.normal.set(normals[worldOffset], normals[worldOffset + 1], normals[worldOffset + 2]);
+                result.normal.normalize();
+                if (!this.depthOnly) {
+                    result.intensity = (float) this.computeLighting(result.worldCoordinates, result.normal);
+                }
+                result.textureCoordinates.set(textureCoordinates[i * 2], textureCoordinates[i * 2 + 1]);
+            }
+        }
+    }
+
+    /**
+     * Divides the clip coordinates of the vertex by w and maps them to the viewport.
+     */
+    protected void toScreen(Vertex vertex) {
+        Vector4d clip = vertex.clipCoordinates;
+        Vector3d point = vertex.coordinates;
+
+        point.set(clip.x / clip.w, clip.y / clip.w, clip.z / clip.w);
+        vertex.inverseW = 1.0 / clip.w;
+        if (this.reversedDepth) {
+            point.z = NEAR_PLANE * vertex.inverseW;
+        }
 
         // The transformed coordinates will be based on coordinate system
         // starting on the center of the screen. But drawing on screen normally starts
         // from top left. We then need to transform them again to have x:0, y:0 on top left.
         point.x = point.x * this.width + this.width / 2.0;
         point.y = -point.y * this.height + this.height / 2.0;
-
-        return new Vertex(point, normalWorld, pointWorld, vertex.textureCoordinates);
     }
 
     protected void drawPoint(Vector3d point, Color4f color) {
@@ -106,14 +1182,220 @@ public class Device {
     protected void putPixel(int x, int y, double z, int color) {
         int index = x + y * this.width;
 
-        if (this.depthBuffer[index] < z) {
+        if (this.testDepth(index, 1, 1, z, 0, (x / DEPTH_TILE_SIZE) + (y / DEPTH_TILE_SIZE) * this.depthTilesX) == 0) {
             return;
         }
-        this.depthBuffer[index] = z;
 
         this.buffer[index] = color;
     }
 
+    /**
+     * Depth test of up to {@link #DEPTH_TILE_SIZE} consecutive pixels of a row within one depth
+     * tile, stepping the depth natively in the chosen format. Pixels whose bit is clear in
+     * {@code coverage} are skipped. Passing pixels have their depth written and their bit set in
+     * the returned mask.
+     */
+    protected int testDepth(int index, int count, int coverage, double z, double zStep, int tile) {
+        switch (this.depthFormat) {
+            case FLOAT32:
+                return this.testDepthFloat(index, count, coverage, z, zStep, tile);
+            case INT24:
+                return this.testDepthInt(index, count, coverage, z, zStep, tile);
+            default:
+                return this.testDepthShort(index, count, coverage, z, zStep, tile);
+        }
+    }
+
+    private int testDepthFloat(int index, int count, int coverage, double z, double zStep, int tile) {
+        int[] depthBuffer = this.depthBuffer;
+        int tileMax = this.depthTileMax[tile];
+        // The kernel works on whole depth tile rows, which line up with the vectors when rows do
+        if (this.simdKernel != null && count > 1 && this.width % DEPTH_TILE_SIZE == 0) {
+            int result = this.simdKernel.testDepthFloat(depthBuffer, index, count, coverage, (float) z, (float) zStep,
+                    this.reversedDepth, tileMax);
+            this.updateDepthTile(tile, (result & (1 << 16)) != 0, (result >>> 8) & 0xFF);
+            return result & 0xFF;
+        }
+        int base = this.reversedDepth ? FLOAT_INFINITY_BITS : 0;
+        int sign = this.reversedDepth ? -1 : 1;
+        float depth = (float) z;
+        float step = (float) zStep;
+        int passed = 0;
+        int covered = 0;
+        boolean farthestWritten = false;
+
+        // Every pixel's depth is derived from the first one, not stepped from the previous one, so
+        // the vector kernel computes exactly the same keys
+        for (int i = 0; i < count; i++, index++) {
+            if ((coverage & (1 << i)) == 0) {
+                continue;
+            }
+            int key = base + sign * Float.floatToRawIntBits(Math.max(depth + i * step, 0.f));
+            int previous = depthBuffer[index];
+            if (key <= previous) {
+                depthBuffer[index] = key;
+                passed |= 1 << i;
+                if (previous >= tileMax) {
+                    farthestWritten = true;
+                    covered += previous == Integer.MAX_VALUE ? 1 : 0;
+                }
+            }
+        }
+
+        this.updateDepthTile(tile, farthestWritten, covered);
+        return passed;
+    }
+
+    private int testDepthInt(int index, int count, int coverage, double z, double zStep, int tile) {
+        int[] depthBuffer = this.depthBuffer;
+        int tileMax = this.depthTileMax[tile];
+        int base = this.reversedDepth ? INT24_MAX_KEY : 0;
+        int sign = this.reversedDepth ? -1 : 1;
+        long depth = (long) (z * INT24_MAX_KEY * (1 << DEPTH_FRACTION_BITS));
+        long step = (long) (zStep * INT24_MAX_KEY * (1 << DEPTH_FRACTION_BITS));
+        int passed = 0;
+        int covered = 0;
+        boolean farthestWritten = false;
+
+        for (int i = 0; i < count; i++, index++, depth += step) {
+            if ((coverage & (1 << i)) == 0) {
+                continue;
+            }
+            int key = base + sign * (int) Math.max(0, Math.min(INT24_MAX_KEY, depth >> DEPTH_FRACTION_BITS));
+            int previous = depthBuffer[index];
+            if (key <= previous) {
+                depthBuffer[index] = key;
+                passed |= 1 << i;
+                if (previous >= tileMax) {
+                    farthestWritten = true;
+                    covered += previous == Integer.MAX_VALUE ? 1 : 0;
+                }
+            }
+        }
+
+        this.updateDepthTile(tile, farthestWritten, covered);
+        return passed;
+    }
+
+    private int testDepthShort(int index, int count, int coverage, double z, double zStep, int tile) {
+        char[] depthBuffer = this.shortDepthBuffer;
+        int tileMax = this.depthTileMax[tile];
+        int base = this.reversedDepth ? INT16_MAX_KEY : 0;
+        int sign = this.reversedDepth ? -1 : 1;
+        long depth = (long) (z * INT16_MAX_KEY * (1 << DEPTH_FRACTION_BITS));
+        long step = (long) (zStep * INT16_MAX_KEY * (1 << DEPTH_FRACTION_BITS));
+        int passed = 0;
+        int covered = 0;
+        boolean farthestWritten = false;
+
+        for (int i = 0; i < count; i++, index++, depth += step) {
+            if ((coverage & (1 << i)) == 0) {
+                continue;
+            }
+            int key = base + sign * (int) Math.max(0, Math.min(INT16_MAX_KEY, depth >> DEPTH_FRACTION_BITS));
+            int previous = depthBuffer[index];
+            if (key <= previous) {
+                depthBuffer[index] = (char) key;
+                passed |= 1 << i;
+                if (previous >= tileMax) {
+                    farthestWritten = true;
+                    covered += previous == INT16_MAX_KEY + 1 ? 1 : 0;
+                }
+            }
+        }
+
+        this.updateDepthTile(tile, farthestWritten, covered);
+        return passed;
+    }
+
+    private void updateDepthTile(int tile, boolean farthestWritten, int covered) {
+        if (farthestWritten) {
+            this.depthTileDirty[tile] = true;
+            this.depthTileUncovered[tile] -= covered;
+        }
+    }
+
+    /**
+     * The key {@link #testDepth} would store for the given depth, give or take
+     * {@link #depthKeySlack}.
+     */
+    protected int depthKey(double z) {
+        switch (this.depthFormat) {
+            case FLOAT32:
+                int bits = Float.floatToRawIntBits(Math.max((float) z, 0.f));
+                return this.reversedDepth ? FLOAT_INFINITY_BITS - bits : bits;
+            case INT24:
+                int key = (int) Math.max(0, Math.min(INT24_MAX_KEY, (long) (z * INT24_MAX_KEY)));
+                return this.reversedDepth ? INT24_MAX_KEY - key : key;
+            default:
+                key = (int) Math.max(0, Math.min(INT16_MAX_KEY, (long) (z * INT16_MAX_KEY)));
+                return this.reversedDepth ? INT16_MAX_KEY - key : key;
+        }
+    }
+
+    /**
+     * Whether a row segment or block whose depth spans {@code z1} to {@code z2} lies behind
+     * everything already drawn in the depth tile.
+     */
+    protected boolean isDepthTileOccluded(int tile, double z1, double z2) {
+        return Math.min(this.depthKey(z1), this.depthKey(z2)) - this.depthKeySlack > this.getDepthTileMax(tile);
+    }
+
+    /**
+     * Farthest depth key in the given depth tile. Writes only flag a tile when they replace its
+     * farthest depth, the maximum is then recomputed here the next time it is needed.
+     */
+    protected int getDepthTileMax(int tile) {
+        if (this.depthTileDirty[tile]) {
+            this.depthTileDirty[tile] = false;
+
+            // Until every pixel is written the farthest depth is still the cleared one
+            if (this.depthTileUncovered[tile] == 0) {
+                int minX = (tile % this.depthTilesX) * DEPTH_TILE_SIZE;
+                int minY = (tile / this.depthTilesX) * DEPTH_TILE_SIZE;
+                int maxX = Math.min(minX + DEPTH_TILE_SIZE, this.width);
+                int maxY = Math.min(minY + DEPTH_TILE_SIZE, this.height);
+
+                int max = 0;
+                for (int y = minY; y < maxY; y++) {
+                    for (int index = y * this.width + minX, end = y * this.width + maxX; index < end; index++) {
+                        max = Math.max(max, this.shortDepthBuffer != null ? this.shortDepthBuffer[index] : this.depthBuffer[index]);
+                    }
+                }
+                this.depthTileMax[tile] = max;
+            }
+        }
+        return this.depthTileMax[tile];
+    }
+
+    /**
+     * Whether the nearest point of the triangle lies behind every depth tile its bounding box
+     * covers within the clip rectangle.
+     */
+    protected boolean isOccluded(Triangle triangle, int clipMinX, int clipMinY, int clipMaxX, int clipMaxY) {
+        Vector3d p1 = triangle.v1.coordinates;
+        Vector3d p2 = triangle.v2.coordinates;
+        Vector3d p3 = triangle.v3.coordinates;
+
+        int nearest = Math.min(this.depthKey(p1.z), Math.min(this.depthKey(p2.z), this.depthKey(p3.z))) - this.depthKeySlack;
+        int minX = Math.max(clipMinX, (int) Math.min(p1.x, Math.min(p2.x, p3.x)));
+        int maxX = Math.min(clipMaxX - 1, (int) Math.max(p1.x, Math.max(p2.x, p3.x)));
+        int minY = Math.max(clipMinY, (int) p1.y);
+        int maxY = Math.min(clipMaxY - 1, (int) p3.y);
+        if (minX > maxX || minY > maxY) {
+            return false;
+        }
+
+        for (int ty = minY / DEPTH_TILE_SIZE; ty <= maxY / DEPTH_TILE_SIZE; ty++) {
+            for (int tx = minX / DEPTH_TILE_SIZE; tx <= maxX / DEPTH_TILE_SIZE; tx++) {
+                if (this.getDepthTileMax(tx + ty * this.depthTilesX) >= nearest) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     protected double clamp(double value, double min, double max) {
         return Math.max(min, Math.min(value, max));
     }
@@ -126,7 +1408,212 @@ public class Device {
         return min + (max - min) * this.clamp(gradient);
     }
 
-    protected void processScanLine(ScanLineData data, Vertex va, Vertex vb, Vertex vc, Vertex vd, Color4f color, Texture texture) {
+    protected void binTriangle(Triangle triangle) {
+        double minX = Math.min(triangle.v1.coordinates.x, Math.min(triangle.v2.coordinates.x, triangle.v3.coordinates.x));
+        double maxX = Math.max(triangle.v1.coordinates.x, Math.max(triangle.v2.coordinates.x, triangle.v3.coordinates.x));
+        double minY = triangle.v1.coordinates.y;
+        double maxY = triangle.v3.coordinates.y;
+
+        if (maxX < 0 || maxY < 0 || minX >= this.width || minY >= this.height) {
+            return;
+        }
+
+        int tx0 = Math.max(0, (int) minX / TILE_SIZE);
+        int tx1 = Math.min(this.tilesX - 1, (int) maxX / TILE_SIZE);
+        int ty0 = Math.max(0, (int) minY / TILE_SIZE);
+        int ty1 = Math.min(this.tilesY - 1, (int) maxY / TILE_SIZE);
+
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                this.tileBins.get(tx + ty * this.tilesX).add(triangle);
+            }
+        }
+    }
+
+    protected void rasterizeTile(int tile) {
+        List<Triangle> bin = this.tileBins.get(tile);
+        int minX = (tile % this.tilesX) * TILE_SIZE;
+        int minY = (tile / this.tilesX) * TILE_SIZE;
+        int maxX = Math.min(minX + TILE_SIZE, this.width);
+        int maxY = Math.min(minY + TILE_SIZE, this.height);
+
+        ScanLineData data = this.tileScanLineData[tile];
+        for (int i = 0; i < bin.size(); i++) {
+            this.rasterize(bin.get(i), data, minX, minY, maxX, maxY);
+        }
+        bin.clear();
+    }
+
+    protected void shadeTile(int tile) {
+        int minX = (tile % this.tilesX) * TILE_SIZE;
+        int minY = (tile / this.tilesX) * TILE_SIZE;
+        this.shadeRegion(this.tileScanLineData[tile], minX, minY, Math.min(minX + TILE_SIZE, this.width),
+                Math.min(minY + TILE_SIZE, this.height));
+    }
+
+    /**
+     * Deferred shading of the visible pixels within the clip rectangle. The stored screen space
+     * weights are turned perspective-correct and every attribute is interpolated as the edge
+     * function rasterizer does, the mip level comes from the exact derivatives at the first pixel of
+     * every 8 pixel run.
+     */
+    protected void shadeRegion(ScanLineData data, int clipMinX, int clipMinY, int clipMaxX, int clipMaxY) {
+        // Only the pixels drawn this frame can hold a triangle
+        Region region = this.bufferRegion;
+        int minX = Math.max(clipMinX, region.minX);
+        int minY = Math.max(clipMinY, region.minY);
+        int maxX = Math.min(clipMaxX, region.maxX);
+        int maxY = Math.min(clipMaxY, region.maxY);
+
+        int[] buffer = this.buffer;
+        int[] visibilityBuffer = this.visibilityBuffer;
+        int[] barycentricBuffer = this.barycentricBuffer;
+        boolean bilinear = this.textureFilter == TextureFilter.BILINEAR;
+        double inverseScale = 1.0 / BARYCENTRIC_SCALE;
+
+        double[] constants = this.shadingConstants;
+        int current = 0;
+        Texture texture = null;
+        boolean mipmapped = false;
+        double w1 = 0, w2 = 0, w3 = 0;
+        double nl1 = 0, nl2 = 0, nl3 = 0;
+        double u1 = 0, u2 = 0, u3 = 0;
+        double tv1 = 0, tv2 = 0, tv3 = 0;
+        double qdx = 0, qdy = 0, udx = 0, udy = 0, vdx = 0, vdy = 0;
+        int level = 0;
+        boolean selectLevel = true;
+        long shaded = 0;
+
+        for (int y = minY; y < maxY; y++) {
+            selectLevel = true;
+            for (int x = minX, index = y * this.width + minX; x < maxX; x++, index++) {
+                int id = visibilityBuffer[index];
+                if (id == 0) {
+                    selectLevel = true;
+                    continue;
+                }
+
+                // Neighbouring pixels mostly belong to the same triangle
+                if (id != current) {
+                    current = id;
+                    selectLevel = true;
+                    Triangle triangle = this.triangles[id - 1];
+                    texture = triangle.texture;
+                    mipmapped = texture != null && this.mipmapping;
+                    data.colorR = triangle.colorR;
+                    data.colorG = triangle.colorG;
+                    data.colorB = triangle.colorB;
+
+                    int offset = (id - 1) * SHADING_CONSTANTS;
+                    w1 = constants[offset];
+                    w2 = constants[offset + 1];
+                    w3 = constants[offset + 2];
+                    nl1 = constants[offset + 3];
+                    nl2 = constants[offset + 4];
+                    nl3 = constants[offset + 5];
+                    u1 = constants[offset + 6];
+                    u2 = constants[offset + 7];
+                    u3 = constants[offset + 8];
+                    tv1 = constants[offset + 9];
+                    tv2 = constants[offset + 10];
+                    tv3 = constants[offset + 11];
+
+                    // The screen space derivatives of the interpolated attributes are constant per triangle
+                    double b2dx = constants[offset + 12];
+                    double b2dy = constants[offset + 13];
+                    double b3dx = constants[offset + 14];
+                    double b3dy = constants[offset + 15];
+                    qdx = b2dx * (w2 - w1) + b3dx * (w3 - w1);
+                    qdy = b2dy * (w2 - w1) + b3dy * (w3 - w1);
+                    udx = b2dx * (u2 - u1) + b3dx * (u3 - u1);
+                    udy = b2dy * (u2 - u1) + b3dy * (u3 - u1);
+                    vdx = b2dx * (tv2 - tv1) + b3dx * (tv3 - tv1);
+                    vdy = b2dy * (tv2 - tv1) + b3dy * (tv3 - tv1);
+                }
+
+                int weights = barycentricBuffer[index];
+                double b2 = (weights >>> 16) * inverseScale;
+                double b3 = (weights & 0xFFFF) * inverseScale;
+                double b1 = 1.0 - b2 - b3;
+
+                double q = b1 * w1 + b2 * w2 + b3 * w3;
+                double w = 1.0 / q;
+                double nl = (b1 * nl1 + b2 * nl2 + b3 * nl3) * w;
+
+                int texel = 0xFFFFFFFF;
+                if (texture != null) {
+                    double tu = b1 * u1 + b2 * u2 + b3 * u3;
+                    double tv = b1 * tv1 + b2 * tv2 + b3 * tv3;
+                    // The level changes slowly across a triangle, it is selected once per 8 pixels of a run
+                    if (mipmapped && (selectLevel || (x & 7) == 0)) {
+                        double w2q = w * w;
+                        level = texture.selectLevel((udx * q - tu * qdx) * w2q, (vdx * q - tv * qdx) * w2q,
+                                (udy * q - tu * qdy) * w2q, (vdy * q - tv * qdy) * w2q);
+                        selectLevel = false;
+                    }
+                    tu *= w;
+                    tv *= w;
+                    texel = bilinear ? texture.sampleBilinear(level, tu, tv) : texture.sample(level, tu, tv);
+                }
+                buffer[index] = this.shade(texel, Math.max(0, Math.min(256, (int) (nl * 256))), data);
+                shaded++;
+            }
+        }
+        data.shadedPixelCount += shaded;
+    }
+
+    /**
+     * Computes the constants the deferred shading pass needs for a triangle up front, so shading
+     * reads them from one flat array instead of chasing the triangle's vertices.
+     */
+    protected void setupShading(Triangle triangle) {
+        if ((triangle.index + 1) * SHADING_CONSTANTS > this.shadingConstants.length) {
+            this.shadingConstants = Arrays.copyOf(this.shadingConstants, this.triangles.length * SHADING_CONSTANTS);
+        }
+        double[] constants = this.shadingConstants;
+        int offset = triangle.index * SHADING_CONSTANTS;
+
+        Vertex v1 = triangle.v1;
+        Vertex v2 = triangle.v2;
+        Vertex v3 = triangle.v3;
+        double w1 = v1.inverseW;
+        double w2 = v2.inverseW;
+        double w3 = v3.inverseW;
+        constants[offset] = w1;
+        constants[offset + 1] = w2;
+        constants[offset + 2] = w3;
+        constants[offset + 3] = triangle.nl1 * w1;
+        constants[offset + 4] = triangle.nl2 * w2;
+        constants[offset + 5] = triangle.nl3 * w3;
+        constants[offset + 6] = v1.textureCoordinates.x * w1;
+        constants[offset + 7] = v2.textureCoordinates.x * w2;
+        constants[offset + 8] = v3.textureCoordinates.x * w3;
+        constants[offset + 9] = v1.textureCoordinates.y * w1;
+        constants[offset + 10] = v2.textureCoordinates.y * w2;
+        constants[offset + 11] = v3.textureCoordinates.y * w3;
+
+        double ex2 = v2.coordinates.x - v1.coordinates.x, ey2 = v2.coordinates.y - v1.coordinates.y;
+        double ex3 = v3.coordinates.x - v1.coordinates.x, ey3 = v3.coordinates.y - v1.coordinates.y;
+        double determinant = ex2 * ey3 - ex3 * ey2;
+        double inverse = determinant != 0 ? 1.0 / determinant : 0;
+        constants[offset + 12] = ey3 * inverse;
+        constants[offset + 13] = -ex3 * inverse;
+        constants[offset + 14] = -ey2 * inverse;
+        constants[offset + 15] = ex2 * inverse;
+    }
+
+    /**
+     * Stores the nearest triangle of a pixel and the screen space weights of its second and third
+     * vertices for the deferred shading pass.
+     */
+    protected void storeVisibility(int index, Triangle triangle, double b2, double b3) {
+        b2 = Math.max(0.0, Math.min(1.0, b2));
+        b3 = Math.max(0.0, Math.min(1.0 - b2, b3));
+        this.visibilityBuffer[index] = triangle.index + 1;
+        this.barycentricBuffer[index] = ((int) (b2 * BARYCENTRIC_SCALE + 0.5) << 16) | (int) (b3 * BARYCENTRIC_SCALE + 0.5);
+    }
+
+    protected void processScanLine(ScanLineData data, Vertex va, Vertex vb, Vertex vc, Vertex vd, Texture texture) {
         Vector3d pa = va.coordinates;
         Vector3d pb = vb.coordinates;
         Vector3d pc = vc.coordinates;
@@ -138,6 +1625,13 @@ public class Device {
         int sx = (int) interpolate(pa.x, pb.x, gradient1);
         int ex = (int) interpolate(pc.x, pd.x, gradient2);
 
+        // Clipping the whole span once instead of every pixel
+        int startX = Math.max(sx, data.clipMinX);
+        int endX = Math.min(ex, data.clipMaxX);
+        if (startX >= endX) {
+            return;
+        }
+
         // starting Z & ending Z
         double z1 = interpolate(pa.z, pb.z, gradient1);
         double z2 = interpolate(pc.z, pd.z, gradient2);
@@ -152,41 +1646,190 @@ public class Device {
         double sv = interpolate(data.va, data.vb, gradient1);
         double ev = interpolate(data.vc, data.vd, gradient2);
 
-        // drawing a line from left (sx) to right (ex)
-        for (int x = sx; x < ex; x++) {
-            double gradient = (x - sx) / (double) (ex - sx);
+        // Per pixel steps of the interpolants
+        double length = ex - sx;
+        double zStep = (z2 - z1) / length;
+        double nlStep = (enl - snl) / length;
+        double uStep = (eu - su) / length;
+        double vStep = (ev - sv) / length;
+
+        // The level comes from the span's own u/v step along x and the triangle's step along y
+        int level = texture != null && this.mipmapping ? texture.selectLevel(uStep, vStep, data.dudy, data.dvdy) : 0;
+        boolean bilinear = this.textureFilter == TextureFilter.BILINEAR;
+
+        int[] buffer = this.buffer;
+        int row = data.currentY * this.width;
+
+        // drawing a line from left (sx) to right (ex). The interpolants are re-anchored at every
+        // depth tile column, so tiles rasterized separately step through exactly the same values,
+        // and the parts of the span behind a whole depth tile are skipped before any shading.
+        boolean depthOnly = data.depthOnly;
+        boolean deferred = this.visibilityBuffer != null;
+        int depthTileRow = (data.currentY / DEPTH_TILE_SIZE) * this.depthTilesX;
+        int chunkStart = startX;
+        while (chunkStart < endX) {
+            int chunkEnd = Math.min(endX, (chunkStart / DEPTH_TILE_SIZE + 1) * DEPTH_TILE_SIZE);
+            int count = chunkEnd - chunkStart;
+            int depthTile = depthTileRow + chunkStart / DEPTH_TILE_SIZE;
+
+            int offset = chunkStart - sx;
+            double z = z1 + zStep * offset;
+
+            if (this.hierarchicalDepth && this.isDepthTileOccluded(depthTile, z, z + zStep * (count - 1))) {
+                chunkStart = chunkEnd;
+                continue;
+            }
+
+            int passed = this.testDepth(row + chunkStart, count, -1, z, zStep, depthTile);
+            data.depthTestFailureCount += count - Integer.bitCount(passed);
+            if (passed != 0 && deferred && !depthOnly) {
+                double b2 = data.b2Origin + chunkStart * data.b2dx + data.currentY * data.b2dy;
+                double b3 = data.b3Origin + chunkStart * data.b3dx + data.currentY * data.b3dy;
+                for (int i = 0, index = row + chunkStart; i < count; i++, index++, b2 += data.b2dx, b3 += data.b3dx) {
+                    if ((passed & (1 << i)) != 0) {
+                        this.storeVisibility(index, data.triangle, b2, b3);
+                    }
+                }
+            } else if (passed != 0 && !depthOnly) {
+                data.shadedPixelCount += Integer.bitCount(passed);
+                double nl = snl + nlStep * offset;
+                double u = su + uStep * offset;
+                double v = sv + vStep * offset;
+
+                for (int i = 0, index = row + chunkStart; i < count; i++, index++) {
+                    if ((passed & (1 << i)) != 0) {
+                        int texel = 0xFFFFFFFF;
+                        if (texture != null) {
+                            texel = bilinear ? texture.sampleBilinear(level, u, v) : texture.sample(level, u, v);
+                        }
+                        buffer[index] = this.shade(texel, (int) (nl * 256), data);
+                    }
+
+                    nl += nlStep;
+                    u += uStep;
+                    v += vStep;
+                }
+            }
+
+            chunkStart = chunkEnd;
+        }
+    }
 
-            double z = interpolate(z1, z2, gradient);
-            float ndotl = (float) interpolate(snl, enl, gradient);
-            double u = interpolate(su, eu, gradient);
-            double v = interpolate(sv, ev, gradient);
+    /**
+     * Modulates a packed ARGB texel by a light intensity in the range 0..256 and by the triangle
+     * color held in {@code data}.
+     */
+    protected int shade(int texel, int intensity, ScanLineData data) {
+        int r = (((texel >> 16) & 0xFF) * intensity * data.colorR) >>> 16;
+        int g = (((texel >> 8) & 0xFF) * intensity * data.colorG) >>> 16;
+        int b = ((texel & 0xFF) * intensity * data.colorB) >>> 16;
 
-            Color4f textureColor;
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
 
-            if (texture != null) {
-                textureColor = texture.map(u, v);
+    /**
+     * Keeps the lights that can reach the mesh for {@link #computeLighting}: directional ones, and
+     * point ones whose range reaches the world space bounding sphere of the mesh.
+     */
+    private void selectLights(Bounds bounds, Mat4 m) {
+        double centerX = bounds.centerX * m.m00 + bounds.centerY * m.m10 + bounds.centerZ * m.m20 + m.m30;
+        double centerY = bounds.centerX * m.m01 + bounds.centerY * m.m11 + bounds.centerZ * m.m21 + m.m31;
+        double centerZ = bounds.centerX * m.m02 + bounds.centerY * m.m12 + bounds.centerZ * m.m22 + m.m32;
+        // The sphere grows with the largest scale of the matrix
+        double scale = Math.max(m.m00 * m.m00 + m.m01 * m.m01 + m.m02 * m.m02,
+                Math.max(m.m10 * m.m10 + m.m11 * m.m11 + m.m12 * m.m12, m.m20 * m.m20 + m.m21 * m.m21 + m.m22 * m.m22));
+        double radius = bounds.radius * Math.sqrt(scale);
+
+        if (this.meshLights.length < this.lights.size() * LIGHT_STRIDE) {
+            this.meshLights = new double[this.lights.size() * LIGHT_STRIDE];
+        }
+        double[] meshLights = this.meshLights;
+        int count = 0;
+        for (int i = 0; i < this.lights.size(); i++) {
+            Light light = this.lights.get(i);
+            int offset = count * LIGHT_STRIDE;
+            if (light.getType() == LightType.DIRECTIONAL) {
+                Vec3 direction = light.getDirection();
+                double norm = -1.0 / direction.length();
+                meshLights[offset] = 1;
+                meshLights[offset + 1] = direction.x * norm;
+                meshLights[offset + 2] = direction.y * norm;
+                meshLights[offset + 3] = direction.z * norm;
+                meshLights[offset + 5] = 0;
             } else {
-                textureColor = new Color4f(1, 1, 1, 1);
+                Vec3 position = light.getPosition();
+                double range = light.getRange();
+                if (range != Double.POSITIVE_INFINITY) {
+                    double x = position.x - centerX;
+                    double y = position.y - centerY;
+                    double z = position.z - centerZ;
+                    if (Math.sqrt(x * x + y * y + z * z) - radius >= range) {
+                        continue;
+                    }
+                }
+                meshLights[offset] = 0;
+                meshLights[offset + 1] = position.x;
+                meshLights[offset + 2] = position.y;
+                meshLights[offset + 3] = position.z;
+                meshLights[offset + 5] = range == Double.POSITIVE_INFINITY ? 0 : 1.0 / range;
+            }
+            meshLights[offset + 4] = light.getIntensity();
+            count++;
+        }
+        this.meshLightCount = count;
+    }
+
+    /**
+     * Sum of the lights selected for the mesh being drawn on a point, capped at 1. Point lights
+     * with a range fade out with the square of the distance over it. Expects {@code normal} to be
+     * normalized already.
+     */
+    protected double computeLighting(Vector3d position, Vector3d normal) {
+        double[] meshLights = this.meshLights;
+        double intensity = 0;
+        for (int i = 0; i < this.meshLightCount * LIGHT_STRIDE; i += LIGHT_STRIDE) {
+            double x = meshLights[i + 1];
+            double y = meshLights[i + 2];
+            double z = meshLights[i + 3];
+            if (meshLights[i] != 0) {
+                intensity += Math.max(0, normal.x * x + normal.y * y + normal.z * z) * meshLights[i + 4];
+                continue;
             }
 
-            drawPoint(
-                    new Vector3d(x, data.currentY, z),
-                    new Color4f(color.x * ndotl * textureColor.x, color.y * ndotl * textureColor.y, color.z * ndotl * textureColor.z, 1.f)
-            );
+            x -= position.x;
+            y -= position.y;
+            z -= position.z;
+            double norm = 1.0 / Math.sqrt(x * x + y * y + z * z);
+            double light = Math.max(0, (normal.x * x + normal.y * y + normal.z * z) * norm) * meshLights[i + 4];
+            if (meshLights[i + 5] != 0) {
+                double falloff = Math.max(0, 1 - meshLights[i + 5] / norm);
+                light *= falloff * falloff;
+            }
+            intensity += light;
         }
+        return Math.min(1, intensity);
     }
 
-    protected double computeNDotL(Vector3d vertex, Vector3d normal, Vector3d lightPosition) {
-        Vector3d lightDirection = new Vector3d();
-        lightDirection.sub(lightPosition, vertex);
+    protected void drawTriangle(Vertex v1, Vertex v2, Vertex v3, Color4f color, Texture texture) {
+        this.rasterize(this.setupTriangle(v1, v2, v3, color, texture, this.triangle), this.scanLineData, 0, 0, this.width, this.height);
+    }
 
-        normal.normalize();
-        lightDirection.normalize();
+    protected void rasterize(Triangle triangle, ScanLineData data, int clipMinX, int clipMinY, int clipMaxX, int clipMaxY) {
+        if (this.hierarchicalDepth && this.isOccluded(triangle, clipMinX, clipMinY, clipMaxX, clipMaxY)) {
+            return;
+        }
 
-        return Math.max(0, normal.dot(lightDirection));
+        data.rasterizedTriangleCount++;
+        data.triangle = triangle;
+        data.depthOnly = triangle.depthOnly;
+        if (this.rasterizerMode == RasterizerMode.EDGE_FUNCTION) {
+            this.rasterizeTriangleEdges(triangle, data, clipMinX, clipMinY, clipMaxX, clipMaxY);
+        } else {
+            this.rasterizeTriangle(triangle, data, clipMinX, clipMinY, clipMaxX, clipMaxY);
+        }
     }
 
-    protected void drawTriangle(Vertex v1, Vertex v2, Vertex v3, Color4f color, Texture texture) {
+    protected Triangle setupTriangle(Vertex v1, Vertex v2, Vertex v3, Color4f color, Texture texture, Triangle triangle) {
         // Sorting points on y
         Vertex temp;
 
@@ -208,34 +1851,87 @@ public class Device {
             v1 = temp;
         }
 
+        triangle.v1 = v1;
+        triangle.v2 = v2;
+        triangle.v3 = v3;
+        triangle.colorR = Math.round(color.x * 256);
+        triangle.colorG = Math.round(color.y * 256);
+        triangle.colorB = Math.round(color.z * 256);
+        triangle.texture = texture;
+        triangle.depthOnly = this.depthOnly;
+
+        // The corners were lit when they were transformed, between 0 and 1
+        triangle.nl1 = v1.intensity;
+        triangle.nl2 = v2.intensity;
+        triangle.nl3 = v3.intensity;
+
+        return triangle;
+    }
+
+    protected Triangle nextTriangle() {
+        if (this.triangleCount == this.triangles.length) {
+            Triangle[] grown = Arrays.copyOf(this.triangles, Math.max(64, this.triangles.length * 2));
+            for (int i = this.triangles.length; i < grown.length; i++) {
+                grown[i] = new Triangle();
+                grown[i].index = i;
+            }
+            this.triangles = grown;
+        }
+        return this.triangles[this.triangleCount++];
+    }
+
+    protected void rasterizeTriangle(Triangle triangle, ScanLineData data, int clipMinX, int clipMinY, int clipMaxX, int clipMaxY) {
+        Vertex v1 = triangle.v1;
+        Vertex v2 = triangle.v2;
+        Vertex v3 = triangle.v3;
+        Texture texture = triangle.texture;
+
         Vector3d p1 = v1.coordinates;
         Vector3d p2 = v2.coordinates;
         Vector3d p3 = v3.coordinates;
 
-        // computing the cos of the angle between the light vector and the normal vector
-        // it will return a value between 0 and 1 that will be used as the intensity of the color
-        float nl1 = (float) this.computeNDotL(v1.worldCoordinates, v1.normal, this.lightPosition);
-        float nl2 = (float) this.computeNDotL(v2.worldCoordinates, v2.normal, this.lightPosition);
-        float nl3 = (float) this.computeNDotL(v3.worldCoordinates, v3.normal, this.lightPosition);
-
-        ScanLineData data = new ScanLineData();
-
-        // Inverse slopes
-        double dP1P2, dP1P3;
-        if (p2.y - p1.y > 0) {
-            dP1P2 = (p2.x - p1.x) / (p2.y - p1.y);
-        } else {
-            dP1P2 = 0;
+        float nl1 = triangle.nl1;
+        float nl2 = triangle.nl2;
+        float nl3 = triangle.nl3;
+
+        data.clipMinX = clipMinX;
+        data.clipMaxX = clipMaxX;
+        data.colorR = triangle.colorR;
+        data.colorG = triangle.colorG;
+        data.colorB = triangle.colorB;
+
+        // Screen space rate of change of the texture coordinates along y, constant over the
+        // triangle since the scanline rasterizer interpolates them linearly
+        data.dudy = 0;
+        data.dvdy = 0;
+        double determinant = (p2.x - p1.x) * (p3.y - p1.y) - (p3.x - p1.x) * (p2.y - p1.y);
+        if (texture != null && this.mipmapping && determinant != 0) {
+            Vector2d t1 = v1.textureCoordinates;
+            Vector2d t2 = v2.textureCoordinates;
+            Vector2d t3 = v3.textureCoordinates;
+            data.dudy = ((t3.x - t1.x) * (p2.x - p1.x) - (t2.x - t1.x) * (p3.x - p1.x)) / determinant;
+            data.dvdy = ((t3.y - t1.y) * (p2.x - p1.x) - (t2.y - t1.y) * (p3.x - p1.x)) / determinant;
         }
 
-        if (p3.y - p1.y > 0) {
-            dP1P3 = (p3.x - p1.x) / (p3.y - p1.y);
+        if (this.visibilityBuffer != null && determinant != 0) {
+            data.b2dx = (p3.y - p1.y) / determinant;
+            data.b2dy = -(p3.x - p1.x) / determinant;
+            data.b3dx = -(p2.y - p1.y) / determinant;
+            data.b3dy = (p2.x - p1.x) / determinant;
+            data.b2Origin = (0.5 - p1.x) * data.b2dx + (0.5 - p1.y) * data.b2dy;
+            data.b3Origin = (0.5 - p1.x) * data.b3dx + (0.5 - p1.y) * data.b3dy;
         } else {
-            dP1P3 = 0;
+            data.b2Origin = data.b2dx = data.b2dy = 0;
+            data.b3Origin = data.b3dx = data.b3dy = 0;
         }
 
-        if (dP1P2 > dP1P3) {
-            for (int y = (int) p1.y; y <= (int) p3.y; y++) {
+        int startY = Math.max((int) p1.y, clipMinY);
+        int endY = Math.min((int) p3.y, clipMaxY - 1);
+
+        // P2 to the right of the long edge from P1 to P3. Comparing the inverse slopes of the two
+        // edges leaving P1 instead gets flat topped triangles wrong, which then draw nothing
+        if (determinant > 0) {
+            for (int y = startY; y <= endY; y++) {
                 data.currentY = y;
                 if (y < p2.y) {
                     data.ndotla = nl1;
@@ -253,7 +1949,7 @@ public class Device {
                     data.vc = v1.textureCoordinates.y;
                     data.vd = v2.textureCoordinates.y;
 
-                    processScanLine(data, v1, v3, v1, v2, color, texture);
+                    processScanLine(data, v1, v3, v1, v2, texture);
                 } else {
                     data.ndotla = nl1;
                     data.ndotlb = nl3;
@@ -270,11 +1966,11 @@ public class Device {
                     data.vc = v2.textureCoordinates.y;
                     data.vd = v3.textureCoordinates.y;
 
-                    processScanLine(data, v1, v3, v2, v3, color, texture);
+                    processScanLine(data, v1, v3, v2, v3, texture);
                 }
             }
         } else {
-            for (int y = (int) p1.y; y <= (int) p3.y; y++) {
+            for (int y = startY; y <= endY; y++) {
                 data.currentY = y;
                 if (y < p2.y) {
                     data.ndotla = nl1;
@@ -292,7 +1988,7 @@ public class Device {
                     data.vc = v1.textureCoordinates.y;
                     data.vd = v3.textureCoordinates.y;
 
-                    processScanLine(data, v1, v2, v1, v3, color, texture);
+                    processScanLine(data, v1, v2, v1, v3, texture);
                 } else {
                     data.ndotla = nl2;
                     data.ndotlb = nl3;
@@ -309,7 +2005,248 @@ public class Device {
                     data.vc = v1.textureCoordinates.y;
                     data.vd = v3.textureCoordinates.y;
 
-                    processScanLine(data, v2, v3, v1, v3, color, texture);
+                    processScanLine(data, v2, v3, v1, v3, texture);
+                }
+            }
+        }
+    }
+
+    protected void rasterizeTriangleEdges(Triangle triangle, ScanLineData data, int clipMinX, int clipMinY, int clipMaxX, int clipMaxY) {
+        Vertex v1 = triangle.v1;
+        Vertex v2 = triangle.v2;
+        Vertex v3 = triangle.v3;
+
+        if (!(Math.abs(v1.coordinates.x) < EDGE_FUNCTION_RANGE && Math.abs(v1.coordinates.y) < EDGE_FUNCTION_RANGE
+                && Math.abs(v2.coordinates.x) < EDGE_FUNCTION_RANGE && Math.abs(v2.coordinates.y) < EDGE_FUNCTION_RANGE
+                && Math.abs(v3.coordinates.x) < EDGE_FUNCTION_RANGE && Math.abs(v3.coordinates.y) < EDGE_FUNCTION_RANGE)) {
+            this.rasterizeTriangle(triangle, data, clipMinX, clipMinY, clipMaxX, clipMaxY);
+            return;
+        }
+
+        // Snapping the vertices to the sub-pixel grid
+        long x1 = Math.round(v1.coordinates.x * SUB_PIXEL_SCALE);
+        long y1 = Math.round(v1.coordinates.y * SUB_PIXEL_SCALE);
+        long x2 = Math.round(v2.coordinates.x * SUB_PIXEL_SCALE);
+        long y2 = Math.round(v2.coordinates.y * SUB_PIXEL_SCALE);
+        long x3 = Math.round(v3.coordinates.x * SUB_PIXEL_SCALE);
+        long y3 = Math.round(v3.coordinates.y * SUB_PIXEL_SCALE);
+
+        long area = (x2 - x1) * (y3 - y1) - (y2 - y1) * (x3 - x1);
+        if (area == 0) {
+            return;
+        }
+
+        // Per vertex attributes, pre-divided by w for perspective-correct interpolation
+        double w1 = v1.inverseW;
+        double w2 = v2.inverseW;
+        double w3 = v3.inverseW;
+        double z1 = v1.coordinates.z;
+        double z2 = v2.coordinates.z;
+        double z3 = v3.coordinates.z;
+        double nl1 = triangle.nl1 * w1;
+        double nl2 = triangle.nl2 * w2;
+        double nl3 = triangle.nl3 * w3;
+        double u1 = v1.textureCoordinates.x * w1;
+        double u2 = v2.textureCoordinates.x * w2;
+        double u3 = v3.textureCoordinates.x * w3;
+        double tv1 = v1.textureCoordinates.y * w1;
+        double tv2 = v2.textureCoordinates.y * w2;
+        double tv3 = v3.textureCoordinates.y * w3;
+
+        // Counter-clockwise triangles are flipped so that the inside of every edge is positive
+        boolean flipped = area < 0;
+        if (flipped) {
+            long tx = x2;
+            long ty = y2;
+            x2 = x3;
+            y2 = y3;
+            x3 = tx;
+            y3 = ty;
+            double t = w2;
+            w2 = w3;
+            w3 = t;
+            t = z2;
+            z2 = z3;
+            z3 = t;
+            t = nl2;
+            nl2 = nl3;
+            nl3 = t;
+            t = u2;
+            u2 = u3;
+            u3 = t;
+            t = tv2;
+            tv2 = tv3;
+            tv3 = t;
+            area = -area;
+        }
+
+        int minX = Math.max(clipMinX, (int) (Math.min(x1, Math.min(x2, x3)) >> SUB_PIXEL_BITS));
+        int minY = Math.max(clipMinY, (int) (Math.min(y1, Math.min(y2, y3)) >> SUB_PIXEL_BITS));
+        int maxX = Math.min(clipMaxX - 1, (int) (Math.max(x1, Math.max(x2, x3)) >> SUB_PIXEL_BITS));
+        int maxY = Math.min(clipMaxY - 1, (int) (Math.max(y1, Math.max(y2, y3)) >> SUB_PIXEL_BITS));
+        if (minX > maxX || minY > maxY) {
+            return;
+        }
+
+        // Edge function steps, edge 1 is opposite to vertex 1 (v2 -> v3) and so on
+        long dx1 = x3 - x2, dy1 = y3 - y2;
+        long dx2 = x1 - x3, dy2 = y1 - y3;
+        long dx3 = x2 - x1, dy3 = y2 - y1;
+
+        // Top-left fill rule: pixel centers exactly on an edge belong to top and left edges only
+        long bias1 = dy1 < 0 || (dy1 == 0 && dx1 > 0) ? 0 : -1;
+        long bias2 = dy2 < 0 || (dy2 == 0 && dx2 > 0) ? 0 : -1;
+        long bias3 = dy3 < 0 || (dy3 == 0 && dx3 > 0) ? 0 : -1;
+
+        long stepX1 = -dy1 * SUB_PIXEL_SCALE, stepY1 = dx1 * SUB_PIXEL_SCALE;
+        long stepX2 = -dy2 * SUB_PIXEL_SCALE, stepY2 = dx2 * SUB_PIXEL_SCALE;
+        long stepX3 = -dy3 * SUB_PIXEL_SCALE, stepY3 = dx3 * SUB_PIXEL_SCALE;
+
+        // Edge functions at the center of pixel (minX, minY)
+        long px = ((long) minX << SUB_PIXEL_BITS) + SUB_PIXEL_SCALE / 2;
+        long py = ((long) minY << SUB_PIXEL_BITS) + SUB_PIXEL_SCALE / 2;
+        long origin1 = dx1 * (py - y2) - dy1 * (px - x2) + bias1;
+        long origin2 = dx2 * (py - y3) - dy2 * (px - x3) + bias2;
+        long origin3 = dx3 * (py - y1) - dy3 * (px - x1) + bias3;
+
+        double invArea = 1.0 / area;
+        double dz2 = z2 - z1;
+        double dz3 = z3 - z1;
+        Texture texture = triangle.texture;
+        data.colorR = triangle.colorR;
+        data.colorG = triangle.colorG;
+        data.colorB = triangle.colorB;
+        int[] buffer = this.buffer;
+
+        // Per pixel gradients of 1/w and of u/w, v/w, used to pick a mip level for every block
+        boolean depthOnly = data.depthOnly;
+        boolean deferred = this.visibilityBuffer != null;
+        boolean mipmapped = texture != null && this.mipmapping && !deferred;
+        boolean bilinear = this.textureFilter == TextureFilter.BILINEAR;
+        double qdx = (stepX1 * w1 + stepX2 * w2 + stepX3 * w3) * invArea;
+        double qdy = (stepY1 * w1 + stepY2 * w2 + stepY3 * w3) * invArea;
+        double udx = (stepX1 * u1 + stepX2 * u2 + stepX3 * u3) * invArea;
+        double udy = (stepY1 * u1 + stepY2 * u2 + stepY3 * u3) * invArea;
+        double vdx = (stepX1 * tv1 + stepX2 * tv2 + stepX3 * tv3) * invArea;
+        double vdy = (stepY1 * tv1 + stepY2 * tv2 + stepY3 * tv3) * invArea;
+
+        for (int blockY = minY & ~(BLOCK_SIZE - 1); blockY <= maxY; blockY += BLOCK_SIZE) {
+            int y0 = Math.max(blockY, minY);
+            int yEnd = Math.min(blockY + BLOCK_SIZE - 1, maxY);
+
+            for (int blockX = minX & ~(BLOCK_SIZE - 1); blockX <= maxX; blockX += BLOCK_SIZE) {
+                int x0 = Math.max(blockX, minX);
+                int xEnd = Math.min(blockX + BLOCK_SIZE - 1, maxX);
+
+                long e1 = origin1 + (x0 - minX) * stepX1 + (y0 - minY) * stepY1;
+                long e2 = origin2 + (x0 - minX) * stepX2 + (y0 - minY) * stepY2;
+                long e3 = origin3 + (x0 - minX) * stepX3 + (y0 - minY) * stepY3;
+
+                // Edge functions are linear, so their extremes over the block are at its corners
+                long spanX1 = (xEnd - x0) * stepX1, spanY1 = (yEnd - y0) * stepY1;
+                long spanX2 = (xEnd - x0) * stepX2, spanY2 = (yEnd - y0) * stepY2;
+                long spanX3 = (xEnd - x0) * stepX3, spanY3 = (yEnd - y0) * stepY3;
+                long max1 = e1 + Math.max(spanX1, 0) + Math.max(spanY1, 0);
+                long max2 = e2 + Math.max(spanX2, 0) + Math.max(spanY2, 0);
+                long max3 = e3 + Math.max(spanX3, 0) + Math.max(spanY3, 0);
+                if (max1 < 0 || max2 < 0 || max3 < 0) {
+                    continue;
+                }
+                long min1 = e1 + Math.min(spanX1, 0) + Math.min(spanY1, 0);
+                long min2 = e2 + Math.min(spanX2, 0) + Math.min(spanY2, 0);
+                long min3 = e3 + Math.min(spanX3, 0) + Math.min(spanY3, 0);
+                boolean covered = (min1 | min2 | min3) >= 0;
+
+                // Depth is linear over the block too, so its nearest point is also at a corner
+                int depthTile = (blockX / DEPTH_TILE_SIZE) + (blockY / DEPTH_TILE_SIZE) * this.depthTilesX;
+                double zStepX = (stepX2 * dz2 + stepX3 * dz3) * invArea;
+                if (this.hierarchicalDepth) {
+                    double corner = z1 + ((e2 - bias2) * dz2 + (e3 - bias3) * dz3) * invArea;
+                    double zSpanY = (spanY2 * dz2 + spanY3 * dz3) * invArea;
+                    double zSpanX = zStepX * (xEnd - x0);
+                    if (this.isDepthTileOccluded(depthTile, corner + Math.min(0, zSpanX) + Math.min(0, zSpanY),
+                            corner + Math.max(0, zSpanX) + Math.max(0, zSpanY))) {
+                        continue;
+                    }
+                }
+
+                // Texture coordinate derivatives at the block center, taken from the unclipped
+                // block so that tiles rasterized separately pick the same level
+                int level = 0;
+                if (mipmapped) {
+                    int centerX = blockX + BLOCK_SIZE / 2 - minX;
+                    int centerY = blockY + BLOCK_SIZE / 2 - minY;
+                    double b1 = (origin1 - bias1 + centerX * stepX1 + centerY * stepY1) * invArea;
+                    double b2 = (origin2 - bias2 + centerX * stepX2 + centerY * stepY2) * invArea;
+                    double b3 = (origin3 - bias3 + centerX * stepX3 + centerY * stepY3) * invArea;
+                    double q = b1 * w1 + b2 * w2 + b3 * w3;
+                    if (q > 0) {
+                        double tu = b1 * u1 + b2 * u2 + b3 * u3;
+                        double tv = b1 * tv1 + b2 * tv2 + b3 * tv3;
+                        double q2 = q * q;
+                        level = texture.selectLevel((udx * q - tu * qdx) / q2, (vdx * q - tv * qdx) / q2,
+                                (udy * q - tu * qdy) / q2, (vdy * q - tv * qdy) / q2);
+                    }
+                }
+
+                int count = xEnd - x0 + 1;
+                for (int y = y0; y <= yEnd; y++) {
+                    int index = y * this.width + x0;
+
+                    // Coverage of the row, then its depth test, then shading of what passed
+                    int coverage = -1;
+                    if (!covered) {
+                        coverage = 0;
+                        long c1 = e1, c2 = e2, c3 = e3;
+                        for (int i = 0; i < count; i++, c1 += stepX1, c2 += stepX2, c3 += stepX3) {
+                            coverage |= (c1 | c2 | c3) >= 0 ? 1 << i : 0;
+                        }
+                    }
+
+                    // Relative to the first vertex, projected depths are very close together
+                    double z = z1 + ((e2 - bias2) * dz2 + (e3 - bias3) * dz3) * invArea;
+                    int passed = coverage != 0 ? this.testDepth(index, count, coverage, z, zStepX, depthTile) : 0;
+                    data.depthTestFailureCount += Integer.bitCount(coverage & ((1 << count) - 1)) - Integer.bitCount(passed);
+
+                    if (passed != 0 && deferred && !depthOnly) {
+                        long c2 = e2, c3 = e3;
+                        for (int i = 0; i < count; i++, index++, c2 += stepX2, c3 += stepX3) {
+                            if ((passed & (1 << i)) != 0) {
+                                double b2 = (c2 - bias2) * invArea;
+                                double b3 = (c3 - bias3) * invArea;
+                                this.storeVisibility(index, triangle, flipped ? b3 : b2, flipped ? b2 : b3);
+                            }
+                        }
+                    } else if (passed != 0 && !depthOnly) {
+                        data.shadedPixelCount += Integer.bitCount(passed);
+                        long c1 = e1, c2 = e2, c3 = e3;
+                        for (int i = 0; i < count; i++, index++, c1 += stepX1, c2 += stepX2, c3 += stepX3) {
+                            if ((passed & (1 << i)) == 0) {
+                                continue;
+                            }
+
+                            // Barycentric weights of the three vertices, without the fill rule bias
+                            // so that they sum up to exactly one
+                            double b2 = (c2 - bias2) * invArea;
+                            double b3 = (c3 - bias3) * invArea;
+                            double b1 = (c1 - bias1) * invArea;
+
+                            double w = 1.0 / (b1 * w1 + b2 * w2 + b3 * w3);
+                            double nl = (b1 * nl1 + b2 * nl2 + b3 * nl3) * w;
+
+                            int texel = 0xFFFFFFFF;
+                            if (texture != null) {
+                                double tu = (b1 * u1 + b2 * u2 + b3 * u3) * w;
+                                double tv = (b1 * tv1 + b2 * tv2 + b3 * tv3) * w;
+                                texel = bilinear ? texture.sampleBilinear(level, tu, tv) : texture.sample(level, tu, tv);
+                            }
+                            buffer[index] = this.shade(texel, Math.max(0, Math.min(256, (int) (nl * 256))), data);
+                        }
+                    }
+
+                    e1 += stepY1;
+                    e2 += stepY2;
+                    e3 += stepY3;
                 }
             }
         }
@@ -329,10 +2266,65 @@ public class Device {
         return a | r | g | b;
     }
 
+    protected class TileRasterTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        // Runs the deferred shading pass instead of rasterizing
+        private final boolean shading;
+
+        protected TileRasterTask(int from, int to) {
+            this(from, to, false);
+        }
+
+        protected TileRasterTask(int from, int to, boolean shading) {
+            this.from = from;
+            this.to = to;
+            this.shading = shading;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1) {
+                if (this.shading) {
+                    shadeTile(this.from);
+                } else {
+                    rasterizeTile(this.from);
+                }
+                return;
+            }
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(new TileRasterTask(this.from, middle, this.shading), new TileRasterTask(middle, this.to, this.shading));
+        }
+    }
+
+    protected static class Triangle {
+        // Position in the frame's triangle pool, deferred shading refers to triangles by it
+        public int index;
+        public Vertex v1, v2, v3;
+        public float nl1, nl2, nl3;
+        public int colorR, colorG, colorB;
+        public Texture texture;
+        public boolean depthOnly;
+    }
+
     protected static class ScanLineData {
         public int currentY;
+        public int clipMinX, clipMaxX;
+        public int colorR, colorG, colorB;
         public float ndotla, ndotlb, ndotlc, ndotld;
         public double ua, ub, uc, ud;
         public double va, vb, vc, vd;
+        public double dudy, dvdy;
+        public boolean depthOnly;
+        // Deferred shading: the triangle being rasterized and the screen space weights of its
+        // second and third vertices at the center of pixel (0, 0) and their steps along x and y
+        public Triangle triangle;
+        public double b2Origin, b2dx, b2dy;
+        public double b3Origin, b3dx, b3dy;
+        // Rasterizer statistics, every tile counts separately and they are summed after the frame
+        public int rasterizedTriangleCount;
+        public long shadedPixelCount, depthTestFailureCount;
     }
 }
@@ -0,0 +1,90 @@
+package info.bahaa.softengine3d.engine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event carrying the {@link FrameStatistics} of every frame recorded by a
+ * {@link FrameProfiler}.
+ */
+@Name("info.bahaa.softengine3d.Frame")
+@Label("Frame")
+@Category("SoftEngine 3D")
+@Description("Stage timings and counters of a rendered frame")
+@StackTrace(false)
+class FrameEvent extends jdk.jfr.Event {
+
+    @Label("Frame Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long frameTime;
+
+    @Label("Clear")
+    @Timespan(Timespan.NANOSECONDS)
+    long clear;
+
+    @Label("Vertex Transform")
+    @Timespan(Timespan.NANOSECONDS)
+    long transform;
+
+    @Label("Culling")
+    @Timespan(Timespan.NANOSECONDS)
+    long culling;
+
+    @Label("Rasterization")
+    @Timespan(Timespan.NANOSECONDS)
+    long rasterization;
+
+    @Label("Deferred Shading")
+    @Timespan(Timespan.NANOSECONDS)
+    long shading;
+
+    @Label("Presentation")
+    @Timespan(Timespan.NANOSECONDS)
+    long presentation;
+
+    @Label("Culled Meshes")
+    int culledMeshes;
+
+    @Label("Culled Faces")
+    int culledFaces;
+
+    @Label("Back Faces")
+    int backFaces;
+
+    @Label("Submitted Triangles")
+    int submittedTriangles;
+
+    @Label("Rasterized Triangles")
+    int rasterizedTriangles;
+
+    @Label("Shaded Pixels")
+    long shadedPixels;
+
+    @Label("Depth Test Failures")
+    long depthTestFailures;
+
+    @Label("Overdraw")
+    double overdraw;
+
+    void set(FrameStatistics statistics) {
+        this.frameTime = statistics.getFrameNanos();
+        this.clear = statistics.clearNanos;
+        this.transform = statistics.transformNanos;
+        this.culling = statistics.cullingNanos;
+        this.rasterization = statistics.rasterizationNanos;
+        this.shading = statistics.shadingNanos;
+        this.presentation = statistics.presentationNanos;
+        this.culledMeshes = statistics.culledMeshCount;
+        this.culledFaces = statistics.culledFaceCount;
+        this.backFaces = statistics.backFaceCount;
+        this.submittedTriangles = statistics.submittedTriangleCount;
+        this.rasterizedTriangles = statistics.rasterizedTriangleCount;
+        this.shadedPixels = statistics.shadedPixelCount;
+        this.depthTestFailures = statistics.depthTestFailureCount;
+        this.overdraw = statistics.getOverdrawRatio();
+    }
+}
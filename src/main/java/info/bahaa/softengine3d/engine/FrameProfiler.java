@@ -0,0 +1,80 @@
+package info.bahaa.softengine3d.engine;
+
+import jdk.jfr.EventType;
+
+import java.util.Arrays;
+
+/**
+ * Collects the {@link FrameStatistics} of presented frames. Every frame is emitted as a
+ * {@link FrameEvent} when flight recording is on, and its frame time is kept in a rolling window
+ * of the most recent frames to report percentiles from.
+ */
+public class FrameProfiler {
+
+    public static final int DEFAULT_WINDOW = 256;
+
+    private static final EventType FRAME_EVENT_TYPE = EventType.getEventType(FrameEvent.class);
+
+    private final long[] frameNanos;
+    private final long[] sortedNanos;
+    private int frameCount;
+    private int next;
+
+    public FrameProfiler() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public FrameProfiler(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be at least 1");
+        }
+        this.frameNanos = new long[window];
+        this.sortedNanos = new long[window];
+    }
+
+    public synchronized void record(FrameStatistics statistics) {
+        this.frameNanos[this.next] = statistics.getFrameNanos();
+        this.next = (this.next + 1) % this.frameNanos.length;
+        this.frameCount++;
+
+        // Only allocate the event while a recording asks for it
+        if (FRAME_EVENT_TYPE.isEnabled()) {
+            FrameEvent event = new FrameEvent();
+            event.set(statistics);
+            event.commit();
+        }
+    }
+
+    /**
+     * Frames recorded so far, including the ones no longer in the window.
+     */
+    public synchronized int getFrameCount() {
+        return this.frameCount;
+    }
+
+    /**
+     * The frame time below which the given percentage of the frames in the window fall, using the
+     * nearest rank. Zero before any frame is recorded.
+     */
+    public synchronized long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        int count = Math.min(this.frameCount, this.frameNanos.length);
+        if (count == 0) {
+            return 0;
+        }
+        System.arraycopy(this.frameNanos, 0, this.sortedNanos, 0, count);
+        Arrays.sort(this.sortedNanos, 0, count);
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return this.sortedNanos[Math.max(0, rank - 1)];
+    }
+
+    public long getMedianNanos() {
+        return this.getPercentileNanos(50);
+    }
+
+    public long get99thPercentileNanos() {
+        return this.getPercentileNanos(99);
+    }
+}
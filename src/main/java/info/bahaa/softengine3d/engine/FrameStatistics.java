@@ -0,0 +1,174 @@
+package info.bahaa.softengine3d.engine;
+
+/**
+ * Stage timings and counters of one frame, from {@link Device#clear()} to the end of
+ * {@link Device#render}. Presentation happens outside the device, whoever presents the frame
+ * reports its time with {@link #setPresentationNanos(long)}.
+ * <p>
+ * The per mesh and per face counters describe the main pass only, the depth pre-pass repeats the
+ * same geometry work. The rasterizer counters include both passes.
+ */
+public class FrameStatistics {
+
+    long clearNanos;
+    long transformNanos;
+    long cullingNanos;
+    long rasterizationNanos;
+    long shadingNanos;
+    long presentationNanos;
+
+    int culledMeshCount;
+    int culledFaceCount;
+    int backFaceCount;
+    int submittedTriangleCount;
+    int rasterizedTriangleCount;
+    long shadedPixelCount;
+    long depthTestFailureCount;
+    long coveredPixelCount;
+
+    void reset() {
+        this.clearNanos = 0;
+        this.transformNanos = 0;
+        this.cullingNanos = 0;
+        this.rasterizationNanos = 0;
+        this.shadingNanos = 0;
+        this.presentationNanos = 0;
+        this.culledMeshCount = 0;
+        this.culledFaceCount = 0;
+        this.backFaceCount = 0;
+        this.submittedTriangleCount = 0;
+        this.rasterizedTriangleCount = 0;
+        this.shadedPixelCount = 0;
+        this.depthTestFailureCount = 0;
+        this.coveredPixelCount = 0;
+    }
+
+    public void set(FrameStatistics statistics) {
+        this.clearNanos = statistics.clearNanos;
+        this.transformNanos = statistics.transformNanos;
+        this.cullingNanos = statistics.cullingNanos;
+        this.rasterizationNanos = statistics.rasterizationNanos;
+        this.shadingNanos = statistics.shadingNanos;
+        this.presentationNanos = statistics.presentationNanos;
+        this.culledMeshCount = statistics.culledMeshCount;
+        this.culledFaceCount = statistics.culledFaceCount;
+        this.backFaceCount = statistics.backFaceCount;
+        this.submittedTriangleCount = statistics.submittedTriangleCount;
+        this.rasterizedTriangleCount = statistics.rasterizedTriangleCount;
+        this.shadedPixelCount = statistics.shadedPixelCount;
+        this.depthTestFailureCount = statistics.depthTestFailureCount;
+        this.coveredPixelCount = statistics.coveredPixelCount;
+    }
+
+    public long getClearNanos() {
+        return this.clearNanos;
+    }
+
+    /**
+     * Time spent transforming and projecting vertices.
+     */
+    public long getTransformNanos() {
+        return this.transformNanos;
+    }
+
+    /**
+     * Time spent culling meshes and faces, clipping and setting up triangles for rasterization.
+     */
+    public long getCullingNanos() {
+        return this.cullingNanos;
+    }
+
+    public long getRasterizationNanos() {
+        return this.rasterizationNanos;
+    }
+
+    /**
+     * Time spent in the deferred shading pass, zero with {@link ShadingMode#FORWARD} where pixels
+     * are shaded while rasterizing.
+     */
+    public long getShadingNanos() {
+        return this.shadingNanos;
+    }
+
+    public long getPresentationNanos() {
+        return this.presentationNanos;
+    }
+
+    public void setPresentationNanos(long presentationNanos) {
+        this.presentationNanos = presentationNanos;
+    }
+
+    /**
+     * Sum of all the stage timings.
+     */
+    public long getFrameNanos() {
+        return this.clearNanos + this.transformNanos + this.cullingNanos + this.rasterizationNanos + this.shadingNanos
+                + this.presentationNanos;
+    }
+
+    public int getCulledMeshCount() {
+        return this.culledMeshCount;
+    }
+
+    /**
+     * Faces outside the view frustum, including the faces of culled meshes.
+     */
+    public int getCulledFaceCount() {
+        return this.culledFaceCount;
+    }
+
+    public int getBackFaceCount() {
+        return this.backFaceCount;
+    }
+
+    /**
+     * Triangles handed to the rasterizers, clipped faces count once per triangle of their fan.
+     */
+    public int getSubmittedTriangleCount() {
+        return this.submittedTriangleCount;
+    }
+
+    /**
+     * Triangles that reached a rasterizer without being rejected by the hierarchical depth buffer.
+     * With more than one thread a triangle counts once for every tile it is rasterized in.
+     */
+    public int getRasterizedTriangleCount() {
+        return this.rasterizedTriangleCount;
+    }
+
+    public long getShadedPixelCount() {
+        return this.shadedPixelCount;
+    }
+
+    /**
+     * Pixels failing the per pixel depth test. Pixels rejected as a whole span or block by the
+     * hierarchical depth buffer are never tested, so they are not counted.
+     */
+    public long getDepthTestFailureCount() {
+        return this.depthTestFailureCount;
+    }
+
+    /**
+     * Pixels with anything drawn in them.
+     */
+    public long getCoveredPixelCount() {
+        return this.coveredPixelCount;
+    }
+
+    /**
+     * Shaded pixels per covered pixel, one when every visible pixel is shaded exactly once.
+     */
+    public double getOverdrawRatio() {
+        return this.coveredPixelCount == 0 ? 0.0 : (double) this.shadedPixelCount / this.coveredPixelCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FrameStatistics{clear=%dns, transform=%dns, culling=%dns, rasterization=%dns, shading=%dns, presentation=%dns, "
+                        + "culledMeshes=%d, culledFaces=%d, backFaces=%d, submitted=%d, rasterized=%d, shaded=%d, "
+                        + "depthFailures=%d, overdraw=%.2f}",
+                clearNanos, transformNanos, cullingNanos, rasterizationNanos, shadingNanos, presentationNanos, culledMeshCount,
+                culledFaceCount, backFaceCount, submittedTriangleCount, rasterizedTriangleCount, shadedPixelCount,
+                depthTestFailureCount, getOverdrawRatio());
+    }
+}
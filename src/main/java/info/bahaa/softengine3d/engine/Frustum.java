@@ -0,0 +1,108 @@
+package info.bahaa.softengine3d.engine;
+
+import info.bahaa.softengine3d.math.Mat4;
+
+/**
+ * Clipping planes of a model to screen transform, extracted from the matrix itself, so they are
+ * expressed in the model space of whatever the matrix transforms. With the row vector convention
+ * used by {@link Mat4} every plane is a combination of the
+ * matrix columns.
+ * <p>
+ * {@link Device} maps x and y from -0.5..0.5 to the viewport, so the side planes are at half of w.
+ * The engine does not clip against the far plane, geometry past it is still drawn, so only the
+ * near and the four side planes are kept.
+ */
+public class Frustum {
+
+    public static final int OUTSIDE = 0;
+    public static final int INTERSECTING = 1;
+    public static final int INSIDE = 2;
+
+    private static final int PLANES = 5;
+
+    // a, b, c, d per plane, normalized so that a * x + b * y + c * z + d is a distance
+    private final double[] planes = new double[PLANES * 4];
+
+    public Frustum set(Mat4 transform) {
+        // Left, right, bottom, top: w / 2 +- x or y
+        this.setPlane(0, transform.m03 * 0.5 + transform.m00, transform.m13 * 0.5 + transform.m10,
+                transform.m23 * 0.5 + transform.m20, transform.m33 * 0.5 + transform.m30);
+        this.setPlane(1, transform.m03 * 0.5 - transform.m00, transform.m13 * 0.5 - transform.m10,
+                transform.m23 * 0.5 - transform.m20, transform.m33 * 0.5 - transform.m30);
+        this.setPlane(2, transform.m03 * 0.5 + transform.m01, transform.m13 * 0.5 + transform.m11,
+                transform.m23 * 0.5 + transform.m21, transform.m33 * 0.5 + transform.m31);
+        this.setPlane(3, transform.m03 * 0.5 - transform.m01, transform.m13 * 0.5 - transform.m11,
+                transform.m23 * 0.5 - transform.m21, transform.m33 * 0.5 - transform.m31);
+        // Near: z >= 0
+        this.setPlane(4, transform.m02, transform.m12, transform.m22, transform.m32);
+        return this;
+    }
+
+    /**
+     * Tests the bounding sphere first and falls back to the box when the sphere straddles a plane.
+     *
+     * @return {@link #OUTSIDE}, {@link #INTERSECTING} or {@link #INSIDE}
+     */
+    public int classify(Bounds bounds) {
+        boolean straddling = false;
+        for (int i = 0; i < PLANES * 4; i += 4) {
+            double distance = this.planes[i] * bounds.centerX + this.planes[i + 1] * bounds.centerY
+                    + this.planes[i + 2] * bounds.centerZ + this.planes[i + 3];
+            if (distance < -bounds.radius) {
+                return OUTSIDE;
+            }
+            if (distance < bounds.radius) {
+                straddling = true;
+            }
+        }
+        if (!straddling) {
+            return INSIDE;
+        }
+        return this.classify(bounds.minX, bounds.minY, bounds.minZ, bounds.maxX, bounds.maxY, bounds.maxZ);
+    }
+
+    /**
+     * Tests a box given as six consecutive values of {@code boxes} from {@code offset}: min x, y, z
+     * and max x, y, z.
+     */
+    public int classify(double[] boxes, int offset) {
+        return this.classify(boxes[offset], boxes[offset + 1], boxes[offset + 2], boxes[offset + 3], boxes[offset + 4],
+                boxes[offset + 5]);
+    }
+
+    public int classify(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        int result = INSIDE;
+        for (int i = 0; i < PLANES * 4; i += 4) {
+            double a = this.planes[i];
+            double b = this.planes[i + 1];
+            double c = this.planes[i + 2];
+            double d = this.planes[i + 3];
+
+            // The box corners furthest along and against the plane normal
+            double positive = a * (a >= 0 ? maxX : minX) + b * (b >= 0 ? maxY : minY) + c * (c >= 0 ? maxZ : minZ) + d;
+            if (positive < 0) {
+                return OUTSIDE;
+            }
+            double negative = a * (a >= 0 ? minX : maxX) + b * (b >= 0 ? minY : maxY) + c * (c >= 0 ? minZ : maxZ) + d;
+            if (negative < 0) {
+                result = INTERSECTING;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Signed distance of a point in front of the near plane, for ordering things front to back.
+     */
+    double depth(double x, double y, double z) {
+        return this.planes[16] * x + this.planes[17] * y + this.planes[18] * z + this.planes[19];
+    }
+
+    private void setPlane(int plane, double a, double b, double c, double d) {
+        double norm = 1.0 / Math.sqrt(a * a + b * b + c * c);
+        this.planes[plane * 4] = a * norm;
+        this.planes[plane * 4 + 1] = b * norm;
+        this.planes[plane * 4 + 2] = c * norm;
+        this.planes[plane * 4 + 3] = d * norm;
+    }
+}
@@ -0,0 +1,62 @@
+package info.bahaa.softengine3d.engine;
+
+import info.bahaa.softengine3d.math.Mat4;
+
+import java.util.Arrays;
+
+/**
+ * Copies of one mesh, each placed by its own world matrix instead of the mesh's. The copies share
+ * the mesh's geometry, levels of detail and texture, so a copy costs one matrix of memory. Pass
+ * them to {@link Device#render(Camera, java.util.List, java.util.List)} to draw them in the same
+ * frame as other meshes.
+ */
+public class InstancedMesh {
+
+    private final Mesh mesh;
+    private Mat4[] worldMatrices;
+    private int count;
+    // The level of detail every copy was last drawn at, for the hysteresis to work per copy
+    private int[] levelsOfDetail = new int[0];
+
+    public InstancedMesh(Mesh mesh, Mat4[] worldMatrices) {
+        this(mesh, worldMatrices, worldMatrices.length);
+    }
+
+    public InstancedMesh(Mesh mesh, Mat4[] worldMatrices, int count) {
+        this.mesh = mesh;
+        this.setWorldMatrices(worldMatrices, count);
+    }
+
+    public Mesh getMesh() {
+        return this.mesh;
+    }
+
+    /**
+     * The world matrices themselves, changes to them move the copies.
+     */
+    public Mat4[] getWorldMatrices() {
+        return this.worldMatrices;
+    }
+
+    /**
+     * Draws one copy for each of the first {@code count} matrices of the array.
+     */
+    public void setWorldMatrices(Mat4[] worldMatrices, int count) {
+        if (count < 0 || count > worldMatrices.length) {
+            throw new IllegalArgumentException("count must be between 0 and the number of world matrices");
+        }
+        this.worldMatrices = worldMatrices;
+        this.count = count;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    int[] getLevelsOfDetail() {
+        if (this.levelsOfDetail.length < this.count) {
+            this.levelsOfDetail = Arrays.copyOf(this.levelsOfDetail, this.count);
+        }
+        return this.levelsOfDetail;
+    }
+}
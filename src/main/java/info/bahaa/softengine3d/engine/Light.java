@@ -0,0 +1,85 @@
+package info.bahaa.softengine3d.engine;
+
+import info.bahaa.softengine3d.math.Vec3;
+
+/**
+ * A light of the {@link Device}, in world space. Point lights with a finite range fade out to
+ * nothing at it, which lets the device skip them for meshes entirely out of reach.
+ */
+public class Light {
+
+    private final LightType type;
+    private final Vec3 position = new Vec3();
+    private final Vec3 direction = new Vec3(0.f, 0.f, 1.f);
+    private float intensity = 1.f;
+    private double range = Double.POSITIVE_INFINITY;
+
+    public Light(LightType type) {
+        this.type = type;
+    }
+
+    public static Light point(float x, float y, float z) {
+        Light light = new Light(LightType.POINT);
+        light.setPosition(x, y, z);
+        return light;
+    }
+
+    public static Light directional(float x, float y, float z) {
+        Light light = new Light(LightType.DIRECTIONAL);
+        light.setDirection(x, y, z);
+        return light;
+    }
+
+    public LightType getType() {
+        return this.type;
+    }
+
+    /**
+     * The position itself, changes to it move the light. Only used by point lights.
+     */
+    public Vec3 getPosition() {
+        return this.position;
+    }
+
+    public void setPosition(float x, float y, float z) {
+        this.position.set(x, y, z);
+    }
+
+    /**
+     * The direction the light travels in, not necessarily normalized. Only used by directional
+     * lights.
+     */
+    public Vec3 getDirection() {
+        return this.direction;
+    }
+
+    public void setDirection(float x, float y, float z) {
+        this.direction.set(x, y, z);
+    }
+
+    public float getIntensity() {
+        return this.intensity;
+    }
+
+    /**
+     * Scales the light, the sum of all the lights on a vertex is capped at full brightness.
+     */
+    public void setIntensity(float intensity) {
+        this.intensity = intensity;
+    }
+
+    public double getRange() {
+        return this.range;
+    }
+
+    /**
+     * Distance at which a point light has faded out completely, infinite by default for a light
+     * that does not fade.
+     */
+    public void setRange(double range) {
+        if (!(range > 0)) {
+            throw new IllegalArgumentException("range must be positive");
+        }
+        this.range = range;
+    }
+}
@@ -0,0 +1,15 @@
+package info.bahaa.softengine3d.engine;
+
+/**
+ * How a {@link Light} reaches the surfaces it lights.
+ */
+public enum LightType {
+    /**
+     * Shines in all directions from a position, optionally fading out to nothing at its range.
+     */
+    POINT,
+    /**
+     * Shines along one direction everywhere in the world, like a far away sun. Has no range.
+     */
+    DIRECTIONAL
+}
@@ -1,206 +1,312 @@
 package info.bahaa.softengine3d.engine;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import info.bahaa.softengine3d.math.Mat4;
 import info.bahaa.softengine3d.math.VecMathUtils;
 
 import javax.vecmath.Matrix4d;
-import javax.vecmath.Point3d;
-import javax.vecmath.Vector2d;
-import javax.vecmath.Vector3d;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Created by bahaazaid on 3/15/2016.
  */
 public class Mesh {
 
-    private String name;
-    private List<Vertex> vertices = new ArrayList<>();
-    private List<Face> faces = new ArrayList<>();
-    private Texture texture;
-
-    private Matrix4d worldMatrix = new Matrix4d();
-
-    public Mesh(String name) {
-        this.name = name;
-        this.worldMatrix.setIdentity();
-    }
-
-    public static List<Mesh> loadFromJson(InputStream inputStream) throws IOException {
-        JsonParser parser = new JsonParser();
-        JsonObject jsonObject = parser.parse(new InputStreamReader(inputStream)).getAsJsonObject();
+    // Error allowed in the first level of detail, relative to the bounding radius
+    private static final double LEVEL_OF_DETAIL_ERROR = 0.02;
 
-        List<Mesh> meshes = new ArrayList<>();
-        Map<String, Material> materials = new HashMap<>();
+    // How far the rotation rows may drift from unit length and from each other before the world
+    // matrix counts as scaled or sheared on purpose and is left alone
+    private static final double RIGID_TOLERANCE = 1e-6;
 
-        for (JsonElement jsonMaterialElement : jsonObject.getAsJsonArray("materials")) {
-            JsonObject jsonMaterial = jsonMaterialElement.getAsJsonObject();
-            Material material = new Material();
+    private String name;
+    private MeshGeometry geometry;
+    private Texture texture;
+    private boolean occluder;
 
-            material.name = jsonMaterial.get("name").getAsString();
-            material.id = jsonMaterial.get("id").getAsString();
+    private final Bounds bounds = new Bounds();
+    private int boundsModificationCount = -1;
 
-            if (jsonMaterial.get("diffuseTexture") != null) {
-                material.diffuseTextureName = jsonMaterial.get("diffuseTexture").getAsJsonObject().get("name").getAsString();
-            }
+    // Simplified copies of the geometry, each with about half the faces of the one before, and the
+    // level the device last drew
+    private MeshGeometry[] levelsOfDetail = new MeshGeometry[0];
+    private int levelsOfDetailModificationCount;
+    private int levelOfDetail;
 
-            materials.put(material.id, material);
-        }
+    private final Matrix4d worldMatrix = new Matrix4d();
+    // Holds the rotation or translation applied on top of the world matrix
+    private final Matrix4d transform = new Matrix4d();
+    // Single precision copy of the world matrix handed to the device
+    private final Mat4 worldTransform = new Mat4();
 
-        for (JsonElement jsonMeshElement : jsonObject.getAsJsonArray("meshes")) {
-            JsonObject jsonMesh = jsonMeshElement.getAsJsonObject();
-
-            JsonArray verticesArray = jsonMesh.getAsJsonArray("vertices");
-            JsonArray indicesArray = jsonMesh.getAsJsonArray("indices"); // Faces
-
-            int uvCount = jsonMesh.get("uvCount").getAsInt();
-            int verticesStep = 1;
-
-            // Depending of the number of texture's coordinates per vertex
-            // we're jumping in the vertices array  by 6, 8 & 10 windows frame
-            switch (uvCount) {
-                case 0:
-                    verticesStep = 6;
-                    break;
-                case 1:
-                    verticesStep = 8;
-                    break;
-                case 2:
-                    verticesStep = 10;
-                    break;
-            }
-
-            // the number of interesting vertices information for us
-            int verticesCount = verticesArray.size() / verticesStep;
-            // number of faces is logically the size of the array divided by 3 (A, B, C)
-            int facesCount = indicesArray.size() / 3;
-
-            Mesh mesh = new Mesh(jsonMesh.get("name").getAsString());
-
-            // Filling the Vertices array of our mesh first
-            for (int index = 0; index < verticesCount; index++) {
-                double x = verticesArray.get(index * verticesStep).getAsDouble();
-                double y = verticesArray.get(index * verticesStep + 1).getAsDouble();
-                double z = verticesArray.get(index * verticesStep + 2).getAsDouble();
-
-                double nx = verticesArray.get(index * verticesStep + 3).getAsDouble();
-                double ny = verticesArray.get(index * verticesStep + 4).getAsDouble();
-                double nz = verticesArray.get(index * verticesStep + 5).getAsDouble();
-
-                Vector2d texture = null;
-                if (uvCount > 0) {
-                    // Loading the texture coordinates
-                    double u = verticesArray.get(index * verticesStep + 6).getAsDouble();
-                    double v = verticesArray.get(index * verticesStep + 7).getAsDouble();
-                    texture = new Vector2d(u, v);
-                }
-
-                mesh.addVertex(new Vertex(
-                        new Vector3d(x, y, z),
-                        new Vector3d(nx, ny, nz),
-                        null,
-                        texture
-                ));
-            }
+    // The scene holding the mesh, where in it, and whether the scene still has to refit it
+    Scene scene;
+    int sceneIndex;
+    boolean sceneModified;
 
-            // Then filling the Faces array
-            for (int index = 0; index < facesCount; index++) {
-                int a = indicesArray.get(index * 3).getAsInt();
-                int b = indicesArray.get(index * 3 + 1).getAsInt();
-                int c = indicesArray.get(index * 3 + 2).getAsInt();
+    // The copies last drawn by Device.renderInstanced
+    InstancedMesh instancedMesh;
 
-                mesh.addFace(a, b, c);
-            }
-
-            // Getting the position you've set in Blender
-            JsonArray positionArray = jsonMesh.get("position").getAsJsonArray();
-            mesh.worldMatrix.transform(new Point3d(
-                    positionArray.get(0).getAsDouble(),
-                    positionArray.get(1).getAsDouble(),
-                    positionArray.get(2).getAsDouble()
-            ));
-
-            // Loading texure
-            if (uvCount > 0) {
-                // Texture
-                String meshTextureID = jsonMesh.get("materialId").getAsString();
-                String meshTextureName = materials.get(meshTextureID).diffuseTextureName;
-                mesh.texture = new Texture(Mesh.class.getResourceAsStream(String.format("/%s", meshTextureName)), 512, 512);
-            }
+    public Mesh(String name) {
+        this(name, new MeshGeometry());
+    }
 
-            mesh.calculateFaceNormals();
+    public Mesh(String name, MeshGeometry geometry) {
+        this.name = name;
+        this.geometry = geometry;
+        this.worldMatrix.setIdentity();
+    }
 
-            meshes.add(mesh);
-        }
-        return meshes;
+    public static List<Mesh> loadFromJson(InputStream inputStream) throws IOException {
+        return BabylonLoader.load(inputStream);
     }
 
     public Mesh addVertex(Vertex vertex) {
-        this.vertices.add(vertex);
+        if (vertex.textureCoordinates != null) {
+            this.geometry.addVertex(vertex.coordinates.x, vertex.coordinates.y, vertex.coordinates.z,
+                    vertex.normal.x, vertex.normal.y, vertex.normal.z,
+                    vertex.textureCoordinates.x, vertex.textureCoordinates.y);
+        } else {
+            this.geometry.addVertex(vertex.coordinates.x, vertex.coordinates.y, vertex.coordinates.z,
+                    vertex.normal.x, vertex.normal.y, vertex.normal.z);
+        }
+        this.markModified();
         return this;
     }
 
     public Mesh addFace(int a, int b, int c) {
-        return this.addFace(new Face(a, b, c));
+        this.geometry.addFace(a, b, c);
+        this.markModified();
+        return this;
     }
 
     public Mesh addFace(Face face) {
-        this.faces.add(face);
+        int index = this.geometry.addFace(face.a, face.b, face.c);
+        if (face.normal != null) {
+            this.geometry.setFaceNormal(index, face.normal.x, face.normal.y, face.normal.z);
+        }
+        this.markModified();
         return this;
     }
 
     public void calculateFaceNormals() {
-        for (Face face : this.faces) {
-            face.normal = new Vector3d();
-
-            face.normal.add(this.vertices.get(face.a).normal);
-            face.normal.add(this.vertices.get(face.b).normal);
-            face.normal.add(this.vertices.get(face.c).normal);
+        this.geometry.calculateFaceNormals();
+    }
 
-            face.normal.scale(1.0 / 3.0);
-            face.normal.normalize();
+    /**
+     * Tells the scene holding the mesh that it moved or changed shape. The transform methods call
+     * this themselves, it is only needed after changing {@link #getWorldMatrix()} or the vertices of
+     * the {@link #getGeometry() geometry} directly.
+     */
+    public void markModified() {
+        if (this.scene != null) {
+            this.scene.markModified(this);
         }
     }
 
     public void resetTransform() {
         this.worldMatrix.setIdentity();
+        this.markModified();
     }
 
     public void setRotationYawPitchRoll(double yaw, double pitch, double roll) {
-        this.worldMatrix = VecMathUtils.rotationYawPitchRoll(yaw, pitch, roll);
+        VecMathUtils.rotationYawPitchRoll(yaw, pitch, roll, this.worldMatrix);
+        this.markModified();
     }
 
+    /**
+     * Rotates the mesh on top of its current transform. Rounding errors of many small rotations
+     * would slowly scale and shear the mesh, so a world matrix that is still rigid within rounding
+     * has its rotation rows made orthonormal again. Matrices scaled on purpose are left as they are.
+     */
     public void rotateYawPitchRoll(double yaw, double pitch, double roll) {
-        this.worldMatrix.mul(VecMathUtils.rotationYawPitchRoll(yaw, pitch, roll));
+        this.worldMatrix.mul(VecMathUtils.rotationYawPitchRoll(yaw, pitch, roll, this.transform));
+        this.orthonormalize();
+        this.markModified();
     }
 
     public void setTranslation(double x, double y, double z) {
-        this.worldMatrix = VecMathUtils.translation(x, y, z);
+        VecMathUtils.translation(x, y, z, this.worldMatrix);
+        this.markModified();
     }
 
     public void translate(double x, double y, double z) {
-        this.worldMatrix.mul(VecMathUtils.translation(x, y, z));
+        this.worldMatrix.mul(VecMathUtils.translation(x, y, z, this.transform));
+        this.markModified();
+    }
+
+    private void orthonormalize() {
+        Matrix4d m = this.worldMatrix;
+        double xx = m.m00 * m.m00 + m.m01 * m.m01 + m.m02 * m.m02;
+        double yy = m.m10 * m.m10 + m.m11 * m.m11 + m.m12 * m.m12;
+        double zz = m.m20 * m.m20 + m.m21 * m.m21 + m.m22 * m.m22;
+        double xy = m.m00 * m.m10 + m.m01 * m.m11 + m.m02 * m.m12;
+        double xz = m.m00 * m.m20 + m.m01 * m.m21 + m.m02 * m.m22;
+        double yz = m.m10 * m.m20 + m.m11 * m.m21 + m.m12 * m.m22;
+        if (Math.abs(xx - 1) > RIGID_TOLERANCE || Math.abs(yy - 1) > RIGID_TOLERANCE
+                || Math.abs(zz - 1) > RIGID_TOLERANCE || Math.abs(xy) > RIGID_TOLERANCE
+                || Math.abs(xz) > RIGID_TOLERANCE || Math.abs(yz) > RIGID_TOLERANCE) {
+            return;
+        }
+
+        // Gram-Schmidt: normalize x, take y perpendicular to it and z as their cross product
+        double norm = 1.0 / Math.sqrt(xx);
+        double x0 = m.m00 * norm;
+        double x1 = m.m01 * norm;
+        double x2 = m.m02 * norm;
+        double d = m.m10 * x0 + m.m11 * x1 + m.m12 * x2;
+        double y0 = m.m10 - d * x0;
+        double y1 = m.m11 - d * x1;
+        double y2 = m.m12 - d * x2;
+        norm = 1.0 / Math.sqrt(y0 * y0 + y1 * y1 + y2 * y2);
+        y0 *= norm;
+        y1 *= norm;
+        y2 *= norm;
+        // Keeps the handedness of the original z row
+        double sign = (x1 * y2 - x2 * y1) * m.m20 + (x2 * y0 - x0 * y2) * m.m21 + (x0 * y1 - x1 * y0) * m.m22 < 0 ? -1 : 1;
+        m.m00 = x0;
+        m.m01 = x1;
+        m.m02 = x2;
+        m.m10 = y0;
+        m.m11 = y1;
+        m.m12 = y2;
+        m.m20 = sign * (x1 * y2 - x2 * y1);
+        m.m21 = sign * (x2 * y0 - x0 * y2);
+        m.m22 = sign * (x0 * y1 - x1 * y0);
     }
 
     public String getName() {
         return this.name;
     }
 
+    public MeshGeometry getGeometry() {
+        return this.geometry;
+    }
+
+    /**
+     * Replaces the geometry with a copy welded and reordered by a {@link MeshOptimizer}, for fewer
+     * vertices to transform and faces that reuse the vertices just transformed. Levels of detail are
+     * dropped, build them again afterwards. Meshes sharing the old geometry keep it.
+     *
+     * @return the optimizer, reporting the vertex counts and vertex reuse before and after
+     */
+    public MeshOptimizer optimize() {
+        MeshOptimizer optimizer = new MeshOptimizer(this.geometry);
+        this.geometry = optimizer.optimize();
+        this.boundsModificationCount = -1;
+        this.levelsOfDetail = new MeshGeometry[0];
+        this.levelOfDetail = 0;
+        this.markModified();
+        return optimizer;
+    }
+
+    /**
+     * Builds up to {@code levelCount} simplified levels of detail, each with about half the faces
+     * of the level before. The first level may move the surface by 2% of the bounding radius and
+     * every further level by twice as much as the one before, which keeps the error at a few
+     * pixels with the device's default {@link Device#setLevelOfDetailSize(double) size}. Fewer levels
+     * are built when the geometry cannot be simplified further within that error, for example
+     * because texture seams or open borders hold it in place. The levels are dropped as soon as the
+     * geometry is changed, call this again afterwards.
+     */
+    public void buildLevelsOfDetail(int levelCount) {
+        MeshSimplifier simplifier = new MeshSimplifier(this.geometry);
+        MeshGeometry[] levels = new MeshGeometry[levelCount];
+        double maxError = this.getBounds().radius * LEVEL_OF_DETAIL_ERROR;
+        int count = 0;
+        while (count < levelCount) {
+            int faceCount = simplifier.getFaceCount();
+            MeshGeometry level = simplifier.simplify(faceCount / 2, maxError);
+            // A level barely smaller than the one before is not worth switching to
+            if (level.getFaceCount() > faceCount * 3 / 4 || level.getFaceCount() == 0) {
+                break;
+            }
+            levels[count++] = level;
+            maxError *= 2;
+        }
+
+        this.levelsOfDetail = Arrays.copyOf(levels, count);
+        this.levelsOfDetailModificationCount = this.geometry.getModificationCount();
+        this.levelOfDetail = 0;
+    }
+
+    /**
+     * Number of levels of detail including the full geometry, so one without simplified levels.
+     */
+    public int getLevelOfDetailCount() {
+        if (this.levelsOfDetailModificationCount != this.geometry.getModificationCount()) {
+            return 1;
+        }
+        return this.levelsOfDetail.length + 1;
+    }
+
+    /**
+     * Geometry of the given level of detail, level zero being the full geometry.
+     */
+    public MeshGeometry getGeometry(int levelOfDetail) {
+        return levelOfDetail == 0 ? this.geometry : this.levelsOfDetail[levelOfDetail - 1];
+    }
+
+    /**
+     * Level of detail the mesh was last drawn at.
+     */
+    public int getLevelOfDetail() {
+        return Math.min(this.levelOfDetail, this.getLevelOfDetailCount() - 1);
+    }
+
+    void setLevelOfDetail(int levelOfDetail) {
+        this.levelOfDetail = levelOfDetail;
+    }
+
+    /**
+     * Read-only {@link Vertex} view over the packed geometry. Each element is built on access, so
+     * prefer {@link #getGeometry()} on hot paths.
+     */
     public List<Vertex> getVertices() {
-        return this.vertices;
+        return new AbstractList<Vertex>() {
+            @Override
+            public Vertex get(int index) {
+                return geometry.getVertex(index);
+            }
+
+            @Override
+            public int size() {
+                return geometry.getVertexCount();
+            }
+        };
     }
 
+    /**
+     * Read-only {@link Face} view over the packed geometry. Each element is built on access, so
+     * prefer {@link #getGeometry()} on hot paths.
+     */
     public List<Face> getFaces() {
-        return this.faces;
+        return new AbstractList<Face>() {
+            @Override
+            public Face get(int index) {
+                return geometry.getFace(index);
+            }
+
+            @Override
+            public int size() {
+                return geometry.getFaceCount();
+            }
+        };
+    }
+
+    /**
+     * Bounding box and sphere of the geometry in model space, recomputed only after the geometry
+     * changed.
+     */
+    public Bounds getBounds() {
+        if (this.boundsModificationCount != this.geometry.getModificationCount()) {
+            this.geometry.computeBounds(this.bounds);
+            this.boundsModificationCount = this.geometry.getModificationCount();
+        }
+        return this.bounds;
     }
 
     public Texture getTexture() {
@@ -211,7 +317,31 @@ public class Mesh {
         this.texture = texture;
     }
 
+    public boolean isOccluder() {
+        return this.occluder;
+    }
+
+    /**
+     * Marks the mesh as a large occluder, drawn into the depth buffer ahead of the frame when
+     * {@link Device#setDepthPrePass(boolean)} is enabled.
+     */
+    public void setOccluder(boolean occluder) {
+        this.occluder = occluder;
+    }
+
+    /**
+     * The world matrix itself, changes to it move the mesh. Call {@link #markModified()} after them
+     * when the mesh is in a {@link Scene}.
+     */
     public Matrix4d getWorldMatrix() {
         return this.worldMatrix;
     }
+
+    /**
+     * Single precision copy of the world matrix, refreshed on every call. Changing it does not move
+     * the mesh.
+     */
+    public Mat4 getWorldTransform() {
+        return this.worldTransform.set(this.worldMatrix);
+    }
 }
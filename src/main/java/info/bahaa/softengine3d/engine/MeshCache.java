@@ -0,0 +1,227 @@
+package info.bahaa.softengine3d.engine;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary cache of loaded scenes. The first load of a scene parses the .babylon file and
+ * writes the packed geometry streams to the cache directory; later loads memory-map the cache
+ * file and bulk-copy the streams instead of parsing JSON. A cache entry is only used while the
+ * size and modification time of its source are unchanged. Textures are not cached, they are
+ * requested from a {@link TextureManager} by name.
+ */
+public class MeshCache {
+
+    // "SE3D"
+    private static final int MAGIC = 0x53453344;
+    private static final int VERSION = 2;
+
+    private final Path directory;
+    private final TextureManager textureManager;
+
+    public MeshCache(Path directory) {
+        this(directory, TextureManager.getShared());
+    }
+
+    public MeshCache(Path directory, TextureManager textureManager) {
+        this.directory = directory;
+        this.textureManager = textureManager;
+    }
+
+    public List<Mesh> load(Path scene) throws IOException {
+        Path absolute = scene.toAbsolutePath();
+        return this.load(absolute.toString(), Files.size(scene), Files.getLastModifiedTime(scene).toMillis(),
+                () -> Files.newInputStream(scene));
+    }
+
+    public List<Mesh> loadResource(String resource) throws IOException {
+        URL url = MeshCache.class.getResource(resource);
+        if (url == null) {
+            throw new FileNotFoundException(resource);
+        }
+
+        URLConnection connection = url.openConnection();
+        return this.load(resource, connection.getContentLengthLong(), connection.getLastModified(), url::openStream);
+    }
+
+    private List<Mesh> load(String source, long length, long modified, SceneSource sceneSource) throws IOException {
+        String fileName = source.replaceAll(".*[/\\\\]", "");
+        Path cacheFile = this.directory.resolve(String.format("%s-%08x.se3d", fileName, source.hashCode()));
+
+        if (Files.isRegularFile(cacheFile)) {
+            List<Mesh> meshes = this.read(cacheFile, length, modified);
+            if (meshes != null) {
+                return meshes;
+            }
+        }
+
+        List<Mesh> meshes;
+        try (InputStream inputStream = sceneSource.open()) {
+            meshes = BabylonLoader.load(inputStream, this.textureManager);
+        }
+        this.write(cacheFile, length, modified, meshes);
+        return meshes;
+    }
+
+    /**
+     * Returns {@code null} when the cache file is stale or unreadable.
+     */
+    private List<Mesh> read(Path cacheFile, long length, long modified) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != length || buffer.getLong() != modified) {
+                return null;
+            }
+
+            int meshCount = buffer.getInt();
+            List<Mesh> meshes = new ArrayList<>(meshCount);
+            List<String> textureNames = new ArrayList<>(meshCount);
+            for (int i = 0; i < meshCount; i++) {
+                String name = readString(buffer);
+                String textureName = readString(buffer);
+                if (textureName != null) {
+                    this.textureManager.request(textureName);
+                }
+                boolean textured = buffer.getInt() != 0;
+                int vertexCount = buffer.getInt();
+                int faceCount = buffer.getInt();
+
+                MeshGeometry geometry = new MeshGeometry(
+                        readDoubles(buffer, vertexCount * 3),
+                        readDoubles(buffer, vertexCount * 3),
+                        readDoubles(buffer, vertexCount * 2),
+                        textured,
+                        readInts(buffer, faceCount * 3),
+                        readDoubles(buffer, faceCount * 3));
+
+                meshes.add(new Mesh(name, geometry));
+                textureNames.add(textureName);
+            }
+
+            // Textures were decoding in the background while the geometry was copied
+            for (int i = 0; i < meshCount; i++) {
+                if (textureNames.get(i) != null) {
+                    meshes.get(i).setTexture(this.textureManager.get(textureNames.get(i)));
+                }
+            }
+            return meshes;
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    private void write(Path cacheFile, long length, long modified, List<Mesh> meshes) throws IOException {
+        int size = 4 + 4 + 8 + 8 + 4;
+        List<byte[]> names = new ArrayList<>();
+        for (Mesh mesh : meshes) {
+            MeshGeometry geometry = mesh.getGeometry();
+            byte[] name = encode(mesh.getName());
+            byte[] textureName = encode(mesh.getTexture() != null ? mesh.getTexture().getName() : null);
+            names.add(name);
+            names.add(textureName);
+
+            size += 4 + (name != null ? name.length : 0) + 4 + (textureName != null ? textureName.length : 0) + 4 + 4 + 4;
+            size += geometry.getVertexCount() * (3 + 3 + 2) * 8 + geometry.getFaceCount() * (3 * 4 + 3 * 8);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(length).putLong(modified).putInt(meshes.size());
+        for (int i = 0; i < meshes.size(); i++) {
+            MeshGeometry geometry = meshes.get(i).getGeometry();
+            int vertexCount = geometry.getVertexCount();
+            int faceCount = geometry.getFaceCount();
+
+            writeBytes(buffer, names.get(i * 2));
+            writeBytes(buffer, names.get(i * 2 + 1));
+            buffer.putInt(geometry.hasTextureCoordinates() ? 1 : 0).putInt(vertexCount).putInt(faceCount);
+
+            writeDoubles(buffer, geometry.getPositions(), vertexCount * 3);
+            writeDoubles(buffer, geometry.getNormals(), vertexCount * 3);
+            writeDoubles(buffer, geometry.getTextureCoordinates(), vertexCount * 2);
+            buffer.asIntBuffer().put(geometry.getIndices(), 0, faceCount * 3);
+            buffer.position(buffer.position() + faceCount * 3 * 4);
+            writeDoubles(buffer, geometry.getFaceNormals(), faceCount * 3);
+        }
+        buffer.flip();
+
+        // Written next to the final file and moved in place, so readers never see a partial file
+        Files.createDirectories(this.directory);
+        Path temporary = Files.createTempFile(this.directory, cacheFile.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temporary, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static byte[] encode(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static void writeBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static void writeDoubles(ByteBuffer buffer, double[] values, int count) {
+        buffer.asDoubleBuffer().put(values, 0, count);
+        buffer.position(buffer.position() + count * 8);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer, int count) {
+        double[] values = new double[count];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + count * 8);
+        return values;
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    private interface SceneSource {
+        InputStream open() throws IOException;
+    }
+}
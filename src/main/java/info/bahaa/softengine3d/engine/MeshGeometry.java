@@ -0,0 +1,241 @@
+package info.bahaa.softengine3d.engine;
+
+import javax.vecmath.Vector2d;
+import javax.vecmath.Vector3d;
+import java.util.Arrays;
+
+/**
+ * Packed geometry of a mesh: flat position, normal and texture coordinate streams plus an index
+ * buffer with three entries per face. The stream arrays are returned as is, so they may be longer
+ * than {@link #getVertexCount()} or {@link #getFaceCount()} require.
+ */
+public class MeshGeometry {
+
+    private int vertexCount;
+    private int faceCount;
+
+    // x, y, z per vertex
+    private double[] positions;
+    private double[] normals;
+    // u, v per vertex
+    private double[] textureCoordinates;
+    private boolean textured;
+
+    // a, b, c per face
+    private int[] indices;
+    // x, y, z per face
+    private double[] faceNormals;
+
+    // Bumped whenever positions change, so derived data like bounds can be cached
+    private int modificationCount;
+
+    public MeshGeometry() {
+        this(16, 16);
+    }
+
+    /**
+     * Adopts already packed streams without copying them. The vertex and face counts are taken
+     * from the length of {@code positions} and {@code indices}.
+     */
+    public MeshGeometry(double[] positions, double[] normals, double[] textureCoordinates, boolean textured,
+                        int[] indices, double[] faceNormals) {
+        this.vertexCount = positions.length / 3;
+        this.faceCount = indices.length / 3;
+        this.positions = positions;
+        this.normals = normals;
+        this.textureCoordinates = textureCoordinates;
+        this.textured = textured;
+        this.indices = indices;
+        this.faceNormals = faceNormals;
+    }
+
+    public MeshGeometry(int vertexCapacity, int faceCapacity) {
+        this.positions = new double[vertexCapacity * 3];
+        this.normals = new double[vertexCapacity * 3];
+        this.textureCoordinates = new double[vertexCapacity * 2];
+        this.indices = new int[faceCapacity * 3];
+        this.faceNormals = new double[faceCapacity * 3];
+    }
+
+    public int addVertex(double x, double y, double z, double nx, double ny, double nz) {
+        this.ensureVertexCapacity(this.vertexCount + 1);
+
+        int index = this.vertexCount++;
+        this.modificationCount++;
+        this.positions[index * 3] = x;
+        this.positions[index * 3 + 1] = y;
+        this.positions[index * 3 + 2] = z;
+        this.normals[index * 3] = nx;
+        this.normals[index * 3 + 1] = ny;
+        this.normals[index * 3 + 2] = nz;
+        return index;
+    }
+
+    public int addVertex(double x, double y, double z, double nx, double ny, double nz, double u, double v) {
+        int index = this.addVertex(x, y, z, nx, ny, nz);
+        this.textureCoordinates[index * 2] = u;
+        this.textureCoordinates[index * 2 + 1] = v;
+        this.textured = true;
+        return index;
+    }
+
+    public int addFace(int a, int b, int c) {
+        this.ensureFaceCapacity(this.faceCount + 1);
+
+        int index = this.faceCount++;
+        this.modificationCount++;
+        this.indices[index * 3] = a;
+        this.indices[index * 3 + 1] = b;
+        this.indices[index * 3 + 2] = c;
+        return index;
+    }
+
+    public void setFaceNormal(int face, double x, double y, double z) {
+        this.modificationCount++;
+        this.faceNormals[face * 3] = x;
+        this.faceNormals[face * 3 + 1] = y;
+        this.faceNormals[face * 3 + 2] = z;
+    }
+
+    public void calculateFaceNormals() {
+        for (int face = 0; face < this.faceCount; face++) {
+            int a = this.indices[face * 3] * 3;
+            int b = this.indices[face * 3 + 1] * 3;
+            int c = this.indices[face * 3 + 2] * 3;
+
+            double x = this.normals[a] + this.normals[b] + this.normals[c];
+            double y = this.normals[a + 1] + this.normals[b + 1] + this.normals[c + 1];
+            double z = this.normals[a + 2] + this.normals[b + 2] + this.normals[c + 2];
+
+            double third = 1.0 / 3.0;
+            x *= third;
+            y *= third;
+            z *= third;
+
+            double norm = 1.0 / Math.sqrt(x * x + y * y + z * z);
+            this.setFaceNormal(face, x * norm, y * norm, z * norm);
+        }
+    }
+
+    /**
+     * Must be called after writing to the arrays returned by {@link #getPositions()} and the other
+     * getters directly.
+     */
+    public void markModified() {
+        this.modificationCount++;
+    }
+
+    public int getModificationCount() {
+        return this.modificationCount;
+    }
+
+    /**
+     * Computes the axis aligned box and bounding sphere of the positions into {@code result}.
+     * The sphere is centered on the box and just large enough to hold every vertex.
+     */
+    public Bounds computeBounds(Bounds result) {
+        if (this.vertexCount == 0) {
+            result.set(0, 0, 0, 0, 0, 0, 0);
+            return result;
+        }
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < this.vertexCount * 3; i += 3) {
+            minX = Math.min(minX, this.positions[i]);
+            minY = Math.min(minY, this.positions[i + 1]);
+            minZ = Math.min(minZ, this.positions[i + 2]);
+            maxX = Math.max(maxX, this.positions[i]);
+            maxY = Math.max(maxY, this.positions[i + 1]);
+            maxZ = Math.max(maxZ, this.positions[i + 2]);
+        }
+
+        double centerX = (minX + maxX) * 0.5;
+        double centerY = (minY + maxY) * 0.5;
+        double centerZ = (minZ + maxZ) * 0.5;
+        double radius = 0;
+        for (int i = 0; i < this.vertexCount * 3; i += 3) {
+            double x = this.positions[i] - centerX;
+            double y = this.positions[i + 1] - centerY;
+            double z = this.positions[i + 2] - centerZ;
+            radius = Math.max(radius, x * x + y * y + z * z);
+        }
+
+        result.set(minX, minY, minZ, maxX, maxY, maxZ, Math.sqrt(radius));
+        return result;
+    }
+
+    /**
+     * Builds a standalone {@link Vertex} copy of the given vertex. Changes to the copy are not
+     * written back.
+     */
+    public Vertex getVertex(int index) {
+        return new Vertex(
+                new Vector3d(this.positions[index * 3], this.positions[index * 3 + 1], this.positions[index * 3 + 2]),
+                new Vector3d(this.normals[index * 3], this.normals[index * 3 + 1], this.normals[index * 3 + 2]),
+                null,
+                this.textured ? new Vector2d(this.textureCoordinates[index * 2], this.textureCoordinates[index * 2 + 1]) : null
+        );
+    }
+
+    /**
+     * Builds a standalone {@link Face} copy of the given face, including its normal. Changes to the
+     * copy are not written back.
+     */
+    public Face getFace(int index) {
+        Face face = new Face(this.indices[index * 3], this.indices[index * 3 + 1], this.indices[index * 3 + 2]);
+        face.normal = new Vector3d(this.faceNormals[index * 3], this.faceNormals[index * 3 + 1], this.faceNormals[index * 3 + 2]);
+        return face;
+    }
+
+    public int getVertexCount() {
+        return this.vertexCount;
+    }
+
+    public int getFaceCount() {
+        return this.faceCount;
+    }
+
+    public double[] getPositions() {
+        return this.positions;
+    }
+
+    public double[] getNormals() {
+        return this.normals;
+    }
+
+    public double[] getTextureCoordinates() {
+        return this.textureCoordinates;
+    }
+
+    public boolean hasTextureCoordinates() {
+        return this.textured;
+    }
+
+    public int[] getIndices() {
+        return this.indices;
+    }
+
+    public double[] getFaceNormals() {
+        return this.faceNormals;
+    }
+
+    private void ensureVertexCapacity(int capacity) {
+        if (capacity * 3 <= this.positions.length) {
+            return;
+        }
+        int grown = Math.max(capacity, this.positions.length / 3 * 2);
+        this.positions = Arrays.copyOf(this.positions, grown * 3);
+        this.normals = Arrays.copyOf(this.normals, grown * 3);
+        this.textureCoordinates = Arrays.copyOf(this.textureCoordinates, grown * 2);
+    }
+
+    private void ensureFaceCapacity(int capacity) {
+        if (capacity * 3 <= this.indices.length) {
+            return;
+        }
+        int grown = Math.max(capacity, this.indices.length / 3 * 2);
+        this.indices = Arrays.copyOf(this.indices, grown * 3);
+        this.faceNormals = Arrays.copyOf(this.faceNormals, grown * 3);
+    }
+}
@@ -0,0 +1,583 @@
+package info.bahaa.softengine3d.engine;
+
+import java.util.Arrays;
+
+/**
+ * Reduces the face count of a {@link MeshGeometry} by quadric error edge collapses (Garland and
+ * Heckbert). Every collapse moves a vertex onto one of its neighbors, so the remaining vertices
+ * keep their original position, normal and texture coordinates.
+ * <p>
+ * Collapses are done in passes: each pass orders the candidate edges by their error and collapses
+ * as many of them as it can without two collapses touching the same faces. A simplifier keeps its
+ * state between calls of {@link #simplify(int, double)}, so a chain of levels is built by asking for
+ * fewer and fewer faces.
+ * <p>
+ * Vertices sharing a position, as on texture seams, are only collapsed together along the seam and
+ * open borders only along themselves, which keeps the surface free of cracks.
+ */
+public class MeshSimplifier {
+
+    // Vertices free to collapse onto any neighbor
+    private static final byte MANIFOLD = 0;
+    // Vertices on an open border, collapsed along it only
+    private static final byte BORDER = 1;
+    // One of two vertices sharing a position, collapsed together with the other along the seam
+    private static final byte SEAM = 2;
+    // Everything else, never collapsed but still a target for collapses
+    private static final byte LOCKED = 3;
+
+    // Weight of the planes holding border vertices onto the border, relative to face planes
+    private static final double BORDER_WEIGHT = 10.0;
+    // Symmetric 4x4 matrix in 10 values and the area of the faces summed into it
+    private static final int QUADRIC_SIZE = 11;
+
+    private final MeshGeometry source;
+    private final double[] positions;
+    private final int vertexCount;
+
+    private int[] indices;
+    private int faceCount;
+    // Face normals point along the cross product of the first two edges, or against it, depending
+    // on the winding of the source
+    private double winding;
+
+    // The first vertex at every vertex's position, and the other vertex at the position of a seam
+    // vertex
+    private final int[] wedges;
+    private final int[] twins;
+    private final byte[] kinds;
+    // Face corners whose edge to the next corner lies on an open border
+    private final boolean[] borderEdges;
+    // Error quadric of every position, kept at the first vertex
+    private final double[] quadrics;
+
+    // Faces around every vertex, rebuilt each pass
+    private final int[] adjacencyOffsets;
+    private int[] adjacency;
+
+    private final int[] remap;
+    private final boolean[] locked;
+
+    public MeshSimplifier(MeshGeometry geometry) {
+        this.source = geometry;
+        this.positions = geometry.getPositions();
+        this.vertexCount = geometry.getVertexCount();
+        this.faceCount = geometry.getFaceCount();
+        this.indices = Arrays.copyOf(geometry.getIndices(), this.faceCount * 3);
+
+        this.wedges = new int[this.vertexCount];
+        this.twins = new int[this.vertexCount];
+        this.kinds = new byte[this.vertexCount];
+        this.borderEdges = new boolean[this.faceCount * 3];
+        this.quadrics = new double[this.vertexCount * QUADRIC_SIZE];
+        this.adjacencyOffsets = new int[this.vertexCount + 1];
+        this.remap = new int[this.vertexCount];
+        this.locked = new boolean[this.vertexCount];
+
+        this.buildWedges();
+        this.classifyVertices();
+        this.computeQuadrics();
+    }
+
+    public int getFaceCount() {
+        return this.faceCount;
+    }
+
+    /**
+     * Collapses edges until at most {@code targetFaceCount} faces are left, or no edge can be
+     * collapsed without breaking the surface or moving it further than {@code maxError}, and returns
+     * the result as a new geometry holding only the vertices still in use. The error is the root
+     * mean square distance of a collapsed vertex from the planes of the faces merged into it, in
+     * model space units.
+     */
+    public MeshGeometry simplify(int targetFaceCount, double maxError) {
+        while (this.faceCount > targetFaceCount) {
+            if (!this.collapsePass(targetFaceCount, maxError * maxError)) {
+                break;
+            }
+        }
+        return this.toGeometry();
+    }
+
+    private void buildWedges() {
+        // Open addressing on the exact position bits, vertices at the same position end up with
+        // the same first vertex
+        int capacity = Integer.highestOneBit(Math.max(this.vertexCount, 1) * 2) * 2;
+        int[] table = new int[capacity];
+        Arrays.fill(table, -1);
+        Arrays.fill(this.twins, -1);
+
+        for (int vertex = 0; vertex < this.vertexCount; vertex++) {
+            long hash = Double.doubleToLongBits(this.positions[vertex * 3]) * 73856093L
+                    ^ Double.doubleToLongBits(this.positions[vertex * 3 + 1]) * 19349663L
+                    ^ Double.doubleToLongBits(this.positions[vertex * 3 + 2]) * 83492791L;
+            int slot = hash(hash) & (capacity - 1);
+            while (table[slot] != -1 && !this.samePosition(table[slot], vertex)) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            if (table[slot] == -1) {
+                table[slot] = vertex;
+                this.wedges[vertex] = vertex;
+                continue;
+            }
+
+            int wedge = table[slot];
+            this.wedges[vertex] = wedge;
+            if (this.twins[wedge] == -1 && this.kinds[wedge] != LOCKED) {
+                this.twins[wedge] = vertex;
+                this.twins[vertex] = wedge;
+            } else {
+                // Three or more vertices at one position
+                this.kinds[wedge] = LOCKED;
+                this.kinds[vertex] = LOCKED;
+                if (this.twins[wedge] != -1) {
+                    this.kinds[this.twins[wedge]] = LOCKED;
+                }
+            }
+        }
+    }
+
+    private void classifyVertices() {
+        // Directed edges between positions: an edge without its reverse lies on an open border, an
+        // edge seen twice in the same direction joins more than two faces
+        int capacity = Integer.highestOneBit(Math.max(this.faceCount, 1) * 3) * 4;
+        long[] keys = new long[capacity];
+        int[] counts = new int[capacity];
+        Arrays.fill(keys, -1);
+
+        for (int i = 0; i < this.faceCount * 3; i++) {
+            int from = this.wedges[this.indices[i]];
+            int to = this.wedges[this.indices[i - i % 3 + (i + 1) % 3]];
+            counts[findEdge(keys, ((long) from << 32) | to)]++;
+        }
+
+        for (int i = 0; i < this.faceCount * 3; i++) {
+            int vertex = this.indices[i];
+            int next = this.indices[i - i % 3 + (i + 1) % 3];
+            int from = this.wedges[vertex];
+            int to = this.wedges[next];
+            int count = counts[findEdge(keys, ((long) from << 32) | to)];
+            int reverse = counts[findEdge(keys, ((long) to << 32) | from)];
+            if (count > 1 || reverse > 1) {
+                this.lockPosition(vertex);
+                this.lockPosition(next);
+            } else if (reverse == 0) {
+                this.borderEdges[i] = true;
+                this.markBorder(vertex);
+                this.markBorder(next);
+            }
+        }
+
+        for (int vertex = 0; vertex < this.vertexCount; vertex++) {
+            if (this.kinds[vertex] == MANIFOLD && this.twins[vertex] != -1) {
+                this.kinds[vertex] = SEAM;
+            }
+        }
+    }
+
+    private void markBorder(int vertex) {
+        if (this.twins[vertex] != -1) {
+            // A seam running into a border
+            this.lockPosition(vertex);
+        } else if (this.kinds[vertex] == MANIFOLD) {
+            this.kinds[vertex] = BORDER;
+        }
+    }
+
+    private void lockPosition(int vertex) {
+        this.kinds[vertex] = LOCKED;
+        if (this.twins[vertex] != -1) {
+            this.kinds[this.twins[vertex]] = LOCKED;
+        }
+    }
+
+    private void computeQuadrics() {
+        double[] faceNormals = this.source.getFaceNormals();
+        for (int face = 0; face < this.faceCount; face++) {
+            int a = this.indices[face * 3];
+            int b = this.indices[face * 3 + 1];
+            int c = this.indices[face * 3 + 2];
+
+            double abX = this.positions[b * 3] - this.positions[a * 3];
+            double abY = this.positions[b * 3 + 1] - this.positions[a * 3 + 1];
+            double abZ = this.positions[b * 3 + 2] - this.positions[a * 3 + 2];
+            double acX = this.positions[c * 3] - this.positions[a * 3];
+            double acY = this.positions[c * 3 + 1] - this.positions[a * 3 + 1];
+            double acZ = this.positions[c * 3 + 2] - this.positions[a * 3 + 2];
+            double nX = abY * acZ - abZ * acY;
+            double nY = abZ * acX - abX * acZ;
+            double nZ = abX * acY - abY * acX;
+            double length = Math.sqrt(nX * nX + nY * nY + nZ * nZ);
+            if (length == 0.0) {
+                continue;
+            }
+            nX /= length;
+            nY /= length;
+            nZ /= length;
+            this.winding += nX * faceNormals[face * 3] + nY * faceNormals[face * 3 + 1] + nZ * faceNormals[face * 3 + 2];
+
+            // Weighted by area, so that many small faces count as much as one large face
+            double area = length * 0.5;
+            for (int k = 0; k < 3; k++) {
+                int vertex = this.indices[face * 3 + k];
+                this.addPlane(this.wedges[vertex], nX, nY, nZ, vertex, area);
+                this.quadrics[this.wedges[vertex] * QUADRIC_SIZE + 10] += area;
+            }
+
+            // Planes through border edges, perpendicular to the face, keep borders in place
+            for (int k = 0; k < 3; k++) {
+                if (!this.borderEdges[face * 3 + k]) {
+                    continue;
+                }
+                int from = this.indices[face * 3 + k];
+                int to = this.indices[face * 3 + (k + 1) % 3];
+                double eX = this.positions[to * 3] - this.positions[from * 3];
+                double eY = this.positions[to * 3 + 1] - this.positions[from * 3 + 1];
+                double eZ = this.positions[to * 3 + 2] - this.positions[from * 3 + 2];
+                double pX = eY * nZ - eZ * nY;
+                double pY = eZ * nX - eX * nZ;
+                double pZ = eX * nY - eY * nX;
+                double edgeLength = Math.sqrt(pX * pX + pY * pY + pZ * pZ);
+                if (edgeLength == 0.0) {
+                    continue;
+                }
+                pX /= edgeLength;
+                pY /= edgeLength;
+                pZ /= edgeLength;
+                double weight = BORDER_WEIGHT * edgeLength * edgeLength;
+                this.addPlane(this.wedges[from], pX, pY, pZ, from, weight);
+                this.addPlane(this.wedges[to], pX, pY, pZ, from, weight);
+            }
+        }
+    }
+
+    private void addPlane(int wedge, double x, double y, double z, int pointOnPlane, double weight) {
+        double d = -(x * this.positions[pointOnPlane * 3] + y * this.positions[pointOnPlane * 3 + 1]
+                + z * this.positions[pointOnPlane * 3 + 2]);
+        double[] q = this.quadrics;
+        int i = wedge * QUADRIC_SIZE;
+        q[i] += weight * x * x;
+        q[i + 1] += weight * x * y;
+        q[i + 2] += weight * x * z;
+        q[i + 3] += weight * x * d;
+        q[i + 4] += weight * y * y;
+        q[i + 5] += weight * y * z;
+        q[i + 6] += weight * y * d;
+        q[i + 7] += weight * z * z;
+        q[i + 8] += weight * z * d;
+        q[i + 9] += weight * d * d;
+    }
+
+    /**
+     * Mean square distance from the planes of both ends of an edge when moving them to the second.
+     */
+    private double collapseError(int from, int to) {
+        double[] q = this.quadrics;
+        int a = this.wedges[from] * QUADRIC_SIZE;
+        int b = this.wedges[to] * QUADRIC_SIZE;
+        double x = this.positions[to * 3];
+        double y = this.positions[to * 3 + 1];
+        double z = this.positions[to * 3 + 2];
+        double error = (q[a] + q[b]) * x * x + 2 * (q[a + 1] + q[b + 1]) * x * y + 2 * (q[a + 2] + q[b + 2]) * x * z
+                + 2 * (q[a + 3] + q[b + 3]) * x + (q[a + 4] + q[b + 4]) * y * y + 2 * (q[a + 5] + q[b + 5]) * y * z
+                + 2 * (q[a + 6] + q[b + 6]) * y + (q[a + 7] + q[b + 7]) * z * z + 2 * (q[a + 8] + q[b + 8]) * z
+                + (q[a + 9] + q[b + 9]);
+        double area = q[a + 10] + q[b + 10];
+        // Rounding may take a perfect fit slightly below zero, which would break the sort keys
+        return area == 0.0 ? 0.0 : Math.max(error / area, 0.0);
+    }
+
+    private boolean canCollapse(int from, int to) {
+        if (this.wedges[from] == this.wedges[to]) {
+            return false;
+        }
+        switch (this.kinds[from]) {
+            case MANIFOLD:
+                return true;
+            case BORDER:
+                return this.isBorderEdge(from, to);
+            case SEAM:
+                // The twins have to be joined by an edge as well, then both sides collapse alike
+                return this.kinds[to] == SEAM && this.sharesFace(this.twins[from], this.twins[to]);
+            default:
+                return false;
+        }
+    }
+
+    private boolean isBorderEdge(int from, int to) {
+        // An edge inside the surface is shared by two faces, a border edge by only one. The faces
+        // may reach the other end through a vertex at the same position, a border vertex is alone
+        // at its own.
+        int wedge = this.wedges[to];
+        int shared = 0;
+        for (int i = this.adjacencyOffsets[from]; i < this.adjacencyOffsets[from + 1]; i++) {
+            int face = this.adjacency[i];
+            if (this.wedges[this.indices[face * 3]] == wedge || this.wedges[this.indices[face * 3 + 1]] == wedge
+                    || this.wedges[this.indices[face * 3 + 2]] == wedge) {
+                shared++;
+            }
+        }
+        return shared == 1;
+    }
+
+    private boolean sharesFace(int a, int b) {
+        for (int i = this.adjacencyOffsets[a]; i < this.adjacencyOffsets[a + 1]; i++) {
+            if (this.faceContains(this.adjacency[i], b)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean faceContains(int face, int vertex) {
+        return this.indices[face * 3] == vertex || this.indices[face * 3 + 1] == vertex || this.indices[face * 3 + 2] == vertex;
+    }
+
+    private boolean collapsePass(int targetFaceCount, double maxSquaredError) {
+        this.buildAdjacency();
+
+        // Candidates sort by error, kept in the high half of the key as float bits, which order
+        // like the floats themselves as long as they are positive. Interior edges are seen from
+        // both of their faces, the second one is turned down as locked once the first is collapsed
+        long[] candidates = new long[this.faceCount * 3];
+        int[] candidateFrom = new int[this.faceCount * 3];
+        int[] candidateTo = new int[this.faceCount * 3];
+        int candidateCount = 0;
+        for (int i = 0; i < this.faceCount * 3; i++) {
+            int a = this.indices[i];
+            int b = this.indices[i - i % 3 + (i + 1) % 3];
+            double errorAB = this.canCollapse(a, b) ? this.collapseError(a, b) : Double.POSITIVE_INFINITY;
+            double errorBA = this.canCollapse(b, a) ? this.collapseError(b, a) : Double.POSITIVE_INFINITY;
+            if (Math.min(errorAB, errorBA) > maxSquaredError) {
+                continue;
+            }
+            boolean forward = errorAB <= errorBA;
+            candidates[candidateCount] = ((long) Float.floatToIntBits((float) Math.min(errorAB, errorBA)) << 32) | candidateCount;
+            candidateFrom[candidateCount] = forward ? a : b;
+            candidateTo[candidateCount] = forward ? b : a;
+            candidateCount++;
+        }
+        Arrays.sort(candidates, 0, candidateCount);
+
+        for (int vertex = 0; vertex < this.vertexCount; vertex++) {
+            this.remap[vertex] = vertex;
+        }
+        Arrays.fill(this.locked, false);
+
+        int removedFaceCount = 0;
+        int collapseCount = 0;
+        for (int c = 0; c < candidateCount && this.faceCount - removedFaceCount > targetFaceCount; c++) {
+            int candidate = (int) candidates[c];
+            int from = candidateFrom[candidate];
+            int to = candidateTo[candidate];
+            boolean seam = this.kinds[from] == SEAM;
+            int twinFrom = seam ? this.twins[from] : -1;
+            int twinTo = seam ? this.twins[to] : -1;
+
+            if (this.locked[from] || this.locked[to] || seam && (this.locked[twinFrom] || this.locked[twinTo])) {
+                continue;
+            }
+            if (this.flipsFace(from, to) || seam && this.flipsFace(twinFrom, twinTo)) {
+                continue;
+            }
+
+            // Everything around the collapsed vertex changes, so no other collapse may touch it
+            // in this pass
+            removedFaceCount += this.lockNeighborhood(from, to);
+            this.remap[from] = to;
+            if (seam) {
+                removedFaceCount += this.lockNeighborhood(twinFrom, twinTo);
+                this.remap[twinFrom] = twinTo;
+            }
+
+            int a = this.wedges[from] * QUADRIC_SIZE;
+            int b = this.wedges[to] * QUADRIC_SIZE;
+            for (int k = 0; k < QUADRIC_SIZE; k++) {
+                this.quadrics[b + k] += this.quadrics[a + k];
+            }
+            collapseCount++;
+        }
+
+        if (collapseCount == 0) {
+            return false;
+        }
+
+        // Faces that had both ends of a collapsed edge are gone
+        int faceCount = 0;
+        for (int face = 0; face < this.faceCount; face++) {
+            int a = this.remap[this.indices[face * 3]];
+            int b = this.remap[this.indices[face * 3 + 1]];
+            int c = this.remap[this.indices[face * 3 + 2]];
+            if (a != b && b != c && c != a) {
+                this.indices[faceCount * 3] = a;
+                this.indices[faceCount * 3 + 1] = b;
+                this.indices[faceCount * 3 + 2] = c;
+                faceCount++;
+            }
+        }
+        this.faceCount = faceCount;
+        return true;
+    }
+
+    /**
+     * Locks the vertex and every vertex sharing a face with it, and returns the number of faces the
+     * collapse onto {@code to} removes.
+     */
+    private int lockNeighborhood(int from, int to) {
+        int removed = 0;
+        this.locked[from] = true;
+        this.locked[to] = true;
+        for (int i = this.adjacencyOffsets[from]; i < this.adjacencyOffsets[from + 1]; i++) {
+            int face = this.adjacency[i];
+            for (int k = 0; k < 3; k++) {
+                this.locked[this.indices[face * 3 + k]] = true;
+            }
+            if (this.faceContains(face, to)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Whether moving {@code from} onto {@code to} turns any of the faces that survive the collapse
+     * over, or makes it degenerate.
+     */
+    private boolean flipsFace(int from, int to) {
+        double[] p = this.positions;
+        for (int i = this.adjacencyOffsets[from]; i < this.adjacencyOffsets[from + 1]; i++) {
+            int face = this.adjacency[i];
+            if (this.faceContains(face, to)) {
+                continue;
+            }
+
+            // The other two corners in winding order after from
+            int k = this.indices[face * 3] == from ? 0 : this.indices[face * 3 + 1] == from ? 1 : 2;
+            int b = this.indices[face * 3 + (k + 1) % 3];
+            int c = this.indices[face * 3 + (k + 2) % 3];
+
+            double bcX = p[c * 3] - p[b * 3];
+            double bcY = p[c * 3 + 1] - p[b * 3 + 1];
+            double bcZ = p[c * 3 + 2] - p[b * 3 + 2];
+            double bfX = p[from * 3] - p[b * 3];
+            double bfY = p[from * 3 + 1] - p[b * 3 + 1];
+            double bfZ = p[from * 3 + 2] - p[b * 3 + 2];
+            double btX = p[to * 3] - p[b * 3];
+            double btY = p[to * 3 + 1] - p[b * 3 + 1];
+            double btZ = p[to * 3 + 2] - p[b * 3 + 2];
+
+            // Normals of the face before and after, both from the edge opposite to the moved corner
+            double beforeX = bcY * bfZ - bcZ * bfY;
+            double beforeY = bcZ * bfX - bcX * bfZ;
+            double beforeZ = bcX * bfY - bcY * bfX;
+            double afterX = bcY * btZ - bcZ * btY;
+            double afterY = bcZ * btX - bcX * btZ;
+            double afterZ = bcX * btY - bcY * btX;
+            if (beforeX * afterX + beforeY * afterY + beforeZ * afterZ <= 0.0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void buildAdjacency() {
+        int[] offsets = this.adjacencyOffsets;
+        Arrays.fill(offsets, 0);
+        for (int i = 0; i < this.faceCount * 3; i++) {
+            offsets[this.indices[i] + 1]++;
+        }
+        for (int vertex = 0; vertex < this.vertexCount; vertex++) {
+            offsets[vertex + 1] += offsets[vertex];
+        }
+
+        if (this.adjacency == null) {
+            this.adjacency = new int[this.faceCount * 3];
+        }
+        // Filling a vertex's range moves its start up to the next vertex's, shifting the starts
+        // back afterwards restores them
+        for (int i = 0; i < this.faceCount * 3; i++) {
+            this.adjacency[offsets[this.indices[i]]++] = i / 3;
+        }
+        System.arraycopy(offsets, 0, offsets, 1, this.vertexCount);
+        offsets[0] = 0;
+    }
+
+    private MeshGeometry toGeometry() {
+        // Vertices are renumbered in the order faces first use them
+        int[] newIndices = new int[this.vertexCount];
+        Arrays.fill(newIndices, -1);
+        int[] indices = new int[this.faceCount * 3];
+        int usedCount = 0;
+        for (int i = 0; i < indices.length; i++) {
+            int vertex = this.indices[i];
+            if (newIndices[vertex] == -1) {
+                newIndices[vertex] = usedCount++;
+            }
+            indices[i] = newIndices[vertex];
+        }
+
+        double[] normals = this.source.getNormals();
+        double[] textureCoordinates = this.source.getTextureCoordinates();
+        double[] newPositions = new double[usedCount * 3];
+        double[] newNormals = new double[usedCount * 3];
+        double[] newTextureCoordinates = new double[usedCount * 2];
+        for (int vertex = 0; vertex < this.vertexCount; vertex++) {
+            int index = newIndices[vertex];
+            if (index == -1) {
+                continue;
+            }
+            System.arraycopy(this.positions, vertex * 3, newPositions, index * 3, 3);
+            System.arraycopy(normals, vertex * 3, newNormals, index * 3, 3);
+            System.arraycopy(textureCoordinates, vertex * 2, newTextureCoordinates, index * 2, 2);
+        }
+
+        // Averaged vertex normals can point away from a large simplified face, the face normals come
+        // from the faces themselves instead
+        double[] faceNormals = new double[indices.length];
+        double sign = this.winding < 0 ? -1.0 : 1.0;
+        for (int face = 0; face < this.faceCount; face++) {
+            int a = indices[face * 3] * 3;
+            int b = indices[face * 3 + 1] * 3;
+            int c = indices[face * 3 + 2] * 3;
+            double abX = newPositions[b] - newPositions[a];
+            double abY = newPositions[b + 1] - newPositions[a + 1];
+            double abZ = newPositions[b + 2] - newPositions[a + 2];
+            double acX = newPositions[c] - newPositions[a];
+            double acY = newPositions[c + 1] - newPositions[a + 1];
+            double acZ = newPositions[c + 2] - newPositions[a + 2];
+            double nX = abY * acZ - abZ * acY;
+            double nY = abZ * acX - abX * acZ;
+            double nZ = abX * acY - abY * acX;
+            double norm = sign / Math.sqrt(nX * nX + nY * nY + nZ * nZ);
+            faceNormals[face * 3] = nX * norm;
+            faceNormals[face * 3 + 1] = nY * norm;
+            faceNormals[face * 3 + 2] = nZ * norm;
+        }
+
+        return new MeshGeometry(newPositions, newNormals, newTextureCoordinates, this.source.hasTextureCoordinates(),
+                indices, faceNormals);
+    }
+
+    private boolean samePosition(int a, int b) {
+        return this.positions[a * 3] == this.positions[b * 3] && this.positions[a * 3 + 1] == this.positions[b * 3 + 1]
+                && this.positions[a * 3 + 2] == this.positions[b * 3 + 2];
+    }
+
+    /**
+     * Slot of the key in the open addressing table, claiming an empty slot if it is missing.
+     */
+    private static int findEdge(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != -1 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        return slot;
+    }
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+}
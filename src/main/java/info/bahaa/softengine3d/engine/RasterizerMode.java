@@ -0,0 +1,17 @@
+package info.bahaa.softengine3d.engine;
+
+/**
+ * Triangle rasterization algorithms supported by {@link Device}.
+ */
+public enum RasterizerMode {
+    /**
+     * Walks the triangle row by row between its two active edges, interpolating linearly in
+     * screen space.
+     */
+    SCANLINE,
+    /**
+     * Evaluates fixed-point edge functions over 8x8 pixel blocks with a top-left fill rule and
+     * perspective-correct interpolation of the vertex attributes.
+     */
+    EDGE_FUNCTION
+}
@@ -0,0 +1,61 @@
+package info.bahaa.softengine3d.engine;
+
+/**
+ * Rectangle of framebuffer pixels, the minimum corner inclusive and the maximum exclusive. A
+ * region without any pixel is empty.
+ */
+public class Region {
+
+    public int minX, minY;
+    public int maxX, maxY;
+
+    public void set(int minX, int minY, int maxX, int maxY) {
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    public void set(Region region) {
+        this.set(region.minX, region.minY, region.maxX, region.maxY);
+    }
+
+    public void setEmpty() {
+        this.set(0, 0, 0, 0);
+    }
+
+    public boolean isEmpty() {
+        return this.minX >= this.maxX || this.minY >= this.maxY;
+    }
+
+    /**
+     * Grows the region to the bounding rectangle of itself and the given pixels.
+     */
+    public void union(int minX, int minY, int maxX, int maxY) {
+        if (minX >= maxX || minY >= maxY) {
+            return;
+        }
+        if (this.isEmpty()) {
+            this.set(minX, minY, maxX, maxY);
+        } else {
+            this.set(Math.min(this.minX, minX), Math.min(this.minY, minY), Math.max(this.maxX, maxX), Math.max(this.maxY, maxY));
+        }
+    }
+
+    public void union(Region region) {
+        this.union(region.minX, region.minY, region.maxX, region.maxY);
+    }
+
+    public int getWidth() {
+        return Math.max(0, this.maxX - this.minX);
+    }
+
+    public int getHeight() {
+        return Math.max(0, this.maxY - this.minY);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Region{min=(%d, %d), max=(%d, %d)}", minX, minY, maxX, maxY);
+    }
+}
@@ -0,0 +1,485 @@
+package info.bahaa.softengine3d.engine;
+
+import info.bahaa.softengine3d.math.Mat4;
+import info.bahaa.softengine3d.math.Vec3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Meshes kept in a bounding volume hierarchy over their world space boxes, so frustum and ray
+ * queries only visit the subtrees they can hit. Moving a mesh through its transform methods, or
+ * calling {@link Mesh#markModified()} after changing it directly, refits the boxes above it the
+ * next time the scene is queried. Adding or removing meshes rebuilds the hierarchy instead.
+ * <p>
+ * A mesh belongs to at most one scene at a time.
+ */
+public class Scene {
+
+    // Meshes per leaf: small leaves keep the tree tight, testing a few meshes directly is cheaper
+    // than descending further
+    private static final int LEAF_SIZE = 4;
+
+    private final List<Mesh> meshes = new ArrayList<>();
+    private final List<Mesh> unmodifiableMeshes = Collections.unmodifiableList(this.meshes);
+    // World space box of every mesh: min x, y, z, max x, y, z
+    private double[] meshBoxes = new double[0];
+
+    // Nodes: their box, then either two children or a range of the mesh order for leaves, told
+    // apart by a negative count
+    private int nodeCount;
+    private double[] nodeBoxes = new double[0];
+    private int[] nodeFirst = new int[0];
+    private int[] nodeCounts = new int[0];
+    private int[] nodeParents = new int[0];
+    // Meshes in leaf order, and the leaf holding every mesh
+    private int[] order = new int[0];
+    private int[] meshLeaves = new int[0];
+    private boolean rebuild;
+
+    private int[] modified = new int[16];
+    private int modifiedCount;
+
+    private int[] stack = new int[64];
+    private final Mat4 inverse = new Mat4();
+    private final Vec3 localOrigin = new Vec3();
+    private final Vec3 localDirection = new Vec3();
+
+    public void add(Mesh mesh) {
+        if (mesh.scene != null) {
+            throw new IllegalArgumentException("mesh " + mesh.getName() + " already belongs to a scene");
+        }
+        mesh.scene = this;
+        mesh.sceneIndex = this.meshes.size();
+        this.meshes.add(mesh);
+        this.rebuild = true;
+    }
+
+    public boolean remove(Mesh mesh) {
+        if (mesh.scene != this) {
+            return false;
+        }
+        // The last mesh takes the place of the removed one
+        Mesh last = this.meshes.remove(this.meshes.size() - 1);
+        if (last != mesh) {
+            this.meshes.set(mesh.sceneIndex, last);
+            last.sceneIndex = mesh.sceneIndex;
+        }
+        mesh.scene = null;
+        mesh.sceneModified = false;
+        this.rebuild = true;
+        return true;
+    }
+
+    /**
+     * All meshes of the scene, in no particular order.
+     */
+    public List<Mesh> getMeshes() {
+        return this.unmodifiableMeshes;
+    }
+
+    public int size() {
+        return this.meshes.size();
+    }
+
+    void markModified(Mesh mesh) {
+        if (mesh.sceneModified) {
+            return;
+        }
+        mesh.sceneModified = true;
+        if (this.modifiedCount == this.modified.length) {
+            this.modified = Arrays.copyOf(this.modified, this.modifiedCount * 2);
+        }
+        this.modified[this.modifiedCount++] = mesh.sceneIndex;
+    }
+
+    /**
+     * Appends the meshes whose world space box is not entirely outside the frustum to
+     * {@code result}, nearer subtrees first. The frustum has to be set from a world to screen
+     * transform.
+     */
+    public List<Mesh> query(Frustum frustum, List<Mesh> result) {
+        this.update();
+        if (this.meshes.isEmpty()) {
+            return result;
+        }
+
+        int top = 0;
+        this.stack[top++] = 0;
+        while (top > 0) {
+            int node = this.stack[--top];
+            int visibility = frustum.classify(this.nodeBoxes, node * 6);
+            if (visibility == Frustum.OUTSIDE) {
+                continue;
+            }
+
+            int count = this.nodeCounts[node];
+            if (count < 0) {
+                // Leaves test their meshes one by one, unless the whole leaf is inside
+                for (int i = this.nodeFirst[node]; i < this.nodeFirst[node] - count; i++) {
+                    int mesh = this.order[i];
+                    if (visibility == Frustum.INSIDE || frustum.classify(this.meshBoxes, mesh * 6) != Frustum.OUTSIDE) {
+                        result.add(this.meshes.get(mesh));
+                    }
+                }
+                continue;
+            }
+
+            // The farther child goes on the stack first, so the nearer one is visited first
+            int left = this.nodeFirst[node];
+            int right = left + 1;
+            boolean leftNearer = this.depth(frustum, left) <= this.depth(frustum, right);
+            top = this.push(top, leftNearer ? right : left);
+            top = this.push(top, leftNearer ? left : right);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the nearest mesh whose faces the ray hits, from either side, and writes the world space
+     * hit point to {@code hitPoint} unless it is null.
+     *
+     * @return the mesh hit, null if the ray misses everything
+     */
+    public Mesh pick(Vec3 origin, Vec3 direction, Vec3 hitPoint) {
+        this.update();
+        if (this.meshes.isEmpty()) {
+            return null;
+        }
+
+        double inverseX = 1.0 / direction.x;
+        double inverseY = 1.0 / direction.y;
+        double inverseZ = 1.0 / direction.z;
+        double nearest = Double.POSITIVE_INFINITY;
+        Mesh picked = null;
+
+        int top = 0;
+        this.stack[top++] = 0;
+        while (top > 0) {
+            int node = this.stack[--top];
+            if (intersectBox(this.nodeBoxes, node * 6, origin, inverseX, inverseY, inverseZ) >= nearest) {
+                continue;
+            }
+
+            int count = this.nodeCounts[node];
+            if (count < 0) {
+                for (int i = this.nodeFirst[node]; i < this.nodeFirst[node] - count; i++) {
+                    int mesh = this.order[i];
+                    if (intersectBox(this.meshBoxes, mesh * 6, origin, inverseX, inverseY, inverseZ) >= nearest) {
+                        continue;
+                    }
+                    double distance = this.intersectMesh(this.meshes.get(mesh), origin, direction, nearest);
+                    if (distance < nearest) {
+                        nearest = distance;
+                        picked = this.meshes.get(mesh);
+                    }
+                }
+                continue;
+            }
+
+            int left = this.nodeFirst[node];
+            int right = left + 1;
+            double leftDistance = intersectBox(this.nodeBoxes, left * 6, origin, inverseX, inverseY, inverseZ);
+            double rightDistance = intersectBox(this.nodeBoxes, right * 6, origin, inverseX, inverseY, inverseZ);
+            top = this.push(top, leftDistance <= rightDistance ? right : left);
+            top = this.push(top, leftDistance <= rightDistance ? left : right);
+        }
+
+        if (picked != null && hitPoint != null) {
+            hitPoint.set((float) (origin.x + direction.x * nearest), (float) (origin.y + direction.y * nearest),
+                    (float) (origin.z + direction.z * nearest));
+        }
+        return picked;
+    }
+
+    /**
+     * Distance along the ray to the nearest face of the mesh, in multiples of the direction, or
+     * infinity when it is further than {@code nearest} or missed.
+     */
+    private double intersectMesh(Mesh mesh, Vec3 origin, Vec3 direction, double nearest) {
+        // An affine transform keeps distances along the ray in multiples of the direction, so the
+        // ray is moved into model space rather than every vertex into world space
+        Mat4 inverse = this.inverse.invertAffine(mesh.getWorldTransform());
+        Vec3 o = inverse.transformPoint(origin, this.localOrigin);
+        Vec3 d = inverse.transformNormal(direction, this.localDirection);
+
+        MeshGeometry geometry = mesh.getGeometry();
+        double[] p = geometry.getPositions();
+        int[] indices = geometry.getIndices();
+        for (int face = 0; face < geometry.getFaceCount(); face++) {
+            int a = indices[face * 3] * 3;
+            int b = indices[face * 3 + 1] * 3;
+            int c = indices[face * 3 + 2] * 3;
+
+            // Moeller-Trumbore
+            double e1X = p[b] - p[a];
+            double e1Y = p[b + 1] - p[a + 1];
+            double e1Z = p[b + 2] - p[a + 2];
+            double e2X = p[c] - p[a];
+            double e2Y = p[c + 1] - p[a + 1];
+            double e2Z = p[c + 2] - p[a + 2];
+            double pX = d.y * e2Z - d.z * e2Y;
+            double pY = d.z * e2X - d.x * e2Z;
+            double pZ = d.x * e2Y - d.y * e2X;
+            double determinant = e1X * pX + e1Y * pY + e1Z * pZ;
+            if (determinant == 0.0) {
+                continue;
+            }
+            double inverseDeterminant = 1.0 / determinant;
+
+            double tX = o.x - p[a];
+            double tY = o.y - p[a + 1];
+            double tZ = o.z - p[a + 2];
+            double u = (tX * pX + tY * pY + tZ * pZ) * inverseDeterminant;
+            if (u < 0.0 || u > 1.0) {
+                continue;
+            }
+            double qX = tY * e1Z - tZ * e1Y;
+            double qY = tZ * e1X - tX * e1Z;
+            double qZ = tX * e1Y - tY * e1X;
+            double v = (d.x * qX + d.y * qY + d.z * qZ) * inverseDeterminant;
+            if (v < 0.0 || u + v > 1.0) {
+                continue;
+            }
+            double distance = (e2X * qX + e2Y * qY + e2Z * qZ) * inverseDeterminant;
+            if (distance >= 0.0 && distance < nearest) {
+                nearest = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Distance along the ray to where it enters the box, zero if it starts inside, infinity if it
+     * misses.
+     */
+    private static double intersectBox(double[] boxes, int offset, Vec3 origin, double inverseX, double inverseY,
+                                       double inverseZ) {
+        double x1 = (boxes[offset] - origin.x) * inverseX;
+        double x2 = (boxes[offset + 3] - origin.x) * inverseX;
+        double y1 = (boxes[offset + 1] - origin.y) * inverseY;
+        double y2 = (boxes[offset + 4] - origin.y) * inverseY;
+        double z1 = (boxes[offset + 2] - origin.z) * inverseZ;
+        double z2 = (boxes[offset + 5] - origin.z) * inverseZ;
+        double enter = Math.max(Math.max(Math.min(x1, x2), Math.min(y1, y2)), Math.max(Math.min(z1, z2), 0.0));
+        double exit = Math.min(Math.min(Math.max(x1, x2), Math.max(y1, y2)), Math.max(z1, z2));
+        return enter <= exit ? enter : Double.POSITIVE_INFINITY;
+    }
+
+    private double depth(Frustum frustum, int node) {
+        double[] boxes = this.nodeBoxes;
+        int offset = node * 6;
+        return frustum.depth((boxes[offset] + boxes[offset + 3]) * 0.5, (boxes[offset + 1] + boxes[offset + 4]) * 0.5,
+                (boxes[offset + 2] + boxes[offset + 5]) * 0.5);
+    }
+
+    private int push(int top, int node) {
+        if (top == this.stack.length) {
+            this.stack = Arrays.copyOf(this.stack, top * 2);
+        }
+        this.stack[top] = node;
+        return top + 1;
+    }
+
+    /**
+     * Brings the hierarchy up to date: rebuilt after meshes were added or removed, refitted above
+     * the meshes that moved otherwise.
+     */
+    private void update() {
+        if (this.rebuild) {
+            this.build();
+            return;
+        }
+
+        for (int i = 0; i < this.modifiedCount; i++) {
+            int mesh = this.modified[i];
+            this.meshes.get(mesh).sceneModified = false;
+            this.computeMeshBox(mesh);
+
+            // Up from the leaf until a box stays the same, everything above it does too
+            int node = this.meshLeaves[mesh];
+            while (node != -1 && this.refitNode(node)) {
+                node = this.nodeParents[node];
+            }
+        }
+        this.modifiedCount = 0;
+    }
+
+    private void build() {
+        int meshCount = this.meshes.size();
+        if (this.meshBoxes.length < meshCount * 6) {
+            this.meshBoxes = new double[meshCount * 6];
+            this.order = new int[meshCount];
+            this.meshLeaves = new int[meshCount];
+        }
+        // A binary tree over leaves of at least one mesh has fewer than twice as many nodes
+        int nodeCapacity = Math.max(1, 2 * meshCount);
+        if (this.nodeCounts.length < nodeCapacity) {
+            this.nodeBoxes = new double[nodeCapacity * 6];
+            this.nodeFirst = new int[nodeCapacity];
+            this.nodeCounts = new int[nodeCapacity];
+            this.nodeParents = new int[nodeCapacity];
+        }
+
+        for (int mesh = 0; mesh < meshCount; mesh++) {
+            this.meshes.get(mesh).sceneModified = false;
+            this.computeMeshBox(mesh);
+            this.order[mesh] = mesh;
+        }
+        this.modifiedCount = 0;
+        this.rebuild = false;
+
+        this.nodeCount = 1;
+        this.nodeParents[0] = -1;
+        if (meshCount > 0) {
+            this.buildNode(0, 0, meshCount);
+        }
+    }
+
+    /**
+     * Splits the meshes of the range at the median of their box centers along the axis the centers
+     * spread the most along.
+     */
+    private void buildNode(int node, int first, int count) {
+        if (count <= LEAF_SIZE) {
+            this.nodeFirst[node] = first;
+            this.nodeCounts[node] = -count;
+            for (int i = first; i < first + count; i++) {
+                this.meshLeaves[this.order[i]] = node;
+            }
+            this.refitNode(node);
+            return;
+        }
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for (int i = first; i < first + count; i++) {
+            int offset = this.order[i] * 6;
+            double x = this.meshBoxes[offset] + this.meshBoxes[offset + 3];
+            double y = this.meshBoxes[offset + 1] + this.meshBoxes[offset + 4];
+            double z = this.meshBoxes[offset + 2] + this.meshBoxes[offset + 5];
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            minZ = Math.min(minZ, z);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            maxZ = Math.max(maxZ, z);
+        }
+        int axis = maxX - minX >= maxY - minY && maxX - minX >= maxZ - minZ ? 0 : maxY - minY >= maxZ - minZ ? 1 : 2;
+        int half = count / 2;
+        this.select(first, first + count - 1, first + half, axis);
+
+        // Children are allocated in pairs, the left one's index is enough to find both
+        int left = this.nodeCount;
+        this.nodeCount += 2;
+        this.nodeFirst[node] = left;
+        this.nodeCounts[node] = 0;
+        this.nodeParents[left] = node;
+        this.nodeParents[left + 1] = node;
+        this.buildNode(left, first, half);
+        this.buildNode(left + 1, first + half, count - half);
+        this.refitNode(node);
+    }
+
+    /**
+     * Partially sorts the mesh order between {@code low} and {@code high}, both inclusive, so that
+     * the mesh at {@code k} has no larger box center along the axis before it and no smaller after.
+     */
+    private void select(int low, int high, int k, int axis) {
+        int[] order = this.order;
+        while (low < high) {
+            double pivot = this.center(order[(low + high) >>> 1], axis);
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (this.center(order[i], axis) < pivot) {
+                    i++;
+                }
+                while (this.center(order[j], axis) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i++] = order[j];
+                    order[j--] = swap;
+                }
+            }
+            if (k <= j) {
+                high = j;
+            } else if (k >= i) {
+                low = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private double center(int mesh, int axis) {
+        return this.meshBoxes[mesh * 6 + axis] + this.meshBoxes[mesh * 6 + 3 + axis];
+    }
+
+    /**
+     * Recomputes the box of the node from its children or meshes, and returns whether it changed.
+     */
+    private boolean refitNode(int node) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        int count = this.nodeCounts[node];
+        double[] boxes = count < 0 ? this.meshBoxes : this.nodeBoxes;
+        int first = this.nodeFirst[node];
+        int end = count < 0 ? first - count : first + 2;
+        for (int i = first; i < end; i++) {
+            int offset = (count < 0 ? this.order[i] : i) * 6;
+            minX = Math.min(minX, boxes[offset]);
+            minY = Math.min(minY, boxes[offset + 1]);
+            minZ = Math.min(minZ, boxes[offset + 2]);
+            maxX = Math.max(maxX, boxes[offset + 3]);
+            maxY = Math.max(maxY, boxes[offset + 4]);
+            maxZ = Math.max(maxZ, boxes[offset + 5]);
+        }
+
+        double[] nodeBoxes = this.nodeBoxes;
+        int offset = node * 6;
+        if (nodeBoxes[offset] == minX && nodeBoxes[offset + 1] == minY && nodeBoxes[offset + 2] == minZ
+                && nodeBoxes[offset + 3] == maxX && nodeBoxes[offset + 4] == maxY && nodeBoxes[offset + 5] == maxZ) {
+            return false;
+        }
+        nodeBoxes[offset] = minX;
+        nodeBoxes[offset + 1] = minY;
+        nodeBoxes[offset + 2] = minZ;
+        nodeBoxes[offset + 3] = maxX;
+        nodeBoxes[offset + 4] = maxY;
+        nodeBoxes[offset + 5] = maxZ;
+        return true;
+    }
+
+    /**
+     * World space box around the mesh's model space box: the transformed center, extended by the
+     * model space extents along the absolute values of the matrix rows.
+     */
+    private void computeMeshBox(int index) {
+        Mesh mesh = this.meshes.get(index);
+        Bounds bounds = mesh.getBounds();
+        Mat4 m = mesh.getWorldTransform();
+
+        double centerX = bounds.centerX * m.m00 + bounds.centerY * m.m10 + bounds.centerZ * m.m20 + m.m30;
+        double centerY = bounds.centerX * m.m01 + bounds.centerY * m.m11 + bounds.centerZ * m.m21 + m.m31;
+        double centerZ = bounds.centerX * m.m02 + bounds.centerY * m.m12 + bounds.centerZ * m.m22 + m.m32;
+        double extentX = bounds.maxX - bounds.centerX;
+        double extentY = bounds.maxY - bounds.centerY;
+        double extentZ = bounds.maxZ - bounds.centerZ;
+        double x = extentX * Math.abs(m.m00) + extentY * Math.abs(m.m10) + extentZ * Math.abs(m.m20);
+        double y = extentX * Math.abs(m.m01) + extentY * Math.abs(m.m11) + extentZ * Math.abs(m.m21);
+        double z = extentX * Math.abs(m.m02) + extentY * Math.abs(m.m12) + extentZ * Math.abs(m.m22);
+
+        int offset = index * 6;
+        this.meshBoxes[offset] = centerX - x;
+        this.meshBoxes[offset + 1] = centerY - y;
+        this.meshBoxes[offset + 2] = centerZ - z;
+        this.meshBoxes[offset + 3] = centerX + x;
+        this.meshBoxes[offset + 4] = centerY + y;
+        this.meshBoxes[offset + 5] = centerZ + z;
+    }
+}
@@ -0,0 +1,17 @@
+package info.bahaa.softengine3d.engine;
+
+/**
+ * When {@link Device} shades the pixels of a frame.
+ */
+public enum ShadingMode {
+    /**
+     * Every fragment passing the depth test is shaded as it is rasterized, fragments covered by
+     * later triangles are shaded for nothing.
+     */
+    FORWARD,
+    /**
+     * Rasterization only stores the nearest triangle and its barycentric weights in a visibility
+     * buffer, a second pass then shades every covered pixel exactly once.
+     */
+    DEFERRED
+}
@@ -0,0 +1,56 @@
+package info.bahaa.softengine3d.engine;
+
+import info.bahaa.softengine3d.math.Mat4;
+
+/**
+ * Vectorized versions of the hottest {@link Device} loops. The implementation is built on the
+ * incubating Java Vector API and compiled separately, so it only exists at runtime when the JVM
+ * was started with {@code --add-modules jdk.incubator.vector} and the hardware has vectors wide
+ * enough to pay off. Every method computes exactly what the scalar code in {@link Device} does, in
+ * the same order of operations, so both paths render the same pixels.
+ */
+interface SimdKernel {
+
+    String IMPLEMENTATION = "info.bahaa.softengine3d.engine.VectorApiKernel";
+
+    /**
+     * False when the preferred vectors are too narrow and the API would fall back to emulation.
+     */
+    boolean isSupported();
+
+    /**
+     * Multiplies {@code count} points of a packed x, y, z stream, with an implicit w of one, by each
+     * of {@code matrixCount} row vector matrices packed 16 values apiece, row after row, as
+     * {@link Mat4#get(double[], int)} does. The homogeneous x, y, z, w results are stored four values
+     * per point, the points of every matrix in a block of their own. Every point is read once for
+     * all the matrices.
+     */
+    void transformPoints(double[] points, int count, double[] matrices, int matrixCount, double[] result);
+
+    /**
+     * Float depth test of up to {@link Device#DEPTH_TILE_SIZE} consecutive pixels within one depth
+     * tile row, with the depth stepped the same way {@link Device#testDepth} does. The whole tile row
+     * is read and written back, which requires rows to be a multiple of the tile size long.
+     *
+     * @return the passing pixel mask in the low byte, how many of them were clear before in the
+     * second byte, and bit 16 set if any of them replaced a depth at least as far as {@code tileMax}
+     */
+    int testDepthFloat(int[] depthBuffer, int index, int count, int coverage, float depth, float step,
+                       boolean reversed, int tileMax);
+
+    /**
+     * The Vector API kernel if this JVM can run it efficiently, null otherwise.
+     */
+    static SimdKernel load() {
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            return null;
+        }
+        try {
+            SimdKernel kernel = (SimdKernel) Class.forName(IMPLEMENTATION).getDeclaredConstructor().newInstance();
+            return kernel.isSupported() ? kernel : null;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Built without the vector source set, or running on a JVM too old for its classes
+            return null;
+        }
+    }
+}
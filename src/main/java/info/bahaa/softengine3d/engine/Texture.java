@@ -2,7 +2,7 @@ package info.bahaa.softengine3d.engine;
 
 import javax.imageio.ImageIO;
 import javax.vecmath.Color4f;
-import java.awt.image.DataBufferByte;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -11,29 +11,203 @@ import java.io.InputStream;
  */
 public class Texture {
 
-    private byte[] buffer;
+    private String name;
     private int width;
     private int height;
 
+    // Mip chain of packed ARGB texels, level 0 is the full resolution image
+    private int[][] levels;
+    private int[] levelWidths;
+    private int[] levelHeights;
+
+    /**
+     * @deprecated the dimensions are taken from the decoded image, use {@link #Texture(String, InputStream)}
+     */
+    @Deprecated
     public Texture(InputStream imageStream, int width, int height) throws IOException {
-        this.buffer = ((DataBufferByte) ImageIO.read(imageStream).getData().getDataBuffer()).getData();
-        this.width = width;
-        this.height = height;
+        this(null, imageStream);
+    }
+
+    /**
+     * @deprecated the dimensions are taken from the decoded image, use {@link #Texture(String, InputStream)}
+     */
+    @Deprecated
+    public Texture(String name, InputStream imageStream, int width, int height) throws IOException {
+        this(name, imageStream);
+    }
+
+    public Texture(String name, InputStream imageStream) throws IOException {
+        BufferedImage image = ImageIO.read(imageStream);
+        if (image == null) {
+            throw new IOException(String.format("Unsupported image format for texture %s", name));
+        }
+
+        this.name = name;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+
+        int[] texels = image.getRGB(0, 0, this.width, this.height, null, 0, this.width);
+        for (int i = 0; i < texels.length; i++) {
+            texels[i] |= 0xFF000000;
+        }
+        this.buildMipChain(texels);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public int getLevelCount() {
+        return this.levels.length;
+    }
+
+    public long getSizeInBytes() {
+        long size = 0;
+        for (int[] level : this.levels) {
+            size += level.length * 4L;
+        }
+        return size;
     }
 
     public Color4f map(double tu, double tv) {
-        if (this.buffer == null) {
-            return new Color4f(1, 1, 1, 1);
+        int texel = this.sample(tu, tv);
+
+        return new Color4f(((texel >> 16) & 0xFF) / 255.0f, ((texel >> 8) & 0xFF) / 255.0f, (texel & 0xFF) / 255.0f, 1.f);
+    }
+
+    /**
+     * Same lookup as {@link #map(double, double)} but returns the texel as a packed ARGB int, so
+     * it can be used per pixel without allocating.
+     */
+    public int sample(double tu, double tv) {
+        return this.sample(0, tu, tv);
+    }
+
+    /**
+     * Picks the mip level for the given screen space derivatives of the texture coordinates, the
+     * change of u and v for one pixel step along x and along y.
+     */
+    public int selectLevel(double dudx, double dvdx, double dudy, double dvdy) {
+        double ux = dudx * this.width;
+        double vx = dvdx * this.height;
+        double uy = dudy * this.width;
+        double vy = dvdy * this.height;
+
+        // Texels covered by a pixel along its longest axis, squared: level = floor(log2(rho))
+        double rho2 = Math.max(ux * ux + vx * vx, uy * uy + vy * vy);
+        if (!(rho2 >= 4.0)) {
+            return 0;
         }
+        return Math.min(Math.getExponent(rho2) >> 1, this.levels.length - 1);
+    }
+
+    /**
+     * Nearest texel of the given mip level, with the coordinates wrapped around and negative ones
+     * mirrored around zero.
+     */
+    public int sample(int level, double tu, double tv) {
+        int levelWidth = this.levelWidths[level];
+        int levelHeight = this.levelHeights[level];
+
+        int u = wrap((int) (tu * levelWidth), levelWidth);
+        int v = wrap((int) (tv * levelHeight), levelHeight);
+
+        return this.levels[level][u + v * levelWidth];
+    }
+
+    /**
+     * Bilinear blend of the four texels around the coordinates in the given mip level.
+     */
+    public int sampleBilinear(int level, double tu, double tv) {
+        int levelWidth = this.levelWidths[level];
+        int levelHeight = this.levelHeights[level];
+        int[] texels = this.levels[level];
+
+        // Texel centers are at half coordinates, the weights are kept with 8 bits of precision
+        double x = tu * levelWidth - 0.5;
+        double y = tv * levelHeight - 0.5;
+        int x0 = (int) Math.floor(x);
+        int y0 = (int) Math.floor(y);
+        int fx = (int) ((x - x0) * 256);
+        int fy = (int) ((y - y0) * 256);
 
-        int u = Math.abs((int) (tu * width) % width);
-        int v = Math.abs((int) (tv * height) % height);
+        int u0 = wrap(x0, levelWidth);
+        int u1 = wrap(x0 + 1, levelWidth);
+        int row0 = wrap(y0, levelHeight) * levelWidth;
+        int row1 = wrap(y0 + 1, levelHeight) * levelWidth;
 
-        int pos = (u + v * width) * 3;
-        byte b = this.buffer[pos];
-        byte g = this.buffer[pos + 1];
-        byte r = this.buffer[pos + 2];
+        int top = lerp(texels[row0 + u0], texels[row0 + u1], fx);
+        int bottom = lerp(texels[row1 + u0], texels[row1 + u1], fx);
+        return lerp(top, bottom, fy);
+    }
+
+    private static int wrap(int coordinate, int size) {
+        // Negative coordinates mirror around zero, as they always did with Math.abs(u % size), and
+        // power of two sizes wrap with a mask
+        int magnitude = coordinate < 0 ? -coordinate : coordinate;
+        if ((size & (size - 1)) == 0) {
+            return magnitude & (size - 1);
+        }
+        return magnitude % size;
+    }
+
+    private static int lerp(int a, int b, int weight) {
+        // Red and blue, then green, each channel blended in its own byte lane
+        int rb = ((a & 0xFF00FF) * (256 - weight) + (b & 0xFF00FF) * weight) >>> 8;
+        int g = ((a & 0x00FF00) * (256 - weight) + (b & 0x00FF00) * weight) >>> 8;
+        return 0xFF000000 | (rb & 0xFF00FF) | (g & 0x00FF00);
+    }
+
+    private void buildMipChain(int[] texels) {
+        int count = 1;
+        for (int size = Math.max(this.width, this.height); size > 1; size >>= 1) {
+            count++;
+        }
+
+        this.levels = new int[count][];
+        this.levelWidths = new int[count];
+        this.levelHeights = new int[count];
+        this.levels[0] = texels;
+        this.levelWidths[0] = this.width;
+        this.levelHeights[0] = this.height;
+
+        // Every level averages 2x2 texel boxes of the previous one
+        for (int level = 1; level < count; level++) {
+            int[] source = this.levels[level - 1];
+            int sourceWidth = this.levelWidths[level - 1];
+            int sourceHeight = this.levelHeights[level - 1];
+            int levelWidth = Math.max(1, sourceWidth >> 1);
+            int levelHeight = Math.max(1, sourceHeight >> 1);
+            int[] target = new int[levelWidth * levelHeight];
+
+            for (int y = 0; y < levelHeight; y++) {
+                int row0 = Math.min(y * 2, sourceHeight - 1) * sourceWidth;
+                int row1 = Math.min(y * 2 + 1, sourceHeight - 1) * sourceWidth;
+                for (int x = 0; x < levelWidth; x++) {
+                    int x0 = Math.min(x * 2, sourceWidth - 1);
+                    int x1 = Math.min(x * 2 + 1, sourceWidth - 1);
+                    target[x + y * levelWidth] = average(source[row0 + x0], source[row0 + x1], source[row1 + x0], source[row1 + x1]);
+                }
+            }
+
+            this.levels[level] = target;
+            this.levelWidths[level] = levelWidth;
+            this.levelHeights[level] = levelHeight;
+        }
+    }
 
-        return new Color4f(r / 255.0f, g / 255.0f, b / 255.0f, 1.f);
+    private static int average(int a, int b, int c, int d) {
+        int r = (((a >> 16) & 0xFF) + ((b >> 16) & 0xFF) + ((c >> 16) & 0xFF) + ((d >> 16) & 0xFF) + 2) >> 2;
+        int g = (((a >> 8) & 0xFF) + ((b >> 8) & 0xFF) + ((c >> 8) & 0xFF) + ((d >> 8) & 0xFF) + 2) >> 2;
+        int bl = ((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) >> 2;
+        return 0xFF000000 | (r << 16) | (g << 8) | bl;
     }
 }
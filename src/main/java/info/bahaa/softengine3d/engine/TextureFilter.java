@@ -0,0 +1,9 @@
+package info.bahaa.softengine3d.engine;
+
+/**
+ * How {@link Device} reads texels within the selected mip level.
+ */
+public enum TextureFilter {
+    NEAREST,
+    BILINEAR
+}
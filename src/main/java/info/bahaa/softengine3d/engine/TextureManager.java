@@ -0,0 +1,141 @@
+package info.bahaa.softengine3d.engine;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shares decoded textures between meshes. Textures are looked up by name as classpath resources
+ * and decoded on a background pool, so a loader can request them as soon as it reads the
+ * materials and collect them once the geometry is done.
+ * <p>
+ * The manager keeps the most recently requested textures up to a memory budget. Textures evicted
+ * past the budget are only tracked weakly: they stay shared while meshes still use them and are
+ * decoded again if requested after being garbage collected.
+ */
+public class TextureManager {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+    private static final TextureManager SHARED = new TextureManager(DEFAULT_MEMORY_BUDGET);
+
+    private final ExecutorService decoders;
+    private long memoryBudget;
+    private long memoryUsage;
+
+    private final LinkedHashMap<String, Texture> textures = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, WeakReference<Texture>> evicted = new HashMap<>();
+    private final Map<String, CompletableFuture<Texture>> pending = new HashMap<>();
+
+    public TextureManager(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        this.decoders = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "texture-decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static TextureManager getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Starts decoding the texture unless it is already loaded or being decoded.
+     */
+    public synchronized CompletableFuture<Texture> request(String name) {
+        Texture texture = this.textures.get(name);
+        if (texture == null) {
+            WeakReference<Texture> reference = this.evicted.remove(name);
+            texture = reference != null ? reference.get() : null;
+            if (texture != null) {
+                this.store(name, texture);
+            }
+        }
+        if (texture != null) {
+            return CompletableFuture.completedFuture(texture);
+        }
+
+        CompletableFuture<Texture> future = this.pending.get(name);
+        if (future == null) {
+            future = CompletableFuture.supplyAsync(() -> this.decode(name), this.decoders);
+            this.pending.put(name, future);
+            future.whenComplete((decoded, failure) -> this.completed(name, decoded));
+        }
+        return future;
+    }
+
+    /**
+     * Returns the texture, waiting for it to be decoded if needed.
+     */
+    public Texture get(String name) throws IOException {
+        try {
+            return this.request(name).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException(String.format("Failed to load texture %s", name), e.getCause());
+        }
+    }
+
+    public synchronized long getMemoryUsage() {
+        return this.memoryUsage;
+    }
+
+    public synchronized long getMemoryBudget() {
+        return this.memoryBudget;
+    }
+
+    public synchronized void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        this.evict();
+    }
+
+    private Texture decode(String name) {
+        try (InputStream inputStream = Mesh.class.getResourceAsStream(String.format("/%s", name))) {
+            if (inputStream == null) {
+                throw new FileNotFoundException(String.format("Texture %s not found", name));
+            }
+            return new Texture(name, inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private synchronized void completed(String name, Texture texture) {
+        this.pending.remove(name);
+        if (texture != null) {
+            this.store(name, texture);
+        }
+    }
+
+    private void store(String name, Texture texture) {
+        this.textures.put(name, texture);
+        this.memoryUsage += texture.getSizeInBytes();
+        this.evict();
+    }
+
+    private void evict() {
+        this.evicted.values().removeIf(reference -> reference.get() == null);
+
+        // The most recently used texture is kept even when it is larger than the whole budget
+        Iterator<Map.Entry<String, Texture>> iterator = this.textures.entrySet().iterator();
+        while (this.memoryUsage > this.memoryBudget && this.textures.size() > 1) {
+            Map.Entry<String, Texture> eldest = iterator.next();
+            this.memoryUsage -= eldest.getValue().getSizeInBytes();
+            this.evicted.put(eldest.getKey(), new WeakReference<>(eldest.getValue()));
+            iterator.remove();
+        }
+    }
+}
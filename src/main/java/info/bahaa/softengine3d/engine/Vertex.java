@@ -2,6 +2,7 @@ package info.bahaa.softengine3d.engine;
 
 import javax.vecmath.Vector2d;
 import javax.vecmath.Vector3d;
+import javax.vecmath.Vector4d;
 
 /**
  * Created by bahaazaid on 3/18/2016.
@@ -12,6 +13,12 @@ public class Vertex {
     public Vector3d normal;
     public Vector3d worldCoordinates;
     public Vector2d textureCoordinates;
+    // Homogeneous clip space position, before the divide by w, once projected
+    public Vector4d clipCoordinates = new Vector4d();
+    // Reciprocal of the clip space w once projected, 1 for untransformed vertices
+    public double inverseW = 1.0;
+    // Sum of the lights on the vertex once projected, full brightness for untransformed vertices
+    public float intensity = 1.f;
 
     public Vertex(Vector3d coordinates, Vector3d normal, Vector3d worldCoordinates, Vector2d textureCoordinates) {
         this.coordinates = coordinates;
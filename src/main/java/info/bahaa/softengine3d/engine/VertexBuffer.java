@@ -0,0 +1,47 @@
+package info.bahaa.softengine3d.engine;
+
+import javax.vecmath.Vector2d;
+import javax.vecmath.Vector3d;
+
+/**
+ * Reusable storage for the vertices transformed during a frame. Every mesh reserves a range of
+ * slots, one per mesh vertex, so faces can reach their transformed vertices by adding the range
+ * base to the face indices of its {@link MeshGeometry}. Slots are recycled frame to frame.
+ */
+public class VertexBuffer {
+
+    private Vertex[] vertices = new Vertex[0];
+    private int size;
+
+    public void reset() {
+        this.size = 0;
+    }
+
+    public int allocate(int count) {
+        int base = this.size;
+        this.ensureCapacity(base + count);
+        this.size += count;
+        return base;
+    }
+
+    public Vertex get(int index) {
+        return this.vertices[index];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= this.vertices.length) {
+            return;
+        }
+
+        Vertex[] grown = new Vertex[Math.max(capacity, this.vertices.length * 2)];
+        System.arraycopy(this.vertices, 0, grown, 0, this.vertices.length);
+        for (int i = this.vertices.length; i < grown.length; i++) {
+            grown[i] = new Vertex(new Vector3d(), new Vector3d(), new Vector3d(), new Vector2d());
+        }
+        this.vertices = grown;
+    }
+}
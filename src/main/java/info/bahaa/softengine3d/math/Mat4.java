@@ -0,0 +1,327 @@
+package info.bahaa.softengine3d.math;
+
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Tuple3d;
+
+/**
+ * Mutable single precision 4x4 matrix in the row vector convention of {@link VecMathUtils}: points
+ * are multiplied from the left and the translation sits in the last row. Every operation writes into
+ * the matrix it is called on, or into a given result, so the render loop never allocates.
+ */
+public class Mat4 {
+
+    public float m00, m01, m02, m03;
+    public float m10, m11, m12, m13;
+    public float m20, m21, m22, m23;
+    public float m30, m31, m32, m33;
+
+    /**
+     * Creates an identity matrix.
+     */
+    public Mat4() {
+        this.setIdentity();
+    }
+
+    public Mat4 set(float m00, float m01, float m02, float m03,
+                    float m10, float m11, float m12, float m13,
+                    float m20, float m21, float m22, float m23,
+                    float m30, float m31, float m32, float m33) {
+        this.m00 = m00;
+        this.m01 = m01;
+        this.m02 = m02;
+        this.m03 = m03;
+        this.m10 = m10;
+        this.m11 = m11;
+        this.m12 = m12;
+        this.m13 = m13;
+        this.m20 = m20;
+        this.m21 = m21;
+        this.m22 = m22;
+        this.m23 = m23;
+        this.m30 = m30;
+        this.m31 = m31;
+        this.m32 = m32;
+        this.m33 = m33;
+        return this;
+    }
+
+    public Mat4 set(Mat4 m) {
+        return this.set(m.m00, m.m01, m.m02, m.m03, m.m10, m.m11, m.m12, m.m13,
+                m.m20, m.m21, m.m22, m.m23, m.m30, m.m31, m.m32, m.m33);
+    }
+
+    /**
+     * Narrows a double precision vecmath matrix.
+     */
+    public Mat4 set(Matrix4d m) {
+        return this.set((float) m.m00, (float) m.m01, (float) m.m02, (float) m.m03,
+                (float) m.m10, (float) m.m11, (float) m.m12, (float) m.m13,
+                (float) m.m20, (float) m.m21, (float) m.m22, (float) m.m23,
+                (float) m.m30, (float) m.m31, (float) m.m32, (float) m.m33);
+    }
+
+    /**
+     * Copies the matrix row after row into 16 values of {@code result} from {@code offset} on.
+     */
+    public double[] get(double[] result, int offset) {
+        result[offset] = this.m00;
+        result[offset + 1] = this.m01;
+        result[offset + 2] = this.m02;
+        result[offset + 3] = this.m03;
+        result[offset + 4] = this.m10;
+        result[offset + 5] = this.m11;
+        result[offset + 6] = this.m12;
+        result[offset + 7] = this.m13;
+        result[offset + 8] = this.m20;
+        result[offset + 9] = this.m21;
+        result[offset + 10] = this.m22;
+        result[offset + 11] = this.m23;
+        result[offset + 12] = this.m30;
+        result[offset + 13] = this.m31;
+        result[offset + 14] = this.m32;
+        result[offset + 15] = this.m33;
+        return result;
+    }
+
+    public Matrix4d get(Matrix4d result) {
+        result.m00 = this.m00;
+        result.m01 = this.m01;
+        result.m02 = this.m02;
+        result.m03 = this.m03;
+        result.m10 = this.m10;
+        result.m11 = this.m11;
+        result.m12 = this.m12;
+        result.m13 = this.m13;
+        result.m20 = this.m20;
+        result.m21 = this.m21;
+        result.m22 = this.m22;
+        result.m23 = this.m23;
+        result.m30 = this.m30;
+        result.m31 = this.m31;
+        result.m32 = this.m32;
+        result.m33 = this.m33;
+        return result;
+    }
+
+    public Mat4 setIdentity() {
+        return this.set(1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1);
+    }
+
+    public Mat4 setZero() {
+        return this.set(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * this = a * b, applying a first and then b. Either of them may be this matrix.
+     */
+    public Mat4 mul(Mat4 a, Mat4 b) {
+        return this.set(
+                a.m00 * b.m00 + a.m01 * b.m10 + a.m02 * b.m20 + a.m03 * b.m30,
+                a.m00 * b.m01 + a.m01 * b.m11 + a.m02 * b.m21 + a.m03 * b.m31,
+                a.m00 * b.m02 + a.m01 * b.m12 + a.m02 * b.m22 + a.m03 * b.m32,
+                a.m00 * b.m03 + a.m01 * b.m13 + a.m02 * b.m23 + a.m03 * b.m33,
+                a.m10 * b.m00 + a.m11 * b.m10 + a.m12 * b.m20 + a.m13 * b.m30,
+                a.m10 * b.m01 + a.m11 * b.m11 + a.m12 * b.m21 + a.m13 * b.m31,
+                a.m10 * b.m02 + a.m11 * b.m12 + a.m12 * b.m22 + a.m13 * b.m32,
+                a.m10 * b.m03 + a.m11 * b.m13 + a.m12 * b.m23 + a.m13 * b.m33,
+                a.m20 * b.m00 + a.m21 * b.m10 + a.m22 * b.m20 + a.m23 * b.m30,
+                a.m20 * b.m01 + a.m21 * b.m11 + a.m22 * b.m21 + a.m23 * b.m31,
+                a.m20 * b.m02 + a.m21 * b.m12 + a.m22 * b.m22 + a.m23 * b.m32,
+                a.m20 * b.m03 + a.m21 * b.m13 + a.m22 * b.m23 + a.m23 * b.m33,
+                a.m30 * b.m00 + a.m31 * b.m10 + a.m32 * b.m20 + a.m33 * b.m30,
+                a.m30 * b.m01 + a.m31 * b.m11 + a.m32 * b.m21 + a.m33 * b.m31,
+                a.m30 * b.m02 + a.m31 * b.m12 + a.m32 * b.m22 + a.m33 * b.m32,
+                a.m30 * b.m03 + a.m31 * b.m13 + a.m32 * b.m23 + a.m33 * b.m33);
+    }
+
+    /**
+     * this = this * m
+     */
+    public Mat4 mul(Mat4 m) {
+        return this.mul(this, m);
+    }
+
+    /**
+     * this = the inverse of m, for affine matrices only: the last column has to be 0, 0, 0, 1. m
+     * may be this matrix.
+     */
+    public Mat4 invertAffine(Mat4 m) {
+        // Inverse of the upper 3x3 by cofactors, the translation is then moved back through it
+        float c00 = m.m11 * m.m22 - m.m12 * m.m21;
+        float c01 = m.m02 * m.m21 - m.m01 * m.m22;
+        float c02 = m.m01 * m.m12 - m.m02 * m.m11;
+        float c10 = m.m12 * m.m20 - m.m10 * m.m22;
+        float c11 = m.m00 * m.m22 - m.m02 * m.m20;
+        float c12 = m.m02 * m.m10 - m.m00 * m.m12;
+        float c20 = m.m10 * m.m21 - m.m11 * m.m20;
+        float c21 = m.m01 * m.m20 - m.m00 * m.m21;
+        float c22 = m.m00 * m.m11 - m.m01 * m.m10;
+        float inverseDeterminant = 1.0f / (m.m00 * c00 + m.m01 * c10 + m.m02 * c20);
+        c00 *= inverseDeterminant;
+        c01 *= inverseDeterminant;
+        c02 *= inverseDeterminant;
+        c10 *= inverseDeterminant;
+        c11 *= inverseDeterminant;
+        c12 *= inverseDeterminant;
+        c20 *= inverseDeterminant;
+        c21 *= inverseDeterminant;
+        c22 *= inverseDeterminant;
+        float x = m.m30;
+        float y = m.m31;
+        float z = m.m32;
+        return this.set(
+                c00, c01, c02, 0,
+                c10, c11, c12, 0,
+                c20, c21, c22, 0,
+                -(x * c00 + y * c10 + z * c20), -(x * c01 + y * c11 + z * c21), -(x * c02 + y * c12 + z * c22), 1);
+    }
+
+    public Mat4 setToRotationYawPitchRoll(float yaw, float pitch, float roll) {
+        // Produces a quaternion from Euler angles in the z-y-x orientation (Tait-Bryan angles)
+        float sinRoll = (float) Math.sin(roll * 0.5f);
+        float cosRoll = (float) Math.cos(roll * 0.5f);
+        float sinPitch = (float) Math.sin(pitch * 0.5f);
+        float cosPitch = (float) Math.cos(pitch * 0.5f);
+        float sinYaw = (float) Math.sin(yaw * 0.5f);
+        float cosYaw = (float) Math.cos(yaw * 0.5f);
+
+        float x = (cosYaw * sinPitch * cosRoll) + (sinYaw * cosPitch * sinRoll);
+        float y = (sinYaw * cosPitch * cosRoll) - (cosYaw * sinPitch * sinRoll);
+        float z = (cosYaw * cosPitch * sinRoll) - (sinYaw * sinPitch * cosRoll);
+        float w = (cosYaw * cosPitch * cosRoll) + (sinYaw * sinPitch * sinRoll);
+
+        float xx = x * x;
+        float yy = y * y;
+        float zz = z * z;
+        float xy = x * y;
+        float zw = z * w;
+        float zx = z * x;
+        float yw = y * w;
+        float yz = y * z;
+        float xw = x * w;
+
+        return this.set(
+                1.f - (2.f * (yy + zz)), 2.f * (xy + zw), 2.f * (zx - yw), 0,
+                2.f * (xy - zw), 1.f - (2.f * (zz + xx)), 2.f * (yz + xw), 0,
+                2.f * (zx + yw), 2.f * (yz - xw), 1.f - (2.f * (yy + xx)), 0,
+                0, 0, 0, 1);
+    }
+
+    public Mat4 setToTranslation(float x, float y, float z) {
+        return this.set(1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, x, y, z, 1);
+    }
+
+    /**
+     * Left-handed view matrix looking from {@code eye} towards {@code target}.
+     */
+    public Mat4 setToLookAt(Vec3 eye, Vec3 target, Vec3 up) {
+        return this.setToLookAt(eye.x, eye.y, eye.z, target.x, target.y, target.z, up.x, up.y, up.z);
+    }
+
+    public Mat4 setToLookAt(float eyeX, float eyeY, float eyeZ, float targetX, float targetY, float targetZ,
+                            float upX, float upY, float upZ) {
+        float vzx = targetX - eyeX;
+        float vzy = targetY - eyeY;
+        float vzz = targetZ - eyeZ;
+        float norm = 1.f / (float) Math.sqrt(vzx * vzx + vzy * vzy + vzz * vzz);
+        vzx *= norm;
+        vzy *= norm;
+        vzz *= norm;
+
+        // up x vz
+        float vxx = upY * vzz - upZ * vzy;
+        float vxy = vzx * upZ - vzz * upX;
+        float vxz = upX * vzy - upY * vzx;
+        norm = 1.f / (float) Math.sqrt(vxx * vxx + vxy * vxy + vxz * vxz);
+        vxx *= norm;
+        vxy *= norm;
+        vxz *= norm;
+
+        // vz x vx, already unit length as both are
+        float vyx = vzy * vxz - vzz * vxy;
+        float vyy = vxx * vzz - vxz * vzx;
+        float vyz = vzx * vxy - vzy * vxx;
+
+        float ex = -(vxx * eyeX + vxy * eyeY + vxz * eyeZ);
+        float ey = -(vyx * eyeX + vyy * eyeY + vyz * eyeZ);
+        float ez = -(vzx * eyeX + vzy * eyeY + vzz * eyeZ);
+
+        return this.set(
+                vxx, vyx, vzx, 0,
+                vxy, vyy, vzy, 0,
+                vxz, vyz, vzz, 0,
+                ex, ey, ez, 1);
+    }
+
+    /**
+     * Left-handed perspective projection with a vertical field of view in radians, mapping depth
+     * from zero at {@code zNear} to one at {@code zFar}.
+     */
+    public Mat4 setToPerspectiveFov(float fov, float aspect, float zNear, float zFar) {
+        float tan = 1.f / (float) Math.tan(fov * 0.5f);
+        return this.set(
+                tan / aspect, 0, 0, 0,
+                0, tan, 0, 0,
+                0, 0, -zFar / (zNear - zFar), 1,
+                0, 0, (zNear * zFar) / (zNear - zFar), 0);
+    }
+
+    /**
+     * Transforms a point, dividing by the resulting w.
+     */
+    public Vec3 transformPoint(float x, float y, float z, Vec3 result) {
+        float w = (x * this.m03) + (y * this.m13) + (z * this.m23) + this.m33;
+        return result.set(
+                ((x * this.m00) + (y * this.m10) + (z * this.m20) + this.m30) / w,
+                ((x * this.m01) + (y * this.m11) + (z * this.m21) + this.m31) / w,
+                ((x * this.m02) + (y * this.m12) + (z * this.m22) + this.m32) / w);
+    }
+
+    public Vec3 transformPoint(Vec3 point, Vec3 result) {
+        return this.transformPoint(point.x, point.y, point.z, result);
+    }
+
+    /**
+     * Transforms a double precision point into a vecmath tuple, dividing by the resulting w. Only
+     * the matrix itself is single precision.
+     */
+    public <T extends Tuple3d> T transformPoint(double x, double y, double z, T result) {
+        double w = (x * this.m03) + (y * this.m13) + (z * this.m23) + this.m33;
+        result.set(
+                ((x * this.m00) + (y * this.m10) + (z * this.m20) + this.m30) / w,
+                ((x * this.m01) + (y * this.m11) + (z * this.m21) + this.m31) / w,
+                ((x * this.m02) + (y * this.m12) + (z * this.m22) + this.m32) / w);
+        return result;
+    }
+
+    /**
+     * Transforms a direction, ignoring the translation.
+     */
+    public Vec3 transformNormal(float x, float y, float z, Vec3 result) {
+        return result.set(
+                (x * this.m00) + (y * this.m10) + (z * this.m20),
+                (x * this.m01) + (y * this.m11) + (z * this.m21),
+                (x * this.m02) + (y * this.m12) + (z * this.m22));
+    }
+
+    public Vec3 transformNormal(Vec3 normal, Vec3 result) {
+        return this.transformNormal(normal.x, normal.y, normal.z, result);
+    }
+
+    /**
+     * Transforms a double precision direction into a vecmath tuple, ignoring the translation.
+     */
+    public <T extends Tuple3d> T transformNormal(double x, double y, double z, T result) {
+        result.set(
+                (x * this.m00) + (y * this.m10) + (z * this.m20),
+                (x * this.m01) + (y * this.m11) + (z * this.m21),
+                (x * this.m02) + (y * this.m12) + (z * this.m22));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Mat4(%f, %f, %f, %f; %f, %f, %f, %f; %f, %f, %f, %f; %f, %f, %f, %f)",
+                m00, m01, m02, m03, m10, m11, m12, m13, m20, m21, m22, m23, m30, m31, m32, m33);
+    }
+}
@@ -0,0 +1,74 @@
+package info.bahaa.softengine3d.math;
+
+import javax.vecmath.Tuple3d;
+
+/**
+ * Mutable single precision 3D vector. Operations store their result in the vector they are called
+ * on and return it, so vectors can be reused instead of allocated.
+ */
+public class Vec3 {
+
+    public float x, y, z;
+
+    public Vec3() {
+    }
+
+    public Vec3(float x, float y, float z) {
+        this.set(x, y, z);
+    }
+
+    public Vec3 set(float x, float y, float z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    public Vec3 set(Vec3 vector) {
+        return this.set(vector.x, vector.y, vector.z);
+    }
+
+    /**
+     * Narrows a double precision vecmath tuple.
+     */
+    public Vec3 set(Tuple3d tuple) {
+        return this.set((float) tuple.x, (float) tuple.y, (float) tuple.z);
+    }
+
+    public <T extends Tuple3d> T get(T result) {
+        result.set(this.x, this.y, this.z);
+        return result;
+    }
+
+    /**
+     * this = a - b
+     */
+    public Vec3 sub(Vec3 a, Vec3 b) {
+        return this.set(a.x - b.x, a.y - b.y, a.z - b.z);
+    }
+
+    /**
+     * this = a x b, either of them may be this vector.
+     */
+    public Vec3 cross(Vec3 a, Vec3 b) {
+        return this.set(a.y * b.z - a.z * b.y, a.z * b.x - a.x * b.z, a.x * b.y - a.y * b.x);
+    }
+
+    public float dot(Vec3 vector) {
+        return this.x * vector.x + this.y * vector.y + this.z * vector.z;
+    }
+
+    public float length() {
+        return (float) Math.sqrt(this.dot(this));
+    }
+
+    public Vec3 normalize() {
+        float norm = 1.f / this.length();
+        return this.set(this.x * norm, this.y * norm, this.z * norm);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Vec3(%f, %f, %f)", x, y, z);
+    }
+}
@@ -9,6 +9,10 @@ import javax.vecmath.Vector3d;
 public class VecMathUtils {
 
     public static Matrix4d rotationYawPitchRoll(double yaw, double pitch, double roll) {
+        return rotationYawPitchRoll(yaw, pitch, roll, new Matrix4d());
+    }
+
+    public static Matrix4d rotationYawPitchRoll(double yaw, double pitch, double roll, Matrix4d result) {
         // Produces a quaternion from Euler angles in the z-y-x orientation (Tait-Bryan angles)
         double halfRoll = roll * 0.5;
         double halfPitch = pitch * 0.5;
@@ -35,71 +39,139 @@ public class VecMathUtils {
         double yz = y * z;
         double xw = x * w;
 
-        return new Matrix4d(
-                1.0 - (2.0 * (yy + zz)), 2.0 * (xy + zw), 2.0 * (zx - yw), 0,
-                2.0 * (xy - zw), 1.0 - (2.0 * (zz + xx)), 2.0 * (yz + xw), 0,
-                2.0 * (zx + yw), 2.0 * (yz - xw), 1.0 - (2.0 * (yy + xx)), 0,
-                0, 0, 0, 1
-        );
+        result.m00 = 1.0 - (2.0 * (yy + zz));
+        result.m01 = 2.0 * (xy + zw);
+        result.m02 = 2.0 * (zx - yw);
+        result.m03 = 0.0;
+        result.m10 = 2.0 * (xy - zw);
+        result.m11 = 1.0 - (2.0 * (zz + xx));
+        result.m12 = 2.0 * (yz + xw);
+        result.m13 = 0.0;
+        result.m20 = 2.0 * (zx + yw);
+        result.m21 = 2.0 * (yz - xw);
+        result.m22 = 1.0 - (2.0 * (yy + xx));
+        result.m23 = 0.0;
+        result.m30 = 0.0;
+        result.m31 = 0.0;
+        result.m32 = 0.0;
+        result.m33 = 1.0;
+        return result;
     }
 
     public static Matrix4d translation(double x, double y, double z) {
-        return new Matrix4d(
-                1.0, 0.0, 0.0, 0.0,
-                0.0, 1.0, 0.0, 0.0,
-                0.0, 0.0, 1.0, 0.0,
-                x, y, z, 1.0
-        );
+        return translation(x, y, z, new Matrix4d());
     }
 
-    public static Matrix4d lookAt(Vector3d eye, Vector3d target, Vector3d up) {
-        Vector3d vz = new Vector3d();
-        vz.sub(target, eye);
-        vz.normalize();
+    public static Matrix4d translation(double x, double y, double z, Matrix4d result) {
+        result.setIdentity();
+        result.m30 = x;
+        result.m31 = y;
+        result.m32 = z;
+        return result;
+    }
 
-        Vector3d vx = new Vector3d();
-        vx.cross(up, vz);
-        vx.normalize();
+    public static Matrix4d lookAt(Vector3d eye, Vector3d target, Vector3d up) {
+        return lookAt(eye, target, up, new Matrix4d());
+    }
 
-        Vector3d vy = new Vector3d();
-        vy.cross(vz, vx);
-        vy.normalize(); // not needed
+    public static Matrix4d lookAt(Vector3d eye, Vector3d target, Vector3d up, Matrix4d result) {
+        double vzx = target.x - eye.x;
+        double vzy = target.y - eye.y;
+        double vzz = target.z - eye.z;
+        double norm = 1.0 / Math.sqrt(vzx * vzx + vzy * vzy + vzz * vzz);
+        vzx *= norm;
+        vzy *= norm;
+        vzz *= norm;
+
+        // up x vz
+        double vxx = up.y * vzz - up.z * vzy;
+        double vxy = vzx * up.z - vzz * up.x;
+        double vxz = up.x * vzy - up.y * vzx;
+        norm = 1.0 / Math.sqrt(vxx * vxx + vxy * vxy + vxz * vxz);
+        vxx *= norm;
+        vxy *= norm;
+        vxz *= norm;
+
+        // vz x vx
+        double vyx = vzy * vxz - vzz * vxy;
+        double vyy = vxx * vzz - vxz * vzx;
+        double vyz = vzx * vxy - vzy * vxx;
+        norm = 1.0 / Math.sqrt(vyx * vyx + vyy * vyy + vyz * vyz); // not needed
+        vyx *= norm;
+        vyy *= norm;
+        vyz *= norm;
 
         // Eye angles
-        double ex = -vx.dot(eye);
-        double ey = -vy.dot(eye);
-        double ez = -vz.dot(eye);
-
-        return new Matrix4d(vx.x, vy.x, vz.x, 0.0,
-                vx.y, vy.y, vz.y, 0.0,
-                vx.z, vy.z, vz.z, 0.0,
-                ex, ey, ez, 1.0);
+        double ex = -(vxx * eye.x + vxy * eye.y + vxz * eye.z);
+        double ey = -(vyx * eye.x + vyy * eye.y + vyz * eye.z);
+        double ez = -(vzx * eye.x + vzy * eye.y + vzz * eye.z);
+
+        result.m00 = vxx;
+        result.m01 = vyx;
+        result.m02 = vzx;
+        result.m03 = 0.0;
+        result.m10 = vxy;
+        result.m11 = vyy;
+        result.m12 = vzy;
+        result.m13 = 0.0;
+        result.m20 = vxz;
+        result.m21 = vyz;
+        result.m22 = vzz;
+        result.m23 = 0.0;
+        result.m30 = ex;
+        result.m31 = ey;
+        result.m32 = ez;
+        result.m33 = 1.0;
+        return result;
     }
 
     public static Matrix4d perspectiveFov(double fov, double aspect, double zNear, double zFar) {
+        return perspectiveFov(fov, aspect, zNear, zFar, new Matrix4d());
+    }
+
+    public static Matrix4d perspectiveFov(double fov, double aspect, double zNear, double zFar, Matrix4d result) {
         double tan = 1.0 / (Math.tan(fov * 0.5));
-        return new Matrix4d(
-                tan / aspect, 0.0, 0.0, 0.0,
-                0.0, tan, 0.0, 0.0,
-                0.0, 0.0, -zFar / (zNear - zFar), 1.0,
-                0.0, 0.0, (zNear * zFar) / (zNear - zFar), 0.0
-        );
+        result.setZero();
+        result.m00 = tan / aspect;
+        result.m11 = tan;
+        result.m22 = -zFar / (zNear - zFar);
+        result.m23 = 1.0;
+        result.m32 = (zNear * zFar) / (zNear - zFar);
+        return result;
     }
 
     public static Vector3d transformCoordinates(Vector3d vector, Matrix4d transform) {
-        double x = (vector.x * transform.m00) + (vector.y * transform.m10) + (vector.z * transform.m20) + transform.m30;
-        double y = (vector.x * transform.m01) + (vector.y * transform.m11) + (vector.z * transform.m21) + transform.m31;
-        double z = (vector.x * transform.m02) + (vector.y * transform.m12) + (vector.z * transform.m22) + transform.m32;
-        double w = (vector.x * transform.m03) + (vector.y * transform.m13) + (vector.z * transform.m23) + transform.m33;
+        return transformCoordinates(vector, transform, new Vector3d());
+    }
+
+    public static Vector3d transformCoordinates(Vector3d vector, Matrix4d transform, Vector3d result) {
+        return transformCoordinates(vector.x, vector.y, vector.z, transform, result);
+    }
+
+    public static Vector3d transformCoordinates(double vx, double vy, double vz, Matrix4d transform, Vector3d result) {
+        double x = (vx * transform.m00) + (vy * transform.m10) + (vz * transform.m20) + transform.m30;
+        double y = (vx * transform.m01) + (vy * transform.m11) + (vz * transform.m21) + transform.m31;
+        double z = (vx * transform.m02) + (vy * transform.m12) + (vz * transform.m22) + transform.m32;
+        double w = (vx * transform.m03) + (vy * transform.m13) + (vz * transform.m23) + transform.m33;
 
-        return new Vector3d(x / w, y / w, z / w);
+        result.set(x / w, y / w, z / w);
+        return result;
     }
 
     public static Vector3d transformNormal(Vector3d normal, Matrix4d transform) {
-        return new Vector3d(
-                (normal.x * transform.m00) + (normal.y * transform.m10) + (normal.z * transform.m20),
-                (normal.x * transform.m01) + (normal.y * transform.m11) + (normal.z * transform.m21),
-                (normal.x * transform.m02) + (normal.y * transform.m12) + (normal.z * transform.m22)
+        return transformNormal(normal, transform, new Vector3d());
+    }
+
+    public static Vector3d transformNormal(Vector3d normal, Matrix4d transform, Vector3d result) {
+        return transformNormal(normal.x, normal.y, normal.z, transform, result);
+    }
+
+    public static Vector3d transformNormal(double nx, double ny, double nz, Matrix4d transform, Vector3d result) {
+        result.set(
+                (nx * transform.m00) + (ny * transform.m10) + (nz * transform.m20),
+                (nx * transform.m01) + (ny * transform.m11) + (nz * transform.m21),
+                (nx * transform.m02) + (ny * transform.m12) + (nz * transform.m22)
         );
+        return result;
     }
 }
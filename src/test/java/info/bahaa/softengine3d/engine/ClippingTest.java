@@ -0,0 +1,99 @@
+package info.bahaa.softengine3d.engine;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClippingTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    /**
+     * A floor running from far ahead to behind the camera crosses the near plane. Clipped, it
+     * covers what the part of it between the far edge and the bottom of the screen does.
+     */
+    @Test
+    public void nearPlaneCrossingMatchesPart() {
+        // The sides cross z = 9, under the bottom of the screen and in front of the near plane
+        MeshGeometry part = new MeshGeometry();
+        part.addVertex(-60, -1, -40, 0, 1, 0);
+        part.addVertex(60, -1, -40, 0, 1, 0);
+        part.addVertex(18, -1, 9, 0, 1, 0);
+        part.addVertex(-18, -1, 9, 0, 1, 0);
+        part.addFace(0, 1, 2);
+        part.addFace(0, 2, 3);
+        part.calculateFaceNormals();
+
+        for (RasterizerMode rasterizerMode : RasterizerMode.values()) {
+            byte[] expected = render(rasterizerMode, new Mesh("part", part));
+            assertArrayEquals(rasterizerMode.toString(), expected,
+                    render(rasterizerMode, createTriangle(-60, -1, -40, 60, -1, -40, 0, -1, 30, 0, 1, 0)));
+
+            // Sky at the top, floor at the bottom, and no row covered less than the one above it
+            int previous = 0;
+            for (int y = 0; y < HEIGHT; y++) {
+                int covered = 0;
+                for (int x = 0; x < WIDTH; x++) {
+                    covered += expected[x + y * WIDTH];
+                }
+                assertTrue(rasterizerMode + " row " + y, covered >= previous);
+                assertTrue(rasterizerMode + " row " + y, y > 0 || covered == 0);
+                assertTrue(rasterizerMode + " row " + y, y < HEIGHT - 1 || covered == WIDTH);
+                previous = covered;
+            }
+        }
+    }
+
+    /**
+     * Corners thousands of pixels off the screen, beyond the guard band, are clipped before they
+     * reach the rasterizer.
+     */
+    @Test
+    public void guardBandCrossingCoversScreen() {
+        byte[] everything = new byte[WIDTH * HEIGHT];
+        Arrays.fill(everything, (byte) 1);
+        for (RasterizerMode rasterizerMode : RasterizerMode.values()) {
+            assertArrayEquals(rasterizerMode.toString(), everything,
+                    render(rasterizerMode, createTriangle(-5000, -5000, 0, 5000, -5000, 0, 0, 5000, 0, 0, 0, 1)));
+            assertArrayEquals(rasterizerMode.toString(), new byte[WIDTH * HEIGHT],
+                    render(rasterizerMode, createTriangle(5000, -1, 0, 5010, -1, 0, 5000, 1, 0, 0, 0, 1)));
+        }
+    }
+
+    /**
+     * One for the pixels the mesh covers, zero elsewhere.
+     */
+    private static byte[] render(RasterizerMode rasterizerMode, Mesh mesh) {
+        Device device = new Device(WIDTH, HEIGHT);
+        device.setRasterizerMode(rasterizerMode);
+        Camera camera = new Camera();
+        // Looking down a little, so that the floor faces the camera
+        camera.setPosition(0, 0, 10);
+        camera.setTarget(0, -1, 0);
+
+        device.clear();
+        device.render(camera, Collections.singletonList(mesh));
+        int[] buffer = device.getBuffer();
+        byte[] covered = new byte[buffer.length];
+        for (int i = 0; i < buffer.length; i++) {
+            covered[i] = (byte) (buffer[i] != 0xFF000000 ? 1 : 0);
+        }
+        return covered;
+    }
+
+    private static Mesh createTriangle(double x1, double y1, double z1, double x2, double y2, double z2,
+                                      double x3, double y3, double z3, double nx, double ny, double nz) {
+        MeshGeometry geometry = new MeshGeometry();
+        geometry.addVertex(x1, y1, z1, nx, ny, nz);
+        geometry.addVertex(x2, y2, z2, nx, ny, nz);
+        geometry.addVertex(x3, y3, z3, nx, ny, nz);
+        geometry.addFace(0, 1, 2);
+        geometry.calculateFaceNormals();
+        return new Mesh("triangle", geometry);
+    }
+}
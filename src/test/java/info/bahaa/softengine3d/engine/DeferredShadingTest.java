@@ -0,0 +1,98 @@
+package info.bahaa.softengine3d.engine;
+
+import org.junit.Test;
+
+import javax.vecmath.Vector3d;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Deferred shading interpolates perspective correct like the edge function rasterizer, so the two
+ * only differ where the mip level or a rounding step comes out differently.
+ */
+public class DeferredShadingTest {
+
+    private static final String[] SCENES = {"monkey", "teapot", "torus"};
+    private static final int FRAMES = 10;
+    // Fraction of the covered pixels allowed to differ from forward shading
+    private static final double MAX_DIFFERENT_PIXELS = 0.01;
+
+    @Test
+    public void deferredMatchesForward() throws IOException {
+        for (String scene : SCENES) {
+            Device forward = createDevice(ShadingMode.FORWARD, 1);
+            Device deferred = createDevice(ShadingMode.DEFERRED, 1);
+            List<Mesh> meshes = loadScene(scene);
+            Camera camera = createCamera();
+
+            for (int frame = 0; frame < FRAMES; frame++) {
+                for (Mesh mesh : meshes) {
+                    mesh.rotateYawPitchRoll(0.3, 0.1, 0);
+                }
+                forward.clear();
+                forward.render(camera, meshes);
+                deferred.clear();
+                deferred.render(camera, meshes);
+
+                int[] expected = forward.getBuffer();
+                int[] actual = deferred.getBuffer();
+                int covered = 0;
+                int different = 0;
+                for (int i = 0; i < expected.length; i++) {
+                    if (expected[i] != 0xFF000000) {
+                        covered++;
+                    }
+                    if (expected[i] != actual[i]) {
+                        different++;
+                    }
+                }
+                assertTrue(scene + " frame " + frame + ": " + different + " of " + covered + " pixels differ",
+                        different <= covered * MAX_DIFFERENT_PIXELS);
+            }
+        }
+    }
+
+    @Test
+    public void tiledDeferredMatchesSingleThreaded() throws IOException {
+        for (String scene : SCENES) {
+            Device single = createDevice(ShadingMode.DEFERRED, 1);
+            Device tiled = createDevice(ShadingMode.DEFERRED, 4);
+            List<Mesh> meshes = loadScene(scene);
+            Camera camera = createCamera();
+
+            for (int frame = 0; frame < FRAMES; frame++) {
+                for (Mesh mesh : meshes) {
+                    mesh.rotateYawPitchRoll(0.3, 0.1, 0);
+                }
+                single.clear();
+                single.render(camera, meshes);
+                tiled.clear();
+                tiled.render(camera, meshes);
+                assertArrayEquals(scene + " frame " + frame, single.getBuffer(), tiled.getBuffer());
+            }
+            // Shuts the pool down
+            tiled.setThreadCount(1);
+        }
+    }
+
+    private static Device createDevice(ShadingMode shadingMode, int threadCount) {
+        Device device = new Device(640, 480);
+        device.setRasterizerMode(RasterizerMode.EDGE_FUNCTION);
+        device.setShadingMode(shadingMode);
+        device.setThreadCount(threadCount);
+        return device;
+    }
+
+    private static List<Mesh> loadScene(String scene) throws IOException {
+        return Mesh.loadFromJson(DeferredShadingTest.class.getResourceAsStream("/" + scene + ".babylon"));
+    }
+
+    private static Camera createCamera() {
+        Camera camera = new Camera();
+        camera.setPosition(new Vector3d(0, 0, 10));
+        return camera;
+    }
+}
@@ -0,0 +1,127 @@
+package info.bahaa.softengine3d.engine;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DepthBufferTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    // Coarse enough for every step to change a 16 bit key
+    private static final int STEPS = 1000;
+
+    /**
+     * Keys sort nearer first in every format: increasing with the projected depth, decreasing with
+     * the reversed one, which is one at the near plane. All of them stay below the cleared key.
+     */
+    @Test
+    public void depthKeysSortNearestFirst() {
+        for (DepthFormat depthFormat : DepthFormat.values()) {
+            for (boolean reversedDepth : new boolean[]{false, true}) {
+                Device device = createDevice(depthFormat, reversedDepth);
+                String message = depthFormat + (reversedDepth ? " reversed" : "");
+                int maxKey = depthFormat == DepthFormat.INT16 ? 0xFFFF : Integer.MAX_VALUE;
+
+                int previous = -1;
+                for (int i = 0; i <= STEPS; i++) {
+                    double farness = (double) i / STEPS;
+                    int key = device.depthKey(reversedDepth ? 1 - farness : farness);
+                    assertTrue(message + " step " + i, key > previous);
+                    assertTrue(message + " step " + i, key < maxKey);
+                    previous = key;
+                }
+            }
+        }
+    }
+
+    /**
+     * Of two depths written to the same pixel, only the nearer one passes, whichever comes first.
+     */
+    @Test
+    public void depthTestKeepsNearest() {
+        for (DepthFormat depthFormat : DepthFormat.values()) {
+            for (boolean reversedDepth : new boolean[]{false, true}) {
+                Device device = createDevice(depthFormat, reversedDepth);
+                String message = depthFormat + (reversedDepth ? " reversed" : "");
+                double near = reversedDepth ? 0.75 : 0.25;
+                double far = reversedDepth ? 0.25 : 0.75;
+
+                device.clear();
+                assertEquals(message, 1, device.testDepth(0, 1, 1, far, 0, 0));
+                assertEquals(message, 1, device.testDepth(0, 1, 1, near, 0, 0));
+                assertEquals(message, 0, device.testDepth(0, 1, 1, far, 0, 0));
+
+                device.clear();
+                assertEquals(message, 1, device.testDepth(0, 1, 1, near, 0, 0));
+                assertEquals(message, 0, device.testDepth(0, 1, 1, far, 0, 0));
+            }
+        }
+    }
+
+    /**
+     * A quad hidden behind a nearer one drawn first is rejected before it is rasterized, leaving
+     * the same pixels as testing every one of them.
+     */
+    @Test
+    public void occludedMeshIsRejected() {
+        for (DepthFormat depthFormat : DepthFormat.values()) {
+            for (boolean reversedDepth : new boolean[]{false, true}) {
+                for (RasterizerMode rasterizerMode : RasterizerMode.values()) {
+                    String message = depthFormat + (reversedDepth ? " reversed " : " ") + rasterizerMode;
+                    Device hierarchical = createDevice(depthFormat, reversedDepth);
+                    hierarchical.setRasterizerMode(rasterizerMode);
+                    Device flat = createDevice(depthFormat, reversedDepth);
+                    flat.setRasterizerMode(rasterizerMode);
+                    flat.setHierarchicalDepth(false);
+
+                    int[] expected = render(flat);
+                    FrameStatistics flatStatistics = flat.getStatistics();
+                    assertEquals(message, 4, flatStatistics.getRasterizedTriangleCount());
+                    assertTrue(message, flatStatistics.getDepthTestFailureCount() > 0);
+
+                    assertArrayEquals(message, expected, render(hierarchical));
+                    FrameStatistics statistics = hierarchical.getStatistics();
+                    assertEquals(message, 2, statistics.getRasterizedTriangleCount());
+                    assertEquals(message, 0, statistics.getDepthTestFailureCount());
+                }
+            }
+        }
+    }
+
+    private static Device createDevice(DepthFormat depthFormat, boolean reversedDepth) {
+        Device device = new Device(WIDTH, HEIGHT);
+        device.setDepthFormat(depthFormat);
+        device.setReversedDepth(reversedDepth);
+        return device;
+    }
+
+    /**
+     * A large quad filling the middle of the screen, then a smaller one further away right behind
+     * it.
+     */
+    private static int[] render(Device device) {
+        Camera camera = new Camera();
+        camera.setPosition(0, 0, 10);
+
+        device.clear();
+        device.render(camera, Arrays.asList(createQuad(2, 0), createQuad(1, -5)));
+        return device.getBuffer().clone();
+    }
+
+    private static Mesh createQuad(double size, double z) {
+        MeshGeometry geometry = new MeshGeometry();
+        geometry.addVertex(-size, -size, z, 0, 0, 1);
+        geometry.addVertex(size, -size, z, 0, 0, 1);
+        geometry.addVertex(size, size, z, 0, 0, 1);
+        geometry.addVertex(-size, size, z, 0, 0, 1);
+        geometry.addFace(0, 1, 2);
+        geometry.addFace(0, 2, 3);
+        geometry.calculateFaceNormals();
+        return new Mesh("quad", geometry);
+    }
+}
@@ -0,0 +1,133 @@
+package info.bahaa.softengine3d.engine;
+
+import info.bahaa.softengine3d.math.Mat4;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.vecmath.Vector3d;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Once warmed up, rendering a frame must not allocate: all per frame state lives in buffers the
+ * device reuses.
+ */
+public class DeviceAllocationTest {
+
+    private static final int WARMUP_FRAMES = 1000;
+    private static final int FRAMES = 100;
+    private static final int WINDOWS = 3;
+
+    private com.sun.management.ThreadMXBean threads;
+    private List<Mesh> meshes;
+    private Camera camera;
+
+    @Before
+    public void setUp() throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        this.threads = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(this.threads.isThreadAllocatedMemorySupported());
+        this.threads.setThreadAllocatedMemoryEnabled(true);
+
+        this.meshes = Mesh.loadFromJson(DeviceAllocationTest.class.getResourceAsStream("/monkey.babylon"));
+        this.camera = new Camera();
+        this.camera.setPosition(new Vector3d(0, 0, 10));
+    }
+
+    @Test
+    public void forwardFramesDoNotAllocate() {
+        Device device = createDevice();
+        assertEquals(0, this.measureAllocatedBytes(() -> this.renderFrame(device)));
+    }
+
+    @Test
+    public void deferredFramesDoNotAllocate() {
+        Device device = createDevice();
+        device.setShadingMode(ShadingMode.DEFERRED);
+        device.setRasterizerMode(RasterizerMode.EDGE_FUNCTION);
+        assertEquals(0, this.measureAllocatedBytes(() -> this.renderFrame(device)));
+    }
+
+    @Test
+    public void sceneFramesDoNotAllocate() {
+        Device device = createDevice();
+        Scene scene = new Scene();
+        for (Mesh mesh : this.meshes) {
+            scene.add(mesh);
+        }
+        assertEquals(0, this.measureAllocatedBytes(() -> {
+            this.rotateMeshes();
+            device.clear();
+            device.render(this.camera, scene);
+        }));
+    }
+
+    @Test
+    public void instancedFramesDoNotAllocate() {
+        Device device = createDevice();
+        Mat4[] worldMatrices = new Mat4[16];
+        for (int i = 0; i < worldMatrices.length; i++) {
+            worldMatrices[i] = new Mat4().setToTranslation((i % 4 - 1.5f) * 3, (i / 4 - 1.5f) * 3, 0);
+        }
+        List<InstancedMesh> instancedMeshes = Collections.singletonList(new InstancedMesh(this.meshes.get(0), worldMatrices));
+        assertEquals(0, this.measureAllocatedBytes(() -> {
+            device.clear();
+            device.render(this.camera, this.meshes, instancedMeshes);
+        }));
+    }
+
+    /**
+     * A device on the scalar path: the Vector API allocates its vectors wherever C2 does not
+     * intrinsify them, which depends on what else ran in the JVM before.
+     */
+    private static Device createDevice() {
+        Device device = new Device(320, 240);
+        device.setVectorized(false);
+        return device;
+    }
+
+    private void renderFrame(Device device) {
+        this.rotateMeshes();
+        device.clear();
+        device.render(this.camera, this.meshes);
+    }
+
+    private void rotateMeshes() {
+        // Indexed, an iterator would be an allocation of the test itself
+        for (int i = 0; i < this.meshes.size(); i++) {
+            this.meshes.get(i).rotateYawPitchRoll(0.01, 0, 0);
+        }
+    }
+
+    /**
+     * Least bytes allocated by this thread over {@link #FRAMES} frames in any of {@link #WINDOWS}
+     * windows, after {@link #WARMUP_FRAMES} frames for the buffers to grow and the JIT to compile
+     * the render loop. An allocation of the render loop shows up in every window, while the JVM
+     * now and then allocates a few bytes on the thread once.
+     */
+    private long measureAllocatedBytes(Runnable frame) {
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            frame.run();
+        }
+        long thread = Thread.currentThread().getId();
+        long least = Long.MAX_VALUE;
+        for (int window = 0; window < WINDOWS; window++) {
+            // The first reading may allocate itself, the second one is the baseline
+            this.threads.getThreadAllocatedBytes(thread);
+            long before = this.threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < FRAMES; i++) {
+                frame.run();
+            }
+            long after = this.threads.getThreadAllocatedBytes(thread);
+            least = Math.min(least, after - before);
+        }
+        return least;
+    }
+}
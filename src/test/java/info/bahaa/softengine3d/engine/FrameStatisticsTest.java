@@ -0,0 +1,80 @@
+package info.bahaa.softengine3d.engine;
+
+import info.bahaa.softengine3d.math.Mat4;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameStatisticsTest {
+
+    // Time spent on every vertex, far above anything else a quad costs
+    private static final long VERTEX_NANOS = 5_000_000;
+
+    @Test
+    public void depthPrePassIsNotCounted() {
+        FrameStatistics withoutPrePass = render(false);
+        FrameStatistics withPrePass = render(true);
+
+        assertEquals(2, withPrePass.getCulledMeshCount());
+        assertEquals(withoutPrePass.getCulledMeshCount(), withPrePass.getCulledMeshCount());
+        assertEquals(withoutPrePass.getCulledFaceCount(), withPrePass.getCulledFaceCount());
+        assertEquals(withoutPrePass.getBackFaceCount(), withPrePass.getBackFaceCount());
+        assertEquals(withoutPrePass.getSubmittedTriangleCount(), withPrePass.getSubmittedTriangleCount());
+
+        // Two visible quads transformed once each in the main pass, the pre-pass would double it
+        long mainPassNanos = 2 * 4 * VERTEX_NANOS;
+        assertTrue(withoutPrePass.toString(), withoutPrePass.getTransformNanos() >= mainPassNanos);
+        assertTrue(withPrePass.toString(), withPrePass.getTransformNanos() >= mainPassNanos);
+        assertTrue(withPrePass.toString(), withPrePass.getTransformNanos() < 2 * mainPassNanos);
+    }
+
+    /**
+     * A frame of two occluding quads facing the camera, plus a third one and an instanced copy of
+     * it outside the frustum.
+     */
+    private static FrameStatistics render(boolean depthPrePass) {
+        Mesh near = createQuad(0, 0, 0);
+        Mesh far = createQuad(0, 0, -5);
+        Mesh outside = createQuad(100, 0, 0);
+        List<Mesh> meshes = Arrays.asList(near, far, outside);
+        InstancedMesh instancedMesh = new InstancedMesh(createQuad(0, 0, 0), new Mat4[]{new Mat4().setToTranslation(0, 100, 0)});
+
+        Device device = new Device(320, 240) {
+            @Override
+            protected Vertex project(MeshGeometry geometry, int index, Mat4 transform, Mat4 world, Vertex result) {
+                long end = System.nanoTime() + VERTEX_NANOS;
+                while (System.nanoTime() < end) {
+                    Thread.onSpinWait();
+                }
+                return super.project(geometry, index, transform, world, result);
+            }
+        };
+        device.setVectorized(false);
+        device.setDepthPrePass(depthPrePass);
+        Camera camera = new Camera();
+        camera.setPosition(0, 0, 10);
+
+        device.clear();
+        device.render(camera, meshes, Arrays.asList(instancedMesh));
+        return device.getStatistics();
+    }
+
+    private static Mesh createQuad(double x, double y, double z) {
+        MeshGeometry geometry = new MeshGeometry();
+        geometry.addVertex(-1, -1, 0, 0, 0, 1);
+        geometry.addVertex(1, -1, 0, 0, 0, 1);
+        geometry.addVertex(1, 1, 0, 0, 0, 1);
+        geometry.addVertex(-1, 1, 0, 0, 0, 1);
+        geometry.addFace(0, 1, 2);
+        geometry.addFace(0, 2, 3);
+        geometry.calculateFaceNormals();
+        Mesh mesh = new Mesh("quad", geometry);
+        mesh.setTranslation(x, y, z);
+        mesh.setOccluder(true);
+        return mesh;
+    }
+}
@@ -0,0 +1,73 @@
+package info.bahaa.softengine3d.engine;
+
+import info.bahaa.softengine3d.math.Mat4;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+public class InstancedMeshTest {
+
+    @Test
+    public void instancesMatchSeparateMeshes() throws IOException {
+        Mat4[] worldMatrices = createWorldMatrices();
+        List<Mesh> meshes = new ArrayList<>();
+        for (Mat4 worldMatrix : worldMatrices) {
+            Mesh mesh = loadMesh();
+            worldMatrix.get(mesh.getWorldMatrix());
+            meshes.add(mesh);
+        }
+        Device device = new Device(320, 240);
+        Camera camera = createCamera();
+
+        device.clear();
+        device.render(camera, meshes);
+        int[] expected = device.getBuffer().clone();
+        device.clear();
+        device.render(camera, Collections.emptyList(), Collections.singletonList(new InstancedMesh(loadMesh(), worldMatrices)));
+        assertArrayEquals(expected, device.getBuffer());
+    }
+
+    @Test
+    public void renderInstancedKeepsNoMeshAlive() throws Exception {
+        Device device = new Device(320, 240);
+        WeakReference<Mesh> mesh = this.renderInstanced(device);
+
+        for (int i = 0; i < 50 && mesh.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(mesh.get());
+    }
+
+    private WeakReference<Mesh> renderInstanced(Device device) throws IOException {
+        Mesh mesh = loadMesh();
+        device.clear();
+        device.renderInstanced(createCamera(), mesh, createWorldMatrices());
+        return new WeakReference<>(mesh);
+    }
+
+    private static Mesh loadMesh() throws IOException {
+        return Mesh.loadFromJson(InstancedMeshTest.class.getResourceAsStream("/monkey.babylon")).get(0);
+    }
+
+    private static Mat4[] createWorldMatrices() {
+        Mat4[] worldMatrices = new Mat4[9];
+        for (int i = 0; i < worldMatrices.length; i++) {
+            worldMatrices[i] = new Mat4().setToTranslation((i % 3 - 1) * 3, (i / 3 - 1) * 3, 0);
+        }
+        return worldMatrices;
+    }
+
+    private static Camera createCamera() {
+        Camera camera = new Camera();
+        camera.setPosition(0, 0, 15);
+        return camera;
+    }
+}
@@ -0,0 +1,57 @@
+package info.bahaa.softengine3d.engine;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class LightingTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void translationKeepsLighting() {
+        for (boolean vectorized : Device.isVectorSupported() ? new boolean[]{false, true} : new boolean[]{false}) {
+            int expected = renderCenter(0, 0, vectorized);
+            assertNotEquals(0xFF000000, expected);
+            // Moving the quad along with the camera leaves the directional light at the same angle
+            assertEquals("vectorized " + vectorized, expected, renderCenter(5, 3, vectorized));
+            assertEquals("vectorized " + vectorized, expected, renderCenter(-40, 25, vectorized));
+        }
+    }
+
+    /**
+     * The color at the center of the screen for a quad facing the camera, both moved by
+     * {@code x, y}.
+     */
+    private static int renderCenter(double x, double y, boolean vectorized) {
+        MeshGeometry geometry = new MeshGeometry();
+        geometry.addVertex(-1, -1, 0, 0, 0, 1);
+        geometry.addVertex(1, -1, 0, 0, 0, 1);
+        geometry.addVertex(1, 1, 0, 0, 0, 1);
+        geometry.addVertex(-1, 1, 0, 0, 0, 1);
+        geometry.addFace(0, 1, 2);
+        geometry.addFace(0, 2, 3);
+        geometry.calculateFaceNormals();
+        Mesh mesh = new Mesh("quad", geometry);
+        mesh.setTranslation(x, y, 0);
+        List<Mesh> meshes = Collections.singletonList(mesh);
+
+        Camera camera = new Camera();
+        camera.setPosition(x, y, 10);
+        camera.setTarget(x, y, 0);
+        Device device = new Device(WIDTH, HEIGHT);
+        device.setRasterizerMode(RasterizerMode.EDGE_FUNCTION);
+        device.setVectorized(vectorized);
+        device.getLights().clear();
+        device.getLights().add(Light.directional(0.3f, -0.2f, -1));
+
+        device.clear();
+        device.render(camera, meshes);
+        return device.getBuffer()[WIDTH / 2 + HEIGHT / 2 * WIDTH];
+    }
+}
@@ -0,0 +1,65 @@
+package info.bahaa.softengine3d.engine;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MeshOptimizerTest {
+
+    @Test
+    public void optimizeKeepsFacesAndImprovesVertexReuse() throws IOException {
+        for (String scene : new String[]{"monkey", "teapot", "torus"}) {
+            MeshGeometry source = BabylonLoader.load(MeshOptimizerTest.class.getResourceAsStream("/" + scene + ".babylon"),
+                    TextureManager.getShared(), false).get(0).getGeometry();
+            MeshOptimizer optimizer = new MeshOptimizer(source);
+            MeshGeometry optimized = optimizer.optimize();
+
+            assertEquals(scene, faces(source), faces(optimized));
+            assertTrue(scene, optimized.getVertexCount() <= source.getVertexCount());
+            assertTrue(scene + ": " + optimizer, optimizer.getAcmr() <= optimizer.getOriginalAcmr());
+            assertEquals(scene, MeshOptimizer.computeAcmr(optimized), optimizer.getAcmr(), 0);
+        }
+    }
+
+    /**
+     * The non-degenerate faces as sorted descriptions of their corners, starting from the smallest
+     * corner so the winding is kept but not the starting corner.
+     */
+    private static List<String> faces(MeshGeometry geometry) {
+        int[] indices = geometry.getIndices();
+        List<String> faces = new ArrayList<>(geometry.getFaceCount());
+        for (int face = 0; face < geometry.getFaceCount(); face++) {
+            String[] corners = new String[3];
+            for (int corner = 0; corner < 3; corner++) {
+                corners[corner] = corner(geometry, indices[face * 3 + corner]);
+            }
+            if (corners[0].equals(corners[1]) || corners[1].equals(corners[2]) || corners[0].equals(corners[2])) {
+                continue;
+            }
+            int first = 0;
+            for (int corner = 1; corner < 3; corner++) {
+                if (corners[corner].compareTo(corners[first]) < 0) {
+                    first = corner;
+                }
+            }
+            faces.add(corners[first] + "|" + corners[(first + 1) % 3] + "|" + corners[(first + 2) % 3]);
+        }
+        Collections.sort(faces);
+        return faces;
+    }
+
+    private static String corner(MeshGeometry geometry, int vertex) {
+        double[] positions = geometry.getPositions();
+        double[] normals = geometry.getNormals();
+        double[] textureCoordinates = geometry.getTextureCoordinates();
+        return positions[vertex * 3] + "," + positions[vertex * 3 + 1] + "," + positions[vertex * 3 + 2] + ","
+                + normals[vertex * 3] + "," + normals[vertex * 3 + 1] + "," + normals[vertex * 3 + 2] + ","
+                + textureCoordinates[vertex * 2] + "," + textureCoordinates[vertex * 2 + 1];
+    }
+}
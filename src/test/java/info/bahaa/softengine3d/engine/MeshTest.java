@@ -0,0 +1,45 @@
+package info.bahaa.softengine3d.engine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.vecmath.Vector3d;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MeshTest {
+
+    private Mesh mesh;
+
+    @Before
+    public void setUp() throws Exception {
+        this.mesh = Mesh.loadFromJson(MeshTest.class.getResourceAsStream("/monkey.babylon")).get(0);
+        this.mesh.buildLevelsOfDetail(2);
+        assertTrue(this.mesh.getLevelOfDetailCount() > 1);
+    }
+
+    @Test
+    public void addFaceDropsLevelsOfDetail() {
+        this.mesh.addFace(0, 1, 2);
+        assertEquals(1, this.mesh.getLevelOfDetailCount());
+    }
+
+    @Test
+    public void addFaceWithNormalDropsLevelsOfDetail() {
+        Face face = new Face(0, 1, 2);
+        face.normal = new Vector3d(0, 0, 1);
+        this.mesh.addFace(face);
+        assertEquals(1, this.mesh.getLevelOfDetailCount());
+    }
+
+    @Test
+    public void geometryChangesDropLevelsOfDetail() {
+        this.mesh.getGeometry().setFaceNormal(0, 0, 0, 1);
+        assertEquals(1, this.mesh.getLevelOfDetailCount());
+
+        this.mesh.buildLevelsOfDetail(2);
+        this.mesh.getGeometry().addFace(0, 1, 2);
+        assertEquals(1, this.mesh.getLevelOfDetailCount());
+    }
+}
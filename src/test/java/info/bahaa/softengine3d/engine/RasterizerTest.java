@@ -0,0 +1,128 @@
+package info.bahaa.softengine3d.engine;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RasterizerTest {
+
+    // Odd sizes put the center of the screen, and the axes through it, on pixel centers
+    private static final int FAN_WIDTH = 321;
+    private static final int FAN_HEIGHT = 241;
+    private static final int FAN_TRIANGLES = 16;
+    private static final int FRAMES = 10;
+    // Fraction of the covered pixels allowed to be covered by one rasterizer only
+    private static final double MAX_COVERAGE_DIFFERENCE = 0.03;
+    // Mean difference of a color channel over the covered pixels, out of 255
+    private static final double MAX_MEAN_CHANNEL_DIFFERENCE = 8;
+
+    /**
+     * A fan around the center of the screen has edges along rows and columns of pixel centers as
+     * well as diagonal ones. Drawn one by one, its triangles must together cover every pixel the
+     * whole fan covers, each exactly once.
+     */
+    @Test
+    public void sharedEdgesCoverPixelsOnce() {
+        Device device = createDevice(FAN_WIDTH, FAN_HEIGHT, RasterizerMode.EDGE_FUNCTION);
+        Camera camera = new Camera();
+        camera.setPosition(0, 0, 10);
+
+        int[] coverage = new int[FAN_WIDTH * FAN_HEIGHT];
+        for (int triangle = 0; triangle < FAN_TRIANGLES; triangle++) {
+            device.clear();
+            device.render(camera, Collections.singletonList(createFan(triangle, triangle + 1)));
+            int[] buffer = device.getBuffer();
+            for (int i = 0; i < buffer.length; i++) {
+                if (buffer[i] != 0xFF000000) {
+                    coverage[i]++;
+                }
+            }
+        }
+
+        device.clear();
+        device.render(camera, Collections.singletonList(createFan(0, FAN_TRIANGLES)));
+        int[] buffer = device.getBuffer();
+        int covered = 0;
+        for (int i = 0; i < buffer.length; i++) {
+            int expected = buffer[i] != 0xFF000000 ? 1 : 0;
+            assertEquals("pixel " + (i % FAN_WIDTH) + ", " + (i / FAN_WIDTH), expected, coverage[i]);
+            covered += expected;
+        }
+        assertTrue(covered > 0);
+    }
+
+    /**
+     * The scanline rasterizer interpolates affinely and rounds its spans its own way, so the two agree
+     * up to a thin outline and some shading.
+     */
+    @Test
+    public void edgeFunctionMatchesScanline() throws IOException {
+        for (String scene : new String[]{"monkey", "teapot", "torus"}) {
+            Device scanline = createDevice(640, 480, RasterizerMode.SCANLINE);
+            Device edgeFunction = createDevice(640, 480, RasterizerMode.EDGE_FUNCTION);
+            List<Mesh> meshes = Mesh.loadFromJson(RasterizerTest.class.getResourceAsStream("/" + scene + ".babylon"));
+            Camera camera = new Camera();
+            camera.setPosition(0, 0, 10);
+
+            for (int frame = 0; frame < FRAMES; frame++) {
+                for (Mesh mesh : meshes) {
+                    mesh.rotateYawPitchRoll(0.3, 0.1, 0);
+                }
+                scanline.clear();
+                scanline.render(camera, meshes);
+                edgeFunction.clear();
+                edgeFunction.render(camera, meshes);
+
+                int[] expected = scanline.getBuffer();
+                int[] actual = edgeFunction.getBuffer();
+                int covered = 0;
+                int different = 0;
+                long channelDifference = 0;
+                for (int i = 0; i < expected.length; i++) {
+                    boolean expectedCovered = expected[i] != 0xFF000000;
+                    if (expectedCovered != (actual[i] != 0xFF000000)) {
+                        different++;
+                    } else if (expectedCovered) {
+                        covered++;
+                        for (int shift = 0; shift < 24; shift += 8) {
+                            channelDifference += Math.abs(((expected[i] >> shift) & 0xFF) - ((actual[i] >> shift) & 0xFF));
+                        }
+                    }
+                }
+                String message = scene + " frame " + frame + ": ";
+                assertTrue(message + different + " of " + covered + " pixels covered by one only",
+                        different <= covered * MAX_COVERAGE_DIFFERENCE);
+                double meanChannelDifference = channelDifference / (3.0 * covered);
+                assertTrue(message + meanChannelDifference, meanChannelDifference <= MAX_MEAN_CHANNEL_DIFFERENCE);
+            }
+        }
+    }
+
+    private static Device createDevice(int width, int height, RasterizerMode rasterizerMode) {
+        Device device = new Device(width, height);
+        device.setRasterizerMode(rasterizerMode);
+        return device;
+    }
+
+    /**
+     * The triangles {@code from} to {@code to} of a fan around the origin facing the camera.
+     */
+    private static Mesh createFan(int from, int to) {
+        MeshGeometry geometry = new MeshGeometry();
+        int center = geometry.addVertex(0, 0, 0, 0, 0, 1);
+        for (int i = from; i <= to; i++) {
+            double angle = 2 * Math.PI * i / FAN_TRIANGLES;
+            geometry.addVertex(2 * Math.cos(angle), 2 * Math.sin(angle), 0, 0, 0, 1);
+        }
+        for (int i = 0; i < to - from; i++) {
+            geometry.addFace(center, center + 1 + i, center + 2 + i);
+        }
+        geometry.calculateFaceNormals();
+        return new Mesh("fan", geometry);
+    }
+}
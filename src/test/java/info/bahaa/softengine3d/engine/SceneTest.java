@@ -0,0 +1,86 @@
+package info.bahaa.softengine3d.engine;
+
+import info.bahaa.softengine3d.math.Vec3;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SceneTest {
+
+    private MeshGeometry geometry;
+
+    @Before
+    public void setUp() throws IOException {
+        this.geometry = Mesh.loadFromJson(SceneTest.class.getResourceAsStream("/monkey.babylon")).get(0).getGeometry();
+    }
+
+    @Test
+    public void renderMatchesMeshList() {
+        Random random = new Random(1);
+        List<Mesh> meshes = new ArrayList<>();
+        Scene scene = new Scene();
+        for (int i = 0; i < 300; i++) {
+            Mesh mesh = new Mesh("mesh" + i, this.geometry);
+            mesh.setTranslation(random.nextDouble() * 200 - 100, random.nextDouble() * 200 - 100, random.nextDouble() * 200);
+            mesh.rotateYawPitchRoll(random.nextDouble(), random.nextDouble(), 0);
+            meshes.add(mesh);
+            scene.add(mesh);
+        }
+        Camera camera = new Camera();
+        camera.setPosition(0, 0, -40);
+        Device device = new Device(320, 240);
+
+        device.clear();
+        device.render(camera, meshes);
+        int[] expected = device.getBuffer().clone();
+        device.clear();
+        device.render(camera, scene);
+        assertArrayEquals(expected, device.getBuffer());
+        assertTrue(device.getCulledMeshCount() > 0);
+
+        // Moved meshes are refitted before the next query
+        for (int i = 0; i < meshes.size(); i += 3) {
+            meshes.get(i).translate(random.nextDouble() * 50 - 25, random.nextDouble() * 50 - 25, -20);
+        }
+        device.clear();
+        device.render(camera, meshes);
+        expected = device.getBuffer().clone();
+        device.clear();
+        device.render(camera, scene);
+        assertArrayEquals(expected, device.getBuffer());
+    }
+
+    @Test
+    public void pickFindsNearestMesh() {
+        Scene scene = new Scene();
+        Mesh[] meshes = new Mesh[3];
+        for (int i = 0; i < meshes.length; i++) {
+            meshes[i] = new Mesh("mesh" + i, this.geometry);
+            meshes[i].setTranslation(0, 0, i * 10);
+            scene.add(meshes[i]);
+        }
+        Vec3 origin = new Vec3(0, 0, -40);
+        Vec3 direction = new Vec3(0, 0, 1);
+        Vec3 hitPoint = new Vec3();
+
+        assertSame(meshes[0], scene.pick(origin, direction, hitPoint));
+        assertTrue(hitPoint.z > -2 && hitPoint.z < 2);
+
+        assertTrue(scene.remove(meshes[0]));
+        assertSame(meshes[1], scene.pick(origin, direction, hitPoint));
+        assertTrue(hitPoint.z > 8 && hitPoint.z < 12);
+        assertEquals(2, scene.size());
+
+        assertNull(scene.pick(origin, new Vec3(0, 1, 0), null));
+    }
+}
@@ -0,0 +1,53 @@
+package info.bahaa.softengine3d.engine;
+
+import org.junit.Test;
+
+import javax.vecmath.Vector3d;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Rasterizing the tiles on several threads must give the same pixels as one thread, whether or not
+ * the screen is a whole number of tiles.
+ */
+public class TiledRenderTest {
+
+    private static final int[][] SIZES = {{640, 480}, {333, 217}, {Device.TILE_SIZE + 1, Device.TILE_SIZE - 1}};
+    private static final int FRAMES = 10;
+
+    @Test
+    public void tiledMatchesSingleThreaded() throws IOException {
+        for (int[] size : SIZES) {
+            for (RasterizerMode rasterizerMode : RasterizerMode.values()) {
+                Device single = createDevice(size, rasterizerMode, 1);
+                Device tiled = createDevice(size, rasterizerMode, 4);
+                List<Mesh> meshes = Mesh.loadFromJson(TiledRenderTest.class.getResourceAsStream("/monkey.babylon"));
+                Camera camera = new Camera();
+                camera.setPosition(new Vector3d(0, 0, 10));
+
+                for (int frame = 0; frame < FRAMES; frame++) {
+                    for (Mesh mesh : meshes) {
+                        mesh.rotateYawPitchRoll(0.3, 0.1, 0);
+                    }
+                    single.clear();
+                    single.render(camera, meshes);
+                    tiled.clear();
+                    tiled.render(camera, meshes);
+                    assertArrayEquals(size[0] + "x" + size[1] + " " + rasterizerMode + " frame " + frame,
+                            single.getBuffer(), tiled.getBuffer());
+                }
+                // Shuts the pool down
+                tiled.setThreadCount(1);
+            }
+        }
+    }
+
+    private static Device createDevice(int[] size, RasterizerMode rasterizerMode, int threadCount) {
+        Device device = new Device(size[0], size[1]);
+        device.setRasterizerMode(rasterizerMode);
+        device.setThreadCount(threadCount);
+        return device;
+    }
+}
@@ -0,0 +1,52 @@
+package info.bahaa.softengine3d.engine;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import javax.vecmath.Vector3d;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * The vector kernels must render the same pixels as the scalar code. Skipped unless the JVM runs
+ * with {@code --add-modules jdk.incubator.vector}.
+ */
+public class VectorizedRenderTest {
+
+    private static final int FRAMES = 10;
+
+    @Test
+    public void vectorizedMatchesScalar() throws IOException {
+        Assume.assumeTrue(Device.isVectorSupported());
+
+        for (String scene : new String[]{"monkey", "teapot", "torus"}) {
+            for (RasterizerMode rasterizerMode : RasterizerMode.values()) {
+                Device scalar = createDevice(rasterizerMode, false);
+                Device vectorized = createDevice(rasterizerMode, true);
+                List<Mesh> meshes = Mesh.loadFromJson(VectorizedRenderTest.class.getResourceAsStream("/" + scene + ".babylon"));
+                Camera camera = new Camera();
+                camera.setPosition(new Vector3d(0, 0, 10));
+
+                for (int frame = 0; frame < FRAMES; frame++) {
+                    for (Mesh mesh : meshes) {
+                        mesh.rotateYawPitchRoll(0.3, 0.1, 0);
+                    }
+                    scalar.clear();
+                    scalar.render(camera, meshes);
+                    vectorized.clear();
+                    vectorized.render(camera, meshes);
+                    assertArrayEquals(scene + " " + rasterizerMode + " frame " + frame, scalar.getBuffer(), vectorized.getBuffer());
+                }
+            }
+        }
+    }
+
+    private static Device createDevice(RasterizerMode rasterizerMode, boolean vectorized) {
+        Device device = new Device(640, 480);
+        device.setRasterizerMode(rasterizerMode);
+        device.setVectorized(vectorized);
+        return device;
+    }
+}
@@ -0,0 +1,77 @@
+package info.bahaa.softengine3d.engine;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link SimdKernel} on 256 bit vectors: four doubles hold one homogeneous vertex and eight ints
+ * hold one row of a depth tile.
+ */
+class VectorApiKernel implements SimdKernel {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_256;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_256;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_256;
+
+    private static final int FLOAT_INFINITY_BITS = 0x7F800000;
+
+    private static final int[] LANE_BITS = {1, 2, 4, 8, 16, 32, 64, 128};
+    private static final float[] LANE_INDICES = {0, 1, 2, 3, 4, 5, 6, 7};
+
+    @Override
+    public boolean isSupported() {
+        return IntVector.SPECIES_PREFERRED.vectorBitSize() >= INTS.vectorBitSize()
+                && INTS.length() == Device.DEPTH_TILE_SIZE;
+    }
+
+    @Override
+    public void transformPoints(double[] points, int count, double[] matrices, int matrixCount, double[] result) {
+        int block = count * 4;
+        for (int i = 0; i < count; i++) {
+            double x = points[i * 3];
+            double y = points[i * 3 + 1];
+            double z = points[i * 3 + 2];
+            for (int m = 0, offset = i * 4; m < matrixCount; m++, offset += block) {
+                int row = m * 16;
+                DoubleVector.fromArray(DOUBLES, matrices, row).mul(x)
+                        .add(DoubleVector.fromArray(DOUBLES, matrices, row + 4).mul(y))
+                        .add(DoubleVector.fromArray(DOUBLES, matrices, row + 8).mul(z))
+                        .add(DoubleVector.fromArray(DOUBLES, matrices, row + 12))
+                        .intoArray(result, offset);
+            }
+        }
+    }
+
+    @Override
+    public int testDepthFloat(int[] depthBuffer, int index, int count, int coverage, float depth, float step,
+                              boolean reversed, int tileMax) {
+        // Lanes are aligned to the depth tile, so the whole vector stays within one tile row
+        int lane = index & (INTS.length() - 1);
+        int start = index - lane;
+        IntVector laneBits = IntVector.fromArray(INTS, LANE_BITS, 0);
+        VectorMask<Integer> covered = laneBits.and((coverage & ((1 << count) - 1)) << lane).compare(VectorOperators.NE, 0);
+
+        FloatVector steps = FloatVector.fromArray(FLOATS, LANE_INDICES, 0).sub(lane).mul(step);
+        IntVector keys = steps.add(depth).max(0.f).reinterpretAsInts();
+        if (reversed) {
+            keys = IntVector.broadcast(INTS, FLOAT_INFINITY_BITS).sub(keys);
+        }
+
+        IntVector previous = IntVector.fromArray(INTS, depthBuffer, start);
+        VectorMask<Integer> passed = keys.compare(VectorOperators.LE, previous).and(covered);
+        if (!passed.anyTrue()) {
+            return 0;
+        }
+        // The lanes failing the test get their own depth back
+        previous.blend(keys, passed).intoArray(depthBuffer, start);
+
+        int passedBits = IntVector.zero(INTS).blend(laneBits, passed).reduceLanes(VectorOperators.ADD) >>> lane;
+        int cleared = previous.compare(VectorOperators.EQ, Integer.MAX_VALUE).and(passed).trueCount();
+        boolean farthestWritten = previous.compare(VectorOperators.GE, tileMax).and(passed).anyTrue();
+        return passedBits | (cleared << 8) | (farthestWritten ? 1 << 16 : 0);
+    }
+}